@@ -0,0 +1,290 @@
+package com.api.bank.benchmark;
+
+import com.api.bank.manager.BankTransactionManager;
+import com.api.bank.manager.IBankManager;
+import com.api.bank.model.BankConstants;
+import com.api.bank.model.TimeOrderedUUID;
+import com.api.bank.model.entity.Account;
+import com.api.bank.model.entity.Client;
+import com.api.bank.model.entity.QrCheck;
+import com.api.bank.model.enums.ImportFormat;
+import com.api.bank.model.enums.PaymentMethod;
+import com.api.bank.model.enums.SocialReasonStatus;
+import com.api.bank.model.enums.TransactionStatus;
+import com.api.bank.model.exception.BankTransactionException;
+import com.api.bank.model.transaction.BankTransactionModel;
+import com.api.bank.model.transaction.QrCheckTransactionModel;
+import com.api.bank.model.transaction.ShoppingTransactionModel;
+import com.api.bank.model.transaction.TransactionResult;
+import com.api.bank.repository.CheckRepository;
+import com.api.bank.service.AccountImportService;
+import com.api.bank.service.AccountService;
+import com.api.bank.service.CheckTokenFilter;
+import com.api.bank.service.ShopService;
+import com.api.bank.service.TpeService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.metrics.export.simple.SimpleMetricsExportAutoConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.flyway.FlywayAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the throughput of the bank transactions written in an embedded H2 database (MySQL mode, schema of the
+ * Flyway migrations), through the Spring beans of the bank only: BankTransactionManager.executeTransaction on its own,
+ * then BankManager.shoppingTransaction and buyCheckTransaction with their resolution, lanes and idempotency records.
+ * The clients, their cards and the shops are created by the bulk import before the measure.
+ * <p>
+ * The contention is the share of the transactions paid by the first client (or the first check), the others being
+ * paid by a client picked at random: at 0 the accounts are rarely shared by two transactions at the same time,
+ * at 1 every transaction waits for the lease of the same account. A check payment always withdraws from the account
+ * of the bank, whatever the contention.
+ * Run with ./gradlew jmh, the results are written in build/results/jmh/results.json
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class BankTransactionBenchmark {
+    private static final int SHOPS = 16;
+    private static final double AMOUNT = 1;
+
+    /**
+     * The bank beans on a database of accounts
+     */
+    @State(Scope.Benchmark)
+    public static class Bank {
+        @Param({"1000", "100000"})
+        public int accounts;
+
+        @Param({"0", "0.5"})
+        public double contention;
+
+        private ConfigurableApplicationContext context;
+        private BankTransactionManager bankTransactionManager;
+        private IBankManager bankManager;
+        private String[] cardIds;
+        private UUID[] clientIds;
+        private String[] checkTokens;
+        private String[] shopNames;
+        private Account[] cardAccounts;
+        private Account[] shopAccounts;
+        private QrCheck[] checks;
+        private Account bankAccount;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            context = new SpringApplicationBuilder(BankConfiguration.class)
+                    .web(WebApplicationType.NONE)
+                    .logStartupInfo(false)
+                    .run(arguments("bank-" + accounts + "-" + contention));
+            bankTransactionManager = context.getBean(BankTransactionManager.class);
+            bankManager = context.getBean(IBankManager.class);
+
+            var accountService = context.getBean(AccountService.class);
+            importAccounts(context.getBean(AccountImportService.class));
+            accountService.add(new Account(UUID.fromString(BankConstants.BANK_ID), 100000000,
+                    new Client(TimeOrderedUUID.randomUUID(), BankConstants.BANK_NAME, SocialReasonStatus.BANK)));
+            insertChecks(context.getBean(JdbcTemplate.class), context.getBean(CheckTokenFilter.class));
+
+            // The entities given to executeTransaction, loaded with their client and card as BankManager resolves them
+            Map<String, QrCheck> checksByToken = new HashMap<>();
+            context.getBean(CheckRepository.class).findAll().forEach(check -> checksByToken.put(check.getCheckToken(), check));
+            cardIds = new String[accounts];
+            clientIds = new UUID[accounts];
+            cardAccounts = new Account[accounts];
+            checkTokens = new String[accounts];
+            checks = new QrCheck[accounts];
+            for (int i = 0; i < accounts; i++) {
+                cardIds[i] = "card-" + i;
+                cardAccounts[i] = accountService.getAccountByCardId(cardIds[i]);
+                clientIds[i] = cardAccounts[i].getClient().getId();
+                checkTokens[i] = "check-" + i;
+                checks[i] = checksByToken.get(checkTokens[i]);
+            }
+            shopNames = new String[SHOPS];
+            shopAccounts = new Account[SHOPS];
+            for (int i = 0; i < SHOPS; i++) {
+                shopNames[i] = "shop-" + i;
+                shopAccounts[i] = accountService.getAccountByOwnerName(shopNames[i]);
+            }
+            bankAccount = accountService.getAccountByOwnerName(BankConstants.BANK_NAME);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            context.close();
+        }
+
+        /**
+         * Create the clients with a card and the shops, by the bulk import
+         */
+        private void importAccounts(AccountImportService importService) throws IOException {
+            var csv = new StringBuilder("socialReason,firstname,lastname,organisationName,sold,cardId\n");
+            for (int i = 0; i < accounts; i++) {
+                csv.append("INDIVIDUAL,Client,").append(i).append(",,1000000,card-").append(i).append('\n');
+            }
+            for (int i = 0; i < SHOPS; i++) {
+                csv.append("COMPANY,,,shop-").append(i).append(",0,\n");
+            }
+            var report = importService.importAccounts(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), ImportFormat.CSV);
+            if (report.failed() > 0) {
+                throw new IllegalStateException("Accounts not imported: " + report.errors());
+            }
+        }
+
+        /**
+         * Create one check per client, for the check payments
+         */
+        private void insertChecks(JdbcTemplate jdbcTemplate, CheckTokenFilter tokenFilter) {
+            var now = new Timestamp(System.currentTimeMillis());
+            var expirationDate = new Timestamp(now.getTime() + TimeUnit.DAYS.toMillis(365));
+            List<Object[]> checks = new ArrayList<>(accounts);
+            for (int i = 0; i < accounts; i++) {
+                checks.add(new Object[]{TimeOrderedUUID.toBytes(TimeOrderedUUID.randomUUID()), now, now, "check-" + i, 100000000L, expirationDate});
+            }
+            jdbcTemplate.batchUpdate("insert into qr_check (id, created_at, modified_at, check_token, nb_day_of_validity, sold_amount, expiration_date)"
+                    + " values (?, ?, ?, ?, 365, ?, ?)", checks);
+            // Written without the CheckService, the tokens are given to the filter built at startup
+            checks.forEach(check -> tokenFilter.add((String) check[3]));
+        }
+
+        /**
+         * Supply the index of the client paying the next transaction
+         */
+        private int nextClient() {
+            var random = ThreadLocalRandom.current();
+            return random.nextDouble() < contention ? 0 : random.nextInt(accounts);
+        }
+
+        private int nextShop() {
+            return ThreadLocalRandom.current().nextInt(SHOPS);
+        }
+    }
+
+    /**
+     * The means of payment of the shop transactions
+     */
+    @State(Scope.Benchmark)
+    public static class Payment {
+        @Param({"CARD", "CHECK"})
+        public PaymentMethod paymentMethod;
+    }
+
+    /**
+     * A shop transaction settled by BankTransactionManager alone, in its own database transaction
+     */
+    @Benchmark
+    public TransactionStatus executeTransaction(Bank bank, Payment payment) {
+        int client = bank.nextClient();
+        var transaction = new BankTransactionModel(new ShoppingTransactionModel(UUID.randomUUID().toString(),
+                bank.shopNames[0], "benchmark", null, (float) AMOUNT, payment.paymentMethod));
+        transaction.setDepositAccount(bank.shopAccounts[bank.nextShop()]);
+        if (payment.paymentMethod == PaymentMethod.CHECK) {
+            transaction.setWithdrawalAccount(bank.bankAccount);
+            transaction.setQrCheck(bank.checks[client]);
+        } else {
+            transaction.setWithdrawalAccount(bank.cardAccounts[client]);
+        }
+
+        try {
+            bank.bankTransactionManager.executeTransaction(transaction);
+            return TransactionStatus.SUCCESS;
+        } catch (BankTransactionException e) {
+            return e.getTransactionStatus();
+        }
+    }
+
+    /**
+     * A shop transaction as received from a TPE: resolved, queued in the lane of its withdrawal account, settled
+     * in a batch with the transactions queued with it and recorded for its retries
+     */
+    @Benchmark
+    public TransactionResult shoppingTransaction(Bank bank, Payment payment) {
+        int client = bank.nextClient();
+        var meansOfPaymentId = payment.paymentMethod == PaymentMethod.CHECK ? bank.checkTokens[client] : bank.cardIds[client];
+        return bank.bankManager.shoppingTransaction(new ShoppingTransactionModel(UUID.randomUUID().toString(),
+                bank.shopNames[bank.nextShop()], "benchmark", meansOfPaymentId, (float) AMOUNT, payment.paymentMethod));
+    }
+
+    /**
+     * A purchase of a new check, paid by a transfer to the bank
+     */
+    @Benchmark
+    public TransactionResult buyCheckTransaction(Bank bank) {
+        return bank.bankManager.buyCheckTransaction(new QrCheckTransactionModel(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), AMOUNT, bank.clientIds[bank.nextClient()], PaymentMethod.TRANSFER));
+    }
+
+    /**
+     * The command line of the context: an H2 database of its own, migrated by Flyway, and the background jobs off.
+     * The other properties are the ones of application.properties.
+     */
+    private static String[] arguments(String database) {
+        return new String[]{
+                "--spring.datasource.url=jdbc:h2:mem:" + database + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                "--spring.jpa.show-sql=false",
+                "--spring.flyway.init-sqls=create alias if not exists unhex for '" + BankTransactionBenchmark.class.getName() + ".unhex'",
+                "--bank.archive.enabled=false",
+                "--bank.expiry.enabled=false",
+                "--bank.reconciliation.enabled=false",
+                "--bank.ledger.enabled=false",
+                "--logging.level.root=OFF",
+        };
+    }
+
+    /**
+     * The unhex function of MariaDB, used by the migrations and declared in H2
+     */
+    public static byte[] unhex(String value) {
+        return value == null ? null : HexFormat.of().parseHex(value);
+    }
+
+    /**
+     * The beans of the bank and an in-memory meter registry, without the web, the gateway, Redis nor the mails. The shop and TPE services are left out,
+     * they need the password encoder of the authentication.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ImportAutoConfiguration({PropertyPlaceholderAutoConfiguration.class, JacksonAutoConfiguration.class, DataSourceAutoConfiguration.class,
+            FlywayAutoConfiguration.class, HibernateJpaAutoConfiguration.class, TransactionAutoConfiguration.class, JdbcTemplateAutoConfiguration.class,
+            MetricsAutoConfiguration.class, SimpleMetricsExportAutoConfiguration.class})
+    @EntityScan("com.api.bank.model.entity")
+    @EnableJpaRepositories("com.api.bank.repository")
+    @ComponentScan(basePackages = {"com.api.bank.manager", "com.api.bank.ledger", "com.api.bank.service"},
+            excludeFilters = @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, classes = {ShopService.class, TpeService.class}))
+    static class BankConfiguration {
+    }
+}
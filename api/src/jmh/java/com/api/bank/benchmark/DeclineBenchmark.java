@@ -0,0 +1,109 @@
+package com.api.bank.benchmark;
+
+import com.api.bank.ledger.LedgerEngine;
+import com.api.bank.manager.AccountLeaseTable;
+import com.api.bank.manager.BankTransactionManager;
+import com.api.bank.manager.BankTransactionMetrics;
+import com.api.bank.model.entity.Account;
+import com.api.bank.model.enums.PaymentMethod;
+import com.api.bank.model.enums.TransactionStatus;
+import com.api.bank.model.exception.BankTransactionException;
+import com.api.bank.model.transaction.BankTransactionModel;
+import com.api.bank.model.transaction.QrCheckTransactionModel;
+import com.api.bank.model.transaction.TransactionResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the throughput of the declined transactions when each decline throws a BankTransactionException which is
+ * turned back into a status from its message (before), with the checks returning the status (after).
+ * The transactions are declined for their amount, their withdrawal account and their balance, in turn.
+ * Run with ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeclineBenchmark {
+    private final BankTransactionModel[] transactions = new BankTransactionModel[3];
+    private BankTransactionManager bankTransactionManager;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        var ledgerEngine = new LedgerEngine(false, "ledger.journal", 0, false, 0, 0, null, new SimpleMeterRegistry());
+        bankTransactionManager = new BankTransactionManager(null, null, null, ledgerEngine, new AccountLeaseTable(1000), 0,
+                new BankTransactionMetrics(new SimpleMeterRegistry()));
+
+        var account = new Account(10, null);
+        transactions[0] = transaction(account, -5);
+        transactions[1] = transaction(null, 5);
+        transactions[2] = transaction(account, 50);
+    }
+
+    /**
+     * The decline as it was: thrown by the check, rethrown by the lane, completed exceptionally and parsed back
+     */
+    @Benchmark
+    public TransactionResult exceptionDecline() {
+        var transaction = nextTransaction();
+        CompletableFuture<TransactionResult> future = new CompletableFuture<>();
+        try {
+            throwingChecks(transaction);
+            future.complete(new TransactionResult(TransactionStatus.SUCCESS, transaction.getOperationId(), "Payment has been validated"));
+        } catch (BankTransactionException ex) {
+            future.completeExceptionally(new CompletionException(new InterruptedException(ex.getTransactionStatus().toString())));
+        }
+        return future.exceptionally(e -> {
+            String status = e.getCause().getMessage();
+            try {
+                var value = TransactionStatus.valueOf(status);
+                return new TransactionResult(value, transaction.getOperationId(), value.getMessage());
+            } catch (IllegalArgumentException ignored) {
+                return new TransactionResult(TransactionStatus.FAILED, transaction.getOperationId(), status);
+            }
+        }).join();
+    }
+
+    /**
+     * The decline as it is: the status returned by BankTransactionManager completes the future
+     */
+    @Benchmark
+    public TransactionResult statusDecline() throws BankTransactionException {
+        var transaction = nextTransaction();
+        var status = bankTransactionManager.settle(transaction);
+        return CompletableFuture.completedFuture(new TransactionResult(status, transaction.getOperationId(), status.getMessage())).join();
+    }
+
+    private BankTransactionModel nextTransaction() {
+        next = (next + 1) % transactions.length;
+        return transactions[next];
+    }
+
+    /**
+     * The checks of BankTransactionManager as they were, throwing on the first failure
+     */
+    private void throwingChecks(BankTransactionModel transaction) throws BankTransactionException {
+        if (!transaction.getAmount().isPositive())
+            throw new BankTransactionException(TransactionStatus.AMOUNT_ERROR, transaction.getOperationId(), "Amount is not valid");
+        if (transaction.getWithdrawalAccount() == null)
+            throw new BankTransactionException(TransactionStatus.ACCOUNT_ERROR, transaction.getOperationId(), "Account not found");
+        if (transaction.getDepositAccount() == null)
+            throw new BankTransactionException(TransactionStatus.ACCOUNT_ERROR, transaction.getOperationId(), "Account not found");
+        if (!transaction.getWithdrawalAccount().isEnoughMoney(transaction.getAmount()))
+            throw new BankTransactionException(TransactionStatus.INSUFFICIENT_FUNDS_ERROR, transaction.getOperationId(), "Account's insufficient funds");
+    }
+
+    private BankTransactionModel transaction(Account withdrawalAccount, double amount) {
+        var transaction = new BankTransactionModel(new QrCheckTransactionModel("decline-benchmark", "token", amount, null, PaymentMethod.TRANSFER));
+        transaction.setWithdrawalAccount(withdrawalAccount);
+        transaction.setDepositAccount(new Account(0, null));
+        return transaction;
+    }
+}
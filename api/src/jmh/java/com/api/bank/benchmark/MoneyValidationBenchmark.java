@@ -0,0 +1,88 @@
+package com.api.bank.benchmark;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.entity.Account;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the balance checks of the bank transactions on doubles (before Money) with the checks on minor units,
+ * through the entities and on primitive longs as in the ledger.
+ * Run with ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyValidationBenchmark {
+    private static final int SIZE = 1024;
+
+    private final double[] doubleBalances = new double[SIZE];
+    private final double[] doubleAmounts = new double[SIZE];
+    private final long[] balances = new long[SIZE];
+    private final long[] amounts = new long[SIZE];
+    private final Account[] accounts = new Account[SIZE];
+    private final Money[] moneyAmounts = new Money[SIZE];
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            // Around one transaction out of four declined for insufficient funds, a few for their amount
+            long balance = random.nextInt(100_000);
+            long amount = random.nextInt(130_000) - 2_000;
+            doubleBalances[i] = balance / 100d;
+            doubleAmounts[i] = amount / 100d;
+            balances[i] = balance;
+            amounts[i] = amount;
+            accounts[i] = new Account(balance / 100d, null);
+            moneyAmounts[i] = Money.ofMinorUnits(amount);
+        }
+    }
+
+    /**
+     * The checks as they were written on doubles in BankTransactionManager
+     */
+    @Benchmark
+    public double doubleValidation() {
+        double settled = 0;
+        for (int i = 0; i < SIZE; i++) {
+            double amount = doubleAmounts[i];
+            if (amount <= 0 || doubleBalances[i] < amount) continue;
+            settled += doubleBalances[i] - amount;
+        }
+        return settled;
+    }
+
+    /**
+     * The checks of BankTransactionManager on the Money of the entities
+     */
+    @Benchmark
+    public long moneyValidation() {
+        long settled = 0;
+        for (int i = 0; i < SIZE; i++) {
+            var amount = moneyAmounts[i];
+            if (!amount.isPositive() || !accounts[i].isEnoughMoney(amount)) continue;
+            settled += accounts[i].getSold().minus(amount).getMinorUnits();
+        }
+        return settled;
+    }
+
+    /**
+     * The checks of the ledger engine on primitive minor units
+     */
+    @Benchmark
+    public long minorUnitsValidation() {
+        long settled = 0;
+        for (int i = 0; i < SIZE; i++) {
+            long amount = amounts[i];
+            if (!Money.isPositive(amount) || !Money.covers(balances[i], amount)) continue;
+            settled += balances[i] - amount;
+        }
+        return settled;
+    }
+}
@@ -0,0 +1,110 @@
+package com.api.bank.benchmark;
+
+import com.api.bank.model.TimeOrderedUUID;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the insert throughput of the operations with the ids as they were (random UUIDs as VARCHAR(36)), with the ids
+ * as they are (time ordered UUIDs as BINARY(16)), on an embedded H2 database holding the operation table and its indexes.
+ * The table already holds operations when the measure starts and keeps growing, one batch of operations per invocation.
+ * Run with ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperationKeyBenchmark {
+    private static final int ACCOUNTS = 100;
+    private static final int EXISTING_OPERATIONS = 100000;
+    private static final int BATCH_SIZE = 50;
+
+    @Param({"VARCHAR_RANDOM", "BINARY_TIME_ORDERED"})
+    public String layout;
+
+    private Connection connection;
+    private PreparedStatement insert;
+    private String[] accountIds;
+    private long operationDate;
+
+    @Setup
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:" + layout + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE", "sa", "");
+        connection.setAutoCommit(false);
+        var idType = isBinary() ? "binary(16)" : "varchar(36)";
+        try (var statement = connection.createStatement()) {
+            statement.execute("create table operation (id " + idType + " not null, amount bigint not null, operation_date datetime,"
+                    + " operation_id varchar(36) not null, operation_status varchar(255), account_id " + idType + ", primary key (id))");
+            statement.execute("create index idx_operation_account_date_id on operation (account_id, operation_date, id)");
+            statement.execute("create index idx_operation_account_status_operation_id on operation (account_id, operation_status, operation_id)");
+        }
+        insert = connection.prepareStatement("insert into operation (id, amount, operation_date, operation_id, operation_status, account_id)"
+                + " values (?, ?, ?, ?, ?, ?)");
+
+        accountIds = new String[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountIds[i] = nextId().toString();
+        }
+        operationDate = System.currentTimeMillis();
+        for (int i = 0; i < EXISTING_OPERATIONS / BATCH_SIZE; i++) {
+            insertBatch();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    /**
+     * Insert and commit a batch of operations, as the settlement of a batch of transactions does
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] insertOperations() throws SQLException {
+        return insertBatch();
+    }
+
+    private int[] insertBatch() throws SQLException {
+        var random = ThreadLocalRandom.current();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            bindId(1, nextId());
+            insert.setLong(2, random.nextLong(1, 100000));
+            insert.setTimestamp(3, new Timestamp(operationDate++));
+            insert.setString(4, UUID.randomUUID().toString());
+            insert.setString(5, "CLOSED");
+            bindId(6, UUID.fromString(accountIds[random.nextInt(ACCOUNTS)]));
+            insert.addBatch();
+        }
+        var counts = insert.executeBatch();
+        connection.commit();
+        return counts;
+    }
+
+    private boolean isBinary() {
+        return "BINARY_TIME_ORDERED".equals(layout);
+    }
+
+    private UUID nextId() {
+        return isBinary() ? TimeOrderedUUID.randomUUID() : UUID.randomUUID();
+    }
+
+    private void bindId(int index, UUID id) throws SQLException {
+        if (isBinary()) {
+            insert.setBytes(index, ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array());
+        } else {
+            insert.setString(index, id.toString());
+        }
+    }
+}
@@ -83,6 +83,8 @@ public class SecurityConfig extends GlobalMethodSecurityConfiguration {
             .antMatchers("/admin/dashboard").permitAll()
             .antMatchers("/admin/qr-code/**").permitAll()
             .antMatchers("/admin/whitelist/**").permitAll()
+            // Metrics scraped by Prometheus, only served on the management port (management.server.port)
+            .antMatchers("/actuator/health", "/actuator/prometheus").permitAll()
             //.anyRequest().hasRole("MANAGER")
             .and()
             .authenticationManager(authenticationManager)
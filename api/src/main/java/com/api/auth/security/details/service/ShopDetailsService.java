@@ -9,6 +9,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Collections;
 import java.util.Optional;
@@ -19,6 +20,7 @@ public class ShopDetailsService implements UserDetailsService {
     private ShopRepository shopRepository;
 
     // Process to check if shop exists in database, is whitelisted and give it the role of shop
+    @Transactional(readOnly = true)
     @Override
     public UserDetails loadUserByUsername(String name) throws UsernameNotFoundException, AccessDeniedException {
         Optional<Shop> shopRes = shopRepository.findByName(name);
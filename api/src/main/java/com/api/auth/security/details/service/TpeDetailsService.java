@@ -9,6 +9,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Collections;
 import java.util.Optional;
@@ -19,6 +20,7 @@ public class TpeDetailsService implements UserDetailsService {
     private TpeRepository tpeRepository;
 
     // Process to check if TPE exists in database, is whitelisted and give it the role of TPE
+    @Transactional(readOnly = true)
     @Override
     public UserDetails loadUserByUsername(String androidId) throws UsernameNotFoundException, AccessDeniedException {
         Optional<Tpe> tpeRes = tpeRepository.findByAndroidId(androidId);
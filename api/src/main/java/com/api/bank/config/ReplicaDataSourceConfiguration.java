@@ -0,0 +1,89 @@
+package com.api.bank.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Declare the databases when a read replica is enabled: the read-only transactions (the @Transactional(readOnly = true)
+ * services, the statements, the lists of the dashboards, the logins) are sent to the replica, the other transactions
+ * and the migrations to the primary database. Without replica, the database of spring.datasource is used for everything.
+ */
+@Configuration
+@ConditionalOnProperty(name = "bank.replica.enabled", havingValue = "true")
+public class ReplicaDataSourceConfiguration {
+
+    /**
+     * The primary database, as configured by spring.datasource
+     */
+    @Bean
+    @FlywayDataSource
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        var dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("bank-primary");
+        return dataSource;
+    }
+
+    /**
+     * The replica database, with its own pool, read only. The user of the primary database is used when none is given.
+     */
+    @Bean
+    public HikariDataSource replicaDataSource(DataSourceProperties properties,
+                                              @Value("${bank.replica.url}") String url,
+                                              @Value("${bank.replica.username}") String username,
+                                              @Value("${bank.replica.password}") String password,
+                                              @Value("${bank.replica.pool-size}") int poolSize) {
+        var dataSource = new HikariDataSource();
+        dataSource.setPoolName("bank-replica");
+        dataSource.setDriverClassName(properties.determineDriverClassName());
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(username.isEmpty() ? properties.determineUsername() : username);
+        dataSource.setPassword(username.isEmpty() ? properties.determinePassword() : password);
+        dataSource.setMaximumPoolSize(poolSize);
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource routingDataSource(@Qualifier("primaryDataSource") HikariDataSource primaryDataSource,
+                                                      @Qualifier("replicaDataSource") HikariDataSource replicaDataSource,
+                                                      @Value("${bank.replica.lag-query}") String lagQuery,
+                                                      @Value("${bank.replica.max-lag}") long maxLag,
+                                                      @Value("${bank.replica.check-interval}") long checkInterval) {
+        return new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource, lagQuery, maxLag, checkInterval);
+    }
+
+    /**
+     * The database of the application (JPA, JdbcTemplate): the connection is taken when the first statement of a
+     * transaction is run, once its read-only flag is known
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    /**
+     * Give the connection back at the end of each transaction instead of holding it for the whole request (open in view):
+     * a connection of the replica taken by a read-only transaction is never used by the next transaction of the request
+     */
+    @Bean
+    public HibernatePropertiesCustomizer replicaConnectionHandling() {
+        return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+                PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+    }
+}
@@ -0,0 +1,103 @@
+package com.api.bank.config;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is responsible for sending the read-only transactions to the replica database, and the others to the
+ * primary database. The replica is checked at each interval: while it lags more than the maximum lag behind the
+ * primary, or cannot be reached, the read-only transactions go to the primary too.
+ * The connection must be asked when the transaction has started (see LazyConnectionDataSourceProxy), so that the
+ * read-only flag of the transaction is known.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+    private static final String LAG_COLUMN = "Seconds_Behind_Master";
+
+    public enum Target {
+        PRIMARY,
+        REPLICA,
+    }
+
+    private final JdbcTemplate replica;
+    private final String lagQuery;
+    private final long maxLag;
+    private final long checkInterval;
+
+    private volatile boolean replicaUsable;
+    private ScheduledExecutorService checker;
+
+    /**
+     * @param primary       The database written by the transactions
+     * @param replica       The copy of the primary database read by the read-only transactions
+     * @param lagQuery      The query giving the lag of the replica in its Seconds_Behind_Master column, no row if it is not replicating
+     * @param maxLag        The maximum lag of the replica, in seconds
+     * @param checkInterval The delay between two checks of the replica, in milliseconds
+     */
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, String lagQuery, long maxLag, long checkInterval) {
+        this.replica = new JdbcTemplate(replica);
+        this.lagQuery = lagQuery;
+        this.maxLag = maxLag;
+        this.checkInterval = checkInterval;
+        setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+    }
+
+    /**
+     * Check the replica once, then start the thread checking it at each interval
+     */
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        checkReplica();
+
+        checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "bank-replica-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::checkReplica, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (checker != null) checker.shutdownNow();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() && replicaUsable ? Target.REPLICA : Target.PRIMARY;
+    }
+
+    /**
+     * @return true if the read-only transactions are sent to the replica
+     */
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+
+    /**
+     * Read the lag of the replica. A replica which is not replicating (no row) is a standalone copy, always usable;
+     * a replica whose replication is stopped (no lag) is not.
+     */
+    public void checkReplica() {
+        try {
+            var status = replica.queryForList(lagQuery);
+            if (status.isEmpty()) {
+                replicaUsable = true;
+            } else {
+                replicaUsable = status.get(0).get(LAG_COLUMN) instanceof Number lag && lag.longValue() <= maxLag;
+            }
+        } catch (DataAccessException e) {
+            replicaUsable = false;
+        }
+    }
+}
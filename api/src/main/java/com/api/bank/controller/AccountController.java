@@ -2,26 +2,84 @@ package com.api.bank.controller;
 
 import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.entity.Account;
+import com.api.bank.model.enums.ImportFormat;
+import com.api.bank.model.enums.OperationStatus;
+import com.api.bank.model.enums.OperationType;
+import com.api.bank.model.enums.PaymentMethod;
+import com.api.bank.model.projection.StatementCursor;
+import com.api.bank.service.AccountImportService;
 import com.api.bank.service.AccountService;
+import com.api.bank.service.AccountStatementService;
+import com.api.bank.service.LedgerReconciliationService;
 import com.api.tools.mail.EmailService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.UUID;
 
 @RestController
 @RequestMapping(path = "/bank/account")
 public class AccountController {
     private final AccountService accountService;
+    private final AccountStatementService statementService;
+    private final AccountImportService importService;
+    private final LedgerReconciliationService reconciliationService;
 
     @Autowired
-    public AccountController(AccountService accountService) {
+    public AccountController(AccountService accountService, AccountStatementService statementService, AccountImportService importService,
+                             LedgerReconciliationService reconciliationService) {
         super();
         this.accountService = accountService;
+        this.statementService = statementService;
+        this.importService = importService;
+        this.reconciliationService = reconciliationService;
     }
 
     @GetMapping("/{id}")
     public ResponseEntity<ObjectResponse> get(@PathVariable String id) {
-        return ResponseEntity.ok(accountService.get(id));
+        return ResponseEntity.ok(accountService.getViewById(id));
+    }
+
+    /**
+     * Get a page of the operations of an account, most recent first. The page is streamed while it is read.
+     *
+     * @param id            The UUID of the account
+     * @param after         The "next" cursor of the previous page, none for the first page
+     * @param limit         The size of the page
+     * @param status        Only the operations of this status
+     * @param type          Only the operations of this type
+     * @param paymentMethod Only the operations of this payment method
+     * @return ResponseEntity containing the operations and the cursor of the next page
+     */
+    @GetMapping("/{id}/operations")
+    public ResponseEntity<?> getOperations(@PathVariable String id,
+                                           @RequestParam(required = false) String after,
+                                           @RequestParam(required = false) Integer limit,
+                                           @RequestParam(required = false) OperationStatus status,
+                                           @RequestParam(required = false) OperationType type,
+                                           @RequestParam(required = false) PaymentMethod paymentMethod) {
+        UUID accountId;
+        StatementCursor cursor;
+        try {
+            accountId = UUID.fromString(id);
+            cursor = StatementCursor.decode(after);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(new ObjectResponse(e.getMessage(), HttpStatus.BAD_REQUEST), HttpStatus.BAD_REQUEST);
+        }
+        if (!statementService.exists(accountId)) {
+            return new ResponseEntity<>(new ObjectResponse("Account not found", HttpStatus.NOT_FOUND), HttpStatus.NOT_FOUND);
+        }
+
+        int pageSize = statementService.getPageSize(limit);
+        StreamingResponseBody body = output -> statementService.writeStatement(accountId, cursor, status, type, paymentMethod, pageSize, output);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
     @PostMapping("/add")
@@ -29,6 +87,38 @@ public class AccountController {
         return ResponseEntity.ok(accountService.add(data));
     }
 
+    /**
+     * Import clients, accounts and cards in bulk. The body is read while it is received: a CSV file with a header line
+     * (text/csv) or one JSON object per line (application/x-ndjson), with the fields of AccountImportRow.
+     *
+     * @param contentType The format of the body
+     * @param request     The request, whose body is read as a stream
+     * @return ResponseEntity containing the numbers of lines read and imported, and the lines which were not imported
+     * @throws IOException If the body cannot be read
+     */
+    @PostMapping(path = "/import", consumes = {"text/csv", "application/x-ndjson"})
+    public ResponseEntity<ObjectResponse> importAccounts(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                         HttpServletRequest request) throws IOException {
+        var report = importService.importAccounts(request.getInputStream(), ImportFormat.fromContentType(contentType));
+        return ResponseEntity.ok(new ObjectResponse("Success", report, HttpStatus.OK));
+    }
+
+    /**
+     * Reconcile the balances of the accounts and of the QR checks with their operations, without waiting for the next run
+     *
+     * @return ResponseEntity containing the balances which do not match their operations and the totals of the accounts,
+     * or CONFLICT if a reconciliation is already running
+     */
+    @PostMapping("/reconciliation")
+    public ResponseEntity<ObjectResponse> reconcile() {
+        try {
+            var report = reconciliationService.reconcile();
+            return ResponseEntity.ok(new ObjectResponse("Success", report, HttpStatus.OK));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new ObjectResponse(e.getMessage(), HttpStatus.CONFLICT));
+        }
+    }
+
     @PutMapping("/update/{id}")
     public ResponseEntity<ObjectResponse> update(@RequestBody Account data, @PathVariable String id) {
         return ResponseEntity.ok(accountService.update(data));
@@ -4,8 +4,14 @@ import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.entity.Client;
 import com.api.bank.service.ClientService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.web.SortDefault;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.UUID;
 
 @RestController
 @RequestMapping(path = "/bank/client")
@@ -20,19 +26,34 @@ public class ClientController {
     }
 
     /**
-     * Get all Client from the database
+     * Get a page of the Clients from the database
      *
-     * @return ResponseEntity containing the list of Client
+     * @param after    The "next" id of the previous page sorted by id (?sort=id), to read the Clients in order of creation;
+     *                 none to read the page given by page, size and sort
+     * @param pageable The page (?page=&size=&sort=), sorted by createdAt, id by default
+     * @return ResponseEntity containing the page of Clients
      */
     @RequestMapping(value = {"", "/"}, method = RequestMethod.GET)
-    public ResponseEntity<ObjectResponse> getAllClient() {
-        ObjectResponse response = clientService.getAll();
+    public ResponseEntity<ObjectResponse> getAllClient(@RequestParam(required = false) UUID after,
+                                                       @SortDefault(sort = {"createdAt", "id"}) Pageable pageable) {
+        ObjectResponse response = clientService.getViews(after, pageable);
         return new ResponseEntity<>(response, response.getStatus());
     }
 
+    /**
+     * Get all the Clients from the database, as NDJSON (one Client per line) streamed while they are read
+     *
+     * @return ResponseEntity streaming the Clients
+     */
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamClient() {
+        StreamingResponseBody body = clientService::writeViews;
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<ObjectResponse> get(@PathVariable String id) {
-        return ResponseEntity.ok(clientService.get(id));
+        return ResponseEntity.ok(clientService.getViewById(id));
     }
 
     @PostMapping("/add")
@@ -3,11 +3,14 @@ package com.api.bank.controller;
 import com.api.bank.model.ObjectResponse;
 import com.api.bank.service.ShopService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.web.SortDefault;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RequestMethod;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.UUID;
 
 @RestController
 @RequestMapping(path = "/bank/shop")
@@ -17,16 +20,31 @@ public class ShopController {
     private ShopService shopService;
 
     /**
-     * Get all Shop from the database
+     * Get a page of the Shops from the database
      *
-     * @return ResponseEntity containing the list of Shop
+     * @param after    The "next" id of the previous page sorted by id (?sort=id), to read the Shops in order of creation;
+     *                 none to read the page given by page, size and sort
+     * @param pageable The page (?page=&size=&sort=), sorted by name by default
+     * @return ResponseEntity containing the page of Shops
      */
     @RequestMapping(value = {"", "/"}, method = RequestMethod.GET)
-    public ResponseEntity<ObjectResponse> getAllShop() {
-        ObjectResponse response = shopService.getAll();
+    public ResponseEntity<ObjectResponse> getAllShop(@RequestParam(required = false) UUID after,
+                                                     @SortDefault(sort = "name") Pageable pageable) {
+        ObjectResponse response = shopService.getViews(after, pageable);
         return new ResponseEntity<>(response, response.getStatus());
     }
 
+    /**
+     * Get all the Shops from the database, as NDJSON (one Shop per line) streamed while they are read
+     *
+     * @return ResponseEntity streaming the Shops
+     */
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamShop() {
+        StreamingResponseBody body = shopService::writeViews;
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
     /**
      * Get a Shop from the database
      *
@@ -35,7 +53,7 @@ public class ShopController {
      */
     @RequestMapping(path = "/{uuid}", method = RequestMethod.GET)
     public ResponseEntity<ObjectResponse> getShopById(@PathVariable("uuid") String uuid) {
-        ObjectResponse response = shopService.getShopById(uuid);
+        ObjectResponse response = shopService.getViewById(uuid);
         return new ResponseEntity<>(response, response.getStatus());
     }
 
@@ -3,8 +3,14 @@ package com.api.bank.controller;
 import com.api.bank.model.ObjectResponse;
 import com.api.bank.service.TpeService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.web.SortDefault;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.UUID;
 
 @RestController
 @RequestMapping(path = "/bank/tpe")
@@ -14,16 +20,31 @@ public class TpeController {
     private TpeService tpeService;
 
     /**
-     * Get all TPE from the database
+     * Get a page of the TPEs from the database
      *
-     * @return ResponseEntity containing the list of TPE
+     * @param after    The "next" id of the previous page sorted by id (?sort=id), to read the TPEs in order of creation;
+     *                 none to read the page given by page, size and sort
+     * @param pageable The page (?page=&size=&sort=), sorted by androidId by default
+     * @return ResponseEntity containing the page of TPEs
      */
     @RequestMapping(value = {"", "/"}, method = RequestMethod.GET)
-    public ResponseEntity<ObjectResponse> getAllTpe() {
-        ObjectResponse response = tpeService.getAll();
+    public ResponseEntity<ObjectResponse> getAllTpe(@RequestParam(required = false) UUID after,
+                                                    @SortDefault(sort = "androidId") Pageable pageable) {
+        ObjectResponse response = tpeService.getViews(after, pageable);
         return new ResponseEntity<>(response, response.getStatus());
     }
 
+    /**
+     * Get all the TPEs from the database, as NDJSON (one TPE per line) streamed while they are read
+     *
+     * @return ResponseEntity streaming the TPEs
+     */
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamTpe() {
+        StreamingResponseBody body = tpeService::writeViews;
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
     /**
      * Get a TPE from the database
      *
@@ -32,7 +53,7 @@ public class TpeController {
      */
     @RequestMapping(path = "/{uuid}", method = RequestMethod.GET)
     public ResponseEntity<ObjectResponse> getTpeById(@PathVariable("uuid") String uuid) {
-        ObjectResponse response = tpeService.getTpeById(uuid);
+        ObjectResponse response = tpeService.getViewById(uuid);
         return new ResponseEntity<>(response, response.getStatus());
     }
 
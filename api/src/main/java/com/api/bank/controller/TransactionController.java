@@ -2,14 +2,18 @@ package com.api.bank.controller;
 
 import com.api.bank.manager.IBankManager;
 import com.api.bank.manager.BankManager;
+import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.transaction.QrCheckTransactionModel;
 import com.api.bank.model.transaction.ShoppingTransactionModel;
 import com.api.bank.model.transaction.TransactionResult;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequestMapping(path = "/bank/transaction")
 public class TransactionController {
@@ -23,24 +27,60 @@ public class TransactionController {
         this.transManager = transManager;
     }
 
+    /**
+     * Execute a shop transaction. The response is sent when the bank executor completes the transaction,
+     * so the request thread is released while the transaction is queued.
+     *
+     * @param data The transaction to be executed
+     * @return ResponseEntity containing the result of the transaction
+     */
     @PostMapping("/shopping")
-    public ResponseEntity<TransactionResult> shopping(@RequestBody ShoppingTransactionModel data) {
-        try{
-            var res = transManager.shoppingTransaction(data);
-
-            return ResponseEntity.ok(res );
-        }catch (Exception e) {
-            return ResponseEntity.badRequest().build();
+    public CompletableFuture<ResponseEntity<TransactionResult>> shopping(@RequestBody ShoppingTransactionModel data) {
+        try {
+            return transManager.shoppingTransactionAsync(data)
+                    .thenApply(ResponseEntity::ok)
+                    .exceptionally(e -> ResponseEntity.badRequest().build());
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
         }
     }
-    @PostMapping("/qrcheck/purchase")
-    public ResponseEntity<TransactionResult> qrCheckPurchase(@RequestBody QrCheckTransactionModel data) {
-        try{
-            var res = transManager.buyCheckTransaction(data);
 
-            return ResponseEntity.ok(res );
-        }catch (Exception e) {
-            return ResponseEntity.badRequest().build();
+    /**
+     * Execute a QR Check purchase. The response is sent when the bank executor completes the transaction.
+     *
+     * @param data The purchase to be executed
+     * @return ResponseEntity containing the result of the transaction
+     */
+    @PostMapping("/qrcheck/purchase")
+    public CompletableFuture<ResponseEntity<TransactionResult>> qrCheckPurchase(@RequestBody QrCheckTransactionModel data) {
+        try {
+            return transManager.buyCheckTransactionAsync(data)
+                    .thenApply(ResponseEntity::ok)
+                    .exceptionally(e -> ResponseEntity.badRequest().build());
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
         }
     }
+
+    /**
+     * Get the number of transactions waiting in each lane of the bank executor
+     *
+     * @return ResponseEntity containing the queue depth of each lane
+     */
+    @GetMapping("/lanes")
+    public ResponseEntity<ObjectResponse> getLaneQueueDepths() {
+        ObjectResponse response = new ObjectResponse("Success", transManager.getLaneQueueDepths(), true, HttpStatus.OK);
+        return new ResponseEntity<>(response, response.getStatus());
+    }
+
+    /**
+     * Get the contention counters of the account leases taken by the bank transactions
+     *
+     * @return ResponseEntity containing the lease metrics
+     */
+    @GetMapping("/leases")
+    public ResponseEntity<ObjectResponse> getLeaseMetrics() {
+        ObjectResponse response = new ObjectResponse("Success", transManager.getLeaseMetrics(), true, HttpStatus.OK);
+        return new ResponseEntity<>(response, response.getStatus());
+    }
 }
@@ -0,0 +1,302 @@
+package com.api.bank.ledger;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.entity.Base;
+import com.api.bank.model.enums.BankTransactionType;
+import com.api.bank.model.enums.PaymentMethod;
+import com.api.bank.model.enums.TransactionStatus;
+import com.api.bank.model.transaction.BankTransactionModel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is responsible for authorising the transactions in memory, when the ledger is enabled.
+ * The balances of the accounts and of the checks are kept in arrays of longs (minor units), indexed by id. They are loaded
+ * from the database on the first transaction touching them, then the ledger owns them: a balance changed in the
+ * database by another way is not seen by the ledger until the application restarts.
+ * Each applied transaction is appended to a memory-mapped journal, then a single writer thread copies the
+ * operations, the balances and the checkpoint to the database. On startup, the entries of the journal past the
+ * checkpoint are loaded again and written to the database. When a write fails, the writer tries again later, waiting
+ * twice as long after each failure in a row (up to bank.ledger.max-flush-backoff), and the failures are published by
+ * the bank.ledger.* metrics and the health of the ledger (LedgerHealthIndicator).
+ * The callers must not apply two transactions on the same account at the same time (the lanes of the
+ * StripedTransactionExecutor hold the account stripes for it).
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class LedgerEngine {
+    private static final int CHUNK_SIZE = 4096;
+    private static final int MAX_CHUNKS = 4096;
+
+    private final boolean enabled;
+    private final Path journalPath;
+    private final int journalWindowSize;
+    private final boolean sync;
+    private final long flushInterval;
+    private final long maxFlushBackoff;
+    private final LedgerWriter ledgerWriter;
+    private final MeterRegistry registry;
+
+    private final Map<UUID, Integer> slots = new ConcurrentHashMap<>();
+    private final long[][] balances = new long[MAX_CHUNKS][]; // Chunks are never moved, so a slot is never copied while written
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final BlockingQueue<LedgerEntry> unwritten = new LinkedBlockingQueue<>();
+    private final List<LedgerEntry> writing = new ArrayList<>(); // Kept for the next try when the database write fails
+
+    private volatile int failedFlushes; // Failed writes in a row, reset by the next successful one
+    private volatile RuntimeException lastFlushFailure;
+    private long nextFlushTime; // No write is tried before this time (milliseconds) after a failure
+    private LedgerJournal journal;
+    private ScheduledExecutorService writer;
+
+    @Autowired
+    public LedgerEngine(@Value("${bank.ledger.enabled}") boolean enabled,
+                        @Value("${bank.ledger.journal-path}") String journalPath,
+                        @Value("${bank.ledger.journal-window-size}") int journalWindowSize,
+                        @Value("${bank.ledger.sync}") boolean sync,
+                        @Value("${bank.ledger.flush-interval}") long flushInterval,
+                        @Value("${bank.ledger.max-flush-backoff}") long maxFlushBackoff,
+                        LedgerWriter ledgerWriter, MeterRegistry registry) {
+        this.enabled = enabled;
+        this.journalPath = Path.of(journalPath);
+        this.journalWindowSize = journalWindowSize;
+        this.sync = sync;
+        this.flushInterval = flushInterval;
+        this.maxFlushBackoff = maxFlushBackoff;
+        this.ledgerWriter = ledgerWriter;
+        this.registry = registry;
+    }
+
+    /**
+     * Open the journal and load its entries past the checkpoint, then publish the metrics and start the writer thread
+     *
+     * @throws IOException If the journal cannot be read
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) return;
+
+        journal = new LedgerJournal(journalPath, journalWindowSize);
+        long checkpoint = ledgerWriter.getCheckpoint();
+        for (LedgerEntry entry : journal.read(checkpoint)) {
+            if (entry.getSequence() <= checkpoint) continue;
+
+            set(slotOf(entry.getWithdrawalAccountId(), entry.getWithdrawalSold()), entry.getWithdrawalSold());
+            set(slotOf(entry.getDepositAccountId(), entry.getDepositSold()), entry.getDepositSold());
+            if (entry.getQrCheckId() != null) {
+                set(slotOf(entry.getQrCheckId(), entry.getQrCheckSold()), entry.getQrCheckSold());
+            }
+            unwritten.add(entry);
+        }
+
+        Gauge.builder("bank.ledger.unwritten", this, LedgerEngine::getUnwrittenCount)
+                .description("Entries applied by the ledger and not written in the database yet")
+                .register(registry);
+        Gauge.builder("bank.ledger.flush.failures", this, LedgerEngine::getFailedFlushes)
+                .description("Failed writes of the ledger to the database in a row, 0 once a write succeeds")
+                .register(registry);
+
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "bank-ledger-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(() -> flush(false), 0, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if the transactions are authorised by the ledger
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Check the balances of a transaction, then apply it and append it to the journal
+     *
+     * @param transaction The transaction to be applied, with its accounts and check loaded
+     * @return SUCCESS, or INSUFFICIENT_FUNDS_ERROR if the account or the check has not enough balance
+     */
+    public TransactionStatus apply(BankTransactionModel transaction) {
+        long amount = transaction.getAmount().getMinorUnits();
+        int withdrawalSlot = slotOf(transaction.getWithdrawalAccount().getId(), transaction.getWithdrawalAccount().getSold());
+        int depositSlot = slotOf(transaction.getDepositAccount().getId(), transaction.getDepositAccount().getSold());
+        var qrCheck = transaction.getQrCheck();
+        int qrCheckSlot = qrCheck == null ? -1 : slotOf(qrCheck.getId(), qrCheck.getSoldAmount());
+
+        if (!Money.covers(get(withdrawalSlot), amount))
+            return TransactionStatus.INSUFFICIENT_FUNDS_ERROR;
+        if (qrCheck != null && !Money.covers(get(qrCheckSlot), amount))
+            return TransactionStatus.INSUFFICIENT_FUNDS_ERROR;
+
+        long withdrawalSold = get(withdrawalSlot) - amount;
+        long depositSold = Math.addExact(depositSlot == withdrawalSlot ? withdrawalSold : get(depositSlot), amount);
+        boolean checkPayment = transaction.getBankTransactionType() == BankTransactionType.SHOPPING
+                && transaction.getPaymentMethod() == PaymentMethod.CHECK;
+        long qrCheckSold = qrCheck == null ? 0 : get(qrCheckSlot) - (checkPayment ? amount : 0);
+
+        // The journal comes first: a transaction which cannot be journaled is not applied
+        var entry = journal.append(sequence -> new LedgerEntry(sequence, transaction.getOperationId(), transaction.getLabel(),
+                amount, transaction.getDate().getTime(), transaction.getPaymentMethod(), transaction.getBankTransactionType(),
+                transaction.getWithdrawalAccount().getId(), withdrawalSold, transaction.getDepositAccount().getId(), depositSold,
+                qrCheck == null ? null : qrCheck.getId(), qrCheckSold));
+
+        set(withdrawalSlot, withdrawalSold);
+        set(depositSlot, depositSold);
+        if (qrCheck != null) {
+            set(qrCheckSlot, qrCheckSold);
+        }
+        unwritten.add(entry);
+        return TransactionStatus.SUCCESS;
+    }
+
+    /**
+     * Write the journal to the storage device, when the ledger is configured to
+     */
+    public void sync() {
+        if (enabled && sync) {
+            journal.force();
+        }
+    }
+
+    /**
+     * Supply the balance of an account or of a check, as seen by the ledger
+     *
+     * @param entity The account or the check
+     * @return The balance, or null if the ledger has not loaded it
+     */
+    public Money getBalance(Base entity) {
+        var slot = slots.get(entity.getId());
+        return slot == null ? null : Money.ofMinorUnits(get(slot));
+    }
+
+    /**
+     * @return The number of applied entries not written in the database yet
+     */
+    public int getUnwrittenCount() {
+        return unwritten.size() + writing.size();
+    }
+
+    /**
+     * @return The number of failed writes in the database in a row, 0 if the last write succeeded
+     */
+    public int getFailedFlushes() {
+        return failedFlushes;
+    }
+
+    /**
+     * @return The failure of the last write in the database, or null if it succeeded
+     */
+    public RuntimeException getLastFlushFailure() {
+        return lastFlushFailure;
+    }
+
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        if (!enabled) return;
+
+        writer.shutdown();
+        writer.awaitTermination(10, TimeUnit.SECONDS);
+        flush(true);
+        journal.close();
+    }
+
+    /**
+     * Write the unwritten entries in the database, then start the journal over if nothing is left to write
+     *
+     * @param ignoreBackoff true to write even if the last failure asks to wait longer
+     */
+    private synchronized void flush(boolean ignoreBackoff) {
+        if (!ignoreBackoff && System.currentTimeMillis() < nextFlushTime) return;
+
+        try {
+            unwritten.drainTo(writing);
+            if (writing.isEmpty()) return;
+
+            long checkpoint = ledgerWriter.write(writing);
+            writing.clear();
+            failedFlushes = 0;
+            lastFlushFailure = null;
+            nextFlushTime = 0;
+            if (unwritten.isEmpty()) {
+                journal.resetIfCheckpointed(checkpoint);
+            }
+        } catch (RuntimeException e) {
+            // Kept in writing for the next flush, the journal still holds them in case of a restart
+            failedFlushes++;
+            lastFlushFailure = e;
+            long backoff = getFlushBackoff();
+            nextFlushTime = System.currentTimeMillis() + backoff;
+            System.out.println("The ledger could not write " + getUnwrittenCount() + " entries (failure " + failedFlushes
+                    + " in a row), next try in " + backoff + " ms");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Supply the time to wait before the next write after a failure, doubled by each failure in a row
+     *
+     * @return The time to wait, in milliseconds
+     */
+    private long getFlushBackoff() {
+        long backoff = Math.max(flushInterval, 1) << Math.min(failedFlushes - 1, 30);
+        return Math.min(backoff, Math.max(maxFlushBackoff, flushInterval));
+    }
+
+    /**
+     * Supply the slot of an id, allocating it with the given balance on the first use
+     *
+     * @param id      The id of the account or of the check
+     * @param balance The balance to load when the id is not in the ledger yet
+     * @return The slot of the id
+     */
+    private int slotOf(UUID id, Money balance) {
+        return slotOf(id, balance.getMinorUnits());
+    }
+
+    private int slotOf(UUID id, long balance) {
+        return slots.computeIfAbsent(id, key -> {
+            int slot = nextSlot.getAndIncrement();
+            int chunk = slot / CHUNK_SIZE;
+            if (chunk >= MAX_CHUNKS) {
+                throw new IllegalStateException("The ledger is full");
+            }
+            synchronized (balances) {
+                if (balances[chunk] == null) {
+                    balances[chunk] = new long[CHUNK_SIZE];
+                }
+            }
+            balances[chunk][slot % CHUNK_SIZE] = balance;
+            return slot;
+        });
+    }
+
+    private long get(int slot) {
+        return balances[slot / CHUNK_SIZE][slot % CHUNK_SIZE];
+    }
+
+    private void set(int slot, long balance) {
+        balances[slot / CHUNK_SIZE][slot % CHUNK_SIZE] = balance;
+    }
+}
@@ -0,0 +1,31 @@
+package com.api.bank.ledger;
+
+import com.api.bank.model.enums.BankTransactionType;
+import com.api.bank.model.enums.PaymentMethod;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * A transaction applied by the ledger engine, as written in the journal.
+ * It holds the balances of the accounts and of the check right after the transaction, so replaying it
+ * sets the balances instead of applying the amount a second time. The amounts are in minor units (see Money).
+ */
+@Getter
+@AllArgsConstructor
+public class LedgerEntry {
+    private final long sequence;
+    private final String operationId;
+    private final String label;
+    private final long amount;
+    private final long date;
+    private final PaymentMethod paymentMethod;
+    private final BankTransactionType bankTransactionType;
+    private final UUID withdrawalAccountId;
+    private final long withdrawalSold;
+    private final UUID depositAccountId;
+    private final long depositSold;
+    private final UUID qrCheckId; // Null when the transaction has no check
+    private final long qrCheckSold;
+}
@@ -0,0 +1,37 @@
+package com.api.bank.ledger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+/**
+ * This class is responsible for the health of the ledger (/actuator/health): DOWN while its writes to the database fail,
+ * with the number of entries waiting to be written
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class LedgerHealthIndicator implements HealthIndicator {
+    private final LedgerEngine ledgerEngine;
+
+    @Autowired
+    public LedgerHealthIndicator(LedgerEngine ledgerEngine) {
+        this.ledgerEngine = ledgerEngine;
+    }
+
+    @Override
+    public Health health() {
+        if (!ledgerEngine.isEnabled()) {
+            return Health.up().withDetail("enabled", false).build();
+        }
+
+        var failure = ledgerEngine.getLastFlushFailure();
+        var health = failure == null ? Health.up() : Health.down(failure);
+        return health.withDetail("enabled", true)
+                .withDetail("unwritten", ledgerEngine.getUnwrittenCount())
+                .withDetail("failedFlushes", ledgerEngine.getFailedFlushes())
+                .build();
+    }
+}
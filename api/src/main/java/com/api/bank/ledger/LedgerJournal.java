@@ -0,0 +1,229 @@
+package com.api.bank.ledger;
+
+import com.api.bank.model.enums.BankTransactionType;
+import com.api.bank.model.enums.PaymentMethod;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the ledger entries, written through a memory-mapped window of the file.
+ * Each record is its length, its content and a CRC32 of the content. A zero length always follows the last record,
+ * so reading stops there, as well as on a torn record whose CRC does not match.
+ * When the window is full, the next window is mapped right after the last record. The full window is kept until
+ * the next force, which writes it to the storage device before the current one.
+ */
+class LedgerJournal implements Closeable {
+    private final FileChannel channel;
+    private final int windowSize;
+    private final List<MappedByteBuffer> unforcedWindows = new ArrayList<>(); // Full windows not forced yet
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long lastSequence;
+
+    /**
+     * Open the journal file, creating it if needed. The journal must be read before appending to it.
+     *
+     * @param path       The journal file
+     * @param windowSize The size of the mapped window, in bytes
+     * @throws IOException If the file cannot be opened
+     */
+    LedgerJournal(Path path, int windowSize) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Read all the valid records of the journal, then map the window following the last of them
+     *
+     * @param checkpoint The sequence already written in the database, the next sequences start after it
+     * @return The entries of the journal, in sequence order
+     * @throws IOException If the file cannot be read
+     */
+    synchronized List<LedgerEntry> read(long checkpoint) throws IOException {
+        List<LedgerEntry> entries = new ArrayList<>();
+        var lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        long position = 0;
+        lastSequence = checkpoint;
+
+        while (true) {
+            lengthBuffer.clear();
+            if (channel.read(lengthBuffer, position) < Integer.BYTES) break;
+            int length = lengthBuffer.flip().getInt();
+            if (length <= Integer.BYTES || position + Integer.BYTES + length > channel.size()) break;
+
+            var record = ByteBuffer.allocate(length);
+            channel.read(record, position + Integer.BYTES);
+            record.flip();
+            var crc = new CRC32();
+            crc.update(record.array(), 0, length - Integer.BYTES);
+            if ((int) crc.getValue() != record.getInt(length - Integer.BYTES)) break;
+
+            var entry = decode(record);
+            entries.add(entry);
+            lastSequence = Math.max(lastSequence, entry.getSequence());
+            position += Integer.BYTES + length;
+        }
+        map(position);
+        return entries;
+    }
+
+    /**
+     * Append an entry at the end of the journal, with the next sequence
+     *
+     * @param entryFactory Builds the entry from its sequence
+     * @return The appended entry
+     */
+    synchronized LedgerEntry append(LongFunction<LedgerEntry> entryFactory) {
+        var entry = entryFactory.apply(lastSequence + 1);
+        var content = encode(entry);
+        int length = content.length + Integer.BYTES;
+        if (window.remaining() < Integer.BYTES + length + Integer.BYTES) {
+            unforcedWindows.add(window);
+            map(windowStart + window.position());
+            if (window.remaining() < Integer.BYTES + length + Integer.BYTES) {
+                throw new IllegalStateException("The ledger journal window is too small for an entry");
+            }
+        }
+        var crc = new CRC32();
+        crc.update(content);
+
+        int start = window.position();
+        window.putInt(start + Integer.BYTES + length, 0); // End marker, written first so a torn record is never followed by stale data
+        window.put(start + Integer.BYTES, content);
+        window.putInt(start + Integer.BYTES + content.length, (int) crc.getValue());
+        window.putInt(start, length);
+        window.position(start + Integer.BYTES + length);
+
+        lastSequence = entry.getSequence();
+        return entry;
+    }
+
+    /**
+     * Write the windows appended to since the last force to the storage device, in order
+     */
+    synchronized void force() {
+        for (MappedByteBuffer fullWindow : unforcedWindows) {
+            fullWindow.force();
+        }
+        unforcedWindows.clear();
+        window.force();
+    }
+
+    /**
+     * Start the journal over when all its entries are written in the database
+     *
+     * @param checkpoint The last sequence written in the database
+     * @return true if the journal was started over
+     */
+    synchronized boolean resetIfCheckpointed(long checkpoint) {
+        if (checkpoint != lastSequence || windowStart + window.position() == 0) return false;
+
+        // Their entries are in the database, they do not need to be forced anymore
+        unforcedWindows.clear();
+        map(0);
+        window.putInt(0, 0);
+        window.force();
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (window != null) force();
+        channel.close();
+    }
+
+    private void map(long position) {
+        try {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_WRITE, position, windowSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to map the ledger journal", e);
+        }
+    }
+
+    private static byte[] encode(LedgerEntry entry) {
+        var operationId = text(entry.getOperationId());
+        var label = text(entry.getLabel());
+        var paymentMethod = text(entry.getPaymentMethod() == null ? "" : entry.getPaymentMethod().name());
+        var bankTransactionType = text(entry.getBankTransactionType().name());
+
+        var buffer = ByteBuffer.allocate(Long.BYTES * 2 + Long.BYTES * 6 + Long.BYTES * 4 + 1
+                + 4 * Short.BYTES + operationId.length + label.length + paymentMethod.length + bankTransactionType.length);
+        buffer.putLong(entry.getSequence());
+        buffer.putLong(entry.getDate());
+        buffer.putLong(entry.getAmount());
+        putUuid(buffer, entry.getWithdrawalAccountId());
+        buffer.putLong(entry.getWithdrawalSold());
+        putUuid(buffer, entry.getDepositAccountId());
+        buffer.putLong(entry.getDepositSold());
+        buffer.put((byte) (entry.getQrCheckId() == null ? 0 : 1));
+        putUuid(buffer, entry.getQrCheckId() == null ? new UUID(0, 0) : entry.getQrCheckId());
+        buffer.putLong(entry.getQrCheckSold());
+        putText(buffer, operationId);
+        putText(buffer, label);
+        putText(buffer, paymentMethod);
+        putText(buffer, bankTransactionType);
+        return buffer.array();
+    }
+
+    private static LedgerEntry decode(ByteBuffer buffer) {
+        long sequence = buffer.getLong();
+        long date = buffer.getLong();
+        long amount = buffer.getLong();
+        var withdrawalAccountId = getUuid(buffer);
+        long withdrawalSold = buffer.getLong();
+        var depositAccountId = getUuid(buffer);
+        long depositSold = buffer.getLong();
+        boolean hasQrCheck = buffer.get() == 1;
+        var qrCheckId = getUuid(buffer);
+        long qrCheckSold = buffer.getLong();
+        var operationId = getText(buffer);
+        var label = getText(buffer);
+        var paymentMethod = getText(buffer);
+        var bankTransactionType = getText(buffer);
+
+        return new LedgerEntry(sequence, operationId, label, amount, date,
+                paymentMethod.isEmpty() ? null : PaymentMethod.valueOf(paymentMethod), BankTransactionType.valueOf(bankTransactionType),
+                withdrawalAccountId, withdrawalSold, depositAccountId, depositSold, hasQrCheck ? qrCheckId : null, qrCheckSold);
+    }
+
+    private static byte[] text(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putText(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static String getText(ByteBuffer buffer) {
+        var value = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static void putUuid(ByteBuffer buffer, UUID value) {
+        buffer.putLong(value.getMostSignificantBits());
+        buffer.putLong(value.getLeastSignificantBits());
+    }
+
+    private static UUID getUuid(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
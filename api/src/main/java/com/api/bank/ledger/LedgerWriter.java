@@ -0,0 +1,109 @@
+package com.api.bank.ledger;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.entity.Account;
+import com.api.bank.model.entity.LedgerCheckpoint;
+import com.api.bank.model.entity.Operation;
+import com.api.bank.model.entity.QrCheck;
+import com.api.bank.model.enums.OperationStatus;
+import com.api.bank.model.enums.OperationType;
+import com.api.bank.repository.AccountRepository;
+import com.api.bank.repository.CheckRepository;
+import com.api.bank.repository.LedgerCheckpointRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.api.bank.model.entity.LedgerCheckpoint.LEDGER_CHECKPOINT_ID;
+
+/**
+ * This class is responsible for writing the ledger entries in the database: the operations, the balances and
+ * the checkpoint, in the same database transaction.
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class LedgerWriter {
+    private final AccountRepository accountRepository;
+    private final CheckRepository checkRepository;
+    private final LedgerCheckpointRepository checkpointRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    public LedgerWriter(AccountRepository accountRepository, CheckRepository checkRepository,
+                        LedgerCheckpointRepository checkpointRepository) {
+        this.accountRepository = accountRepository;
+        this.checkRepository = checkRepository;
+        this.checkpointRepository = checkpointRepository;
+    }
+
+    /**
+     * Supply the last sequence written in the database
+     *
+     * @return The sequence of the checkpoint, 0 if nothing was written yet
+     */
+    public long getCheckpoint() {
+        return checkpointRepository.findById(LEDGER_CHECKPOINT_ID).map(LedgerCheckpoint::getSequence).orElse(0L);
+    }
+
+    /**
+     * Write the entries in the database. The entries already written, up to the checkpoint, are skipped.
+     *
+     * @param entries The entries to be written, in sequence order
+     * @return The new checkpoint
+     */
+    @Transactional(rollbackFor = RuntimeException.class, propagation = Propagation.REQUIRES_NEW)
+    public long write(List<LedgerEntry> entries) {
+        var checkpoint = checkpointRepository.findById(LEDGER_CHECKPOINT_ID).orElseGet(LedgerCheckpoint::new);
+        Map<UUID, Money> accountSolds = new LinkedHashMap<>();
+        Map<UUID, Money> qrCheckSolds = new LinkedHashMap<>();
+
+        for (LedgerEntry entry : entries) {
+            if (entry.getSequence() <= checkpoint.getSequence()) continue;
+
+            var qrCheck = entry.getQrCheckId() == null ? null : entityManager.getReference(QrCheck.class, entry.getQrCheckId());
+            entityManager.persist(createOperation(entry, entry.getWithdrawalAccountId(), qrCheck, OperationType.WITHDRAW));
+            entityManager.persist(createOperation(entry, entry.getDepositAccountId(), qrCheck, OperationType.DEPOSIT));
+
+            // Only the balances after the last entry of each account are written
+            accountSolds.put(entry.getWithdrawalAccountId(), Money.ofMinorUnits(entry.getWithdrawalSold()));
+            accountSolds.put(entry.getDepositAccountId(), Money.ofMinorUnits(entry.getDepositSold()));
+            if (entry.getQrCheckId() != null) {
+                qrCheckSolds.put(entry.getQrCheckId(), Money.ofMinorUnits(entry.getQrCheckSold()));
+            }
+            checkpoint.setSequence(entry.getSequence());
+        }
+        entityManager.flush();
+
+        accountSolds.forEach(accountRepository::updateSold);
+        qrCheckSolds.forEach(checkRepository::updateSoldAmount);
+        checkpointRepository.save(checkpoint);
+        return checkpoint.getSequence();
+    }
+
+    /**
+     * Create a closed operation of a ledger entry
+     *
+     * @param entry     The entry to be written
+     * @param accountId The account of the operation
+     * @param qrCheck   The check of the operation, may be null
+     * @param opType    The operation type
+     * @return The new operation
+     */
+    private Operation createOperation(LedgerEntry entry, UUID accountId, QrCheck qrCheck, OperationType opType) {
+        return new Operation(entry.getOperationId(), entry.getLabel(), Money.ofMinorUnits(entry.getAmount()), new Date(entry.getDate()),
+                entityManager.getReference(Account.class, accountId), qrCheck, OperationStatus.CLOSED, opType, entry.getPaymentMethod());
+    }
+}
@@ -0,0 +1,217 @@
+package com.api.bank.manager;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is responsible for the leases on the accounts: a transaction leases the accounts it touches before
+ * writing them, and no other transaction can lease them until it releases them.
+ * Each lease has a fencing token, increasing with each lease. A lease expires after its time to live, so a stuck
+ * transaction does not hold an account forever: the account can then be leased again, and the expired holder
+ * is refused by the fencing check before writing.
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class AccountLeaseTable {
+    private final ConcurrentHashMap<UUID, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicLong nextToken = new AtomicLong();
+    private final long timeToLive;
+
+    // Metrics
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contentions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder fencingRejections = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    @Autowired
+    public AccountLeaseTable(@Value("${bank.lease.ttl}") long timeToLive) {
+        if (timeToLive < 1) {
+            throw new IllegalArgumentException("bank.lease.ttl must be at least 1");
+        }
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+    }
+
+    /**
+     * Lease an account, waiting for the current lease to be released or to expire
+     *
+     * @param accountId The account to be leased
+     * @param timeout   The maximum time to wait, in milliseconds
+     * @return The lease, or null if the account is still leased after the timeout
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public Lease acquire(UUID accountId, long timeout) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean contended = false;
+
+        while (true) {
+            long now = System.nanoTime();
+            var lease = new Lease(accountId, nextToken.incrementAndGet(), now + timeToLive);
+            var current = leases.putIfAbsent(accountId, lease);
+            if (current == null) {
+                recordAcquisition(contended, now - start);
+                return lease;
+            }
+            if (current.isExpiredAt(now)) {
+                if (leases.replace(accountId, current, lease)) {
+                    expirations.increment();
+                    current.released.countDown();
+                    recordAcquisition(contended, now - start);
+                    return lease;
+                }
+                continue;
+            }
+
+            contended = true;
+            if (deadline - now <= 0) {
+                timeouts.increment();
+                contentions.increment();
+                waitNanos.add(now - start);
+                return null;
+            }
+            // Woken up by the release, or by the expiration of the lease
+            current.released.await(Math.min(deadline - now, current.expiresAt - now + 1), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Lease several accounts, in ascending order so that two transactions never wait for each other in a cycle.
+     * Either all the accounts are leased, or none.
+     *
+     * @param timeout    The maximum time to wait for each account, in milliseconds
+     * @param accountIds The accounts to be leased, null ids are ignored
+     * @return The leases, or null if an account is still leased after the timeout
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public List<Lease> acquireAll(long timeout, UUID... accountIds) throws InterruptedException {
+        var sortedIds = new TreeSet<UUID>();
+        for (UUID accountId : accountIds) {
+            if (accountId != null) sortedIds.add(accountId);
+        }
+
+        List<Lease> acquired = new ArrayList<>(sortedIds.size());
+        try {
+            for (UUID accountId : sortedIds) {
+                var lease = acquire(accountId, timeout);
+                if (lease == null) {
+                    releaseAll(acquired);
+                    return null;
+                }
+                acquired.add(lease);
+            }
+        } catch (InterruptedException e) {
+            releaseAll(acquired);
+            throw e;
+        }
+        return acquired;
+    }
+
+    /**
+     * Check that a lease is still the current lease of its account (fencing check)
+     *
+     * @param lease The lease to be checked
+     * @return true if the lease is current and not expired
+     */
+    public boolean isHeld(Lease lease) {
+        var current = leases.get(lease.accountId);
+        boolean held = current != null && current.token == lease.token && !current.isExpiredAt(System.nanoTime());
+        if (!held) {
+            fencingRejections.increment();
+        }
+        return held;
+    }
+
+    /**
+     * Release a lease. Releasing a lease which is not current anymore has no effect.
+     *
+     * @param lease The lease to be released
+     */
+    public void release(Lease lease) {
+        if (lease != null && leases.remove(lease.accountId, lease)) {
+            lease.released.countDown();
+        }
+    }
+
+    public void releaseAll(List<Lease> leases) {
+        if (leases == null) return;
+        for (Lease lease : leases) {
+            release(lease);
+        }
+    }
+
+    /**
+     * @return The counters of the lease table since the start of the application
+     */
+    public Metrics getMetrics() {
+        return new Metrics(leases.size(), acquisitions.sum(), contentions.sum(), timeouts.sum(), expirations.sum(),
+                fencingRejections.sum(), TimeUnit.NANOSECONDS.toMicros(waitNanos.sum()), TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+    }
+
+    private void recordAcquisition(boolean contended, long waited) {
+        acquisitions.increment();
+        if (contended) {
+            contentions.increment();
+            waitNanos.add(waited);
+            maxWaitNanos.accumulate(waited);
+        }
+    }
+
+    /**
+     * A lease on an account, identified by its fencing token
+     */
+    @Getter
+    public static final class Lease {
+        private final UUID accountId;
+        private final long token;
+        private final long expiresAt; // System.nanoTime() based
+        @Getter(AccessLevel.NONE)
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private Lease(UUID accountId, long token, long expiresAt) {
+            this.accountId = accountId;
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpiredAt(long now) {
+            return now - expiresAt > 0;
+        }
+
+    }
+
+    /**
+     * The counters of the lease table
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class Metrics {
+        private final int activeLeases;
+        private final long acquisitions;
+        private final long contentions; // Acquisitions which had to wait, including the timed out ones
+        private final long timeouts;
+        private final long expirations; // Leases taken over after their time to live
+        private final long fencingRejections;
+        private final long totalWaitMicros;
+        private final long maxWaitMicros;
+    }
+}
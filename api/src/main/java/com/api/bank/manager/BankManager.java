@@ -1,5 +1,6 @@
 package com.api.bank.manager;
 
+import com.api.bank.manager.BankTransactionMetrics.Stage;
 import com.api.bank.model.BankConstants;
 import com.api.bank.model.entity.Account;
 import com.api.bank.model.entity.QrCheck;
@@ -11,130 +12,352 @@ import com.api.bank.model.transaction.BankTransactionModel;
 import com.api.bank.model.transaction.QrCheckTransactionModel;
 import com.api.bank.model.transaction.ShoppingTransactionModel;
 import com.api.bank.model.transaction.TransactionResult;
+import com.api.bank.service.AccountResolutionCache;
 import com.api.bank.service.AccountService;
 import com.api.bank.service.CheckService;
-import com.api.bank.service.ClientService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.function.Function;
 
 /**
- * This class is responsible for managing the bank transactions in a specific thread
+ * This class is responsible for managing the bank transactions in the lanes of the striped executor
  */
 @Component
 @Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
 public class BankManager implements IBankManager {
     private final BankTransactionManager bankTransactionManager;
     private final QrCheckManager qrCheckManager;
-    private final ExecutorService executor; // Thread for handling transactions in queue
+    private final StripedTransactionExecutor executor; // Lanes for handling transactions in queue
+    private final AccountLeaseTable leaseTable;
     private final AccountService accountService;
-    private final ClientService clientService;
     private final CheckService checkService;
+    private final AccountResolutionCache resolutionCache;
+    private final IdempotencyStore idempotencyStore;
+    private final TransactionPreValidator preValidator;
+    private final BankTransactionMetrics metrics;
+    private final TransactionTemplate transactionTemplate;
+    // Same instance for every shop transaction, so the executor groups them in a batch
+    private final Function<List<ShoppingTransactionModel>, List<TransactionResult>> shoppingSettlement = this::settleShoppingTransactions;
 
     @Autowired
     public BankManager(BankTransactionManager bankTransactionManager,
-                       AccountService accountService, ClientService clientService,
-                       CheckService checkService, QrCheckManager qrCheckManager) {
+                       AccountService accountService,
+                       CheckService checkService, QrCheckManager qrCheckManager,
+                       StripedTransactionExecutor executor, AccountLeaseTable leaseTable,
+                       AccountResolutionCache resolutionCache, IdempotencyStore idempotencyStore,
+                       TransactionPreValidator preValidator, BankTransactionMetrics metrics,
+                       PlatformTransactionManager transactionManager) {
         this.bankTransactionManager = bankTransactionManager;
         this.accountService = accountService;
-        this.clientService = clientService;
         this.checkService = checkService;
         this.qrCheckManager = qrCheckManager;
-
-        // Single Thread for handling transactions in queue
-        executor = Executors.newSingleThreadExecutor();
+        this.executor = executor;
+        this.leaseTable = leaseTable;
+        this.resolutionCache = resolutionCache;
+        this.idempotencyStore = idempotencyStore;
+        this.preValidator = preValidator;
+        this.metrics = metrics;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     /**
      * This method is responsible for managing the shop transactions.
-     * It adds a new Callable to the queue of the executor thread by the Submit method and wait for the result.
+     * It waits for the result of the asynchronous transaction.
      *
      * @param shoppingTransaction The transaction to be managed
      */
     @Override
     public TransactionResult shoppingTransaction(ShoppingTransactionModel shoppingTransaction) {
-        Future<TransactionResult> result = executor.submit(new Callable<TransactionResult>() {
-
-            /**
-             * This method call the bankTransactionManager to handle the transaction.
-             * Before it, it transforms the ShoppingTransaction into a BankTransaction.
-             * @return The result of the transaction
-             * @throws InterruptedException   If the thread is interrupted by a BankTransactionException for example
-             */
-            @Override
-            @Transactional(rollbackFor = {BankTransactionException.class, RuntimeException.class}, propagation = Propagation.REQUIRES_NEW)
-            public TransactionResult call() throws InterruptedException {
-                try {
-                    var bankTransaction = createBankTransactionFrom(shoppingTransaction);
-                    bankTransactionManager.executeTransaction(bankTransaction);
-
-                    return new TransactionResult(TransactionStatus.SUCCESS, bankTransaction.getOperationId(), "Payment has been validated");
-
-                } catch (BankTransactionException ex) {
-                    throw new InterruptedException(ex.getTransactionStatus().toString());
-
-                } catch (Exception ex) {
-                    throw new InterruptedException(ex.getMessage());
-                }
+        return shoppingTransactionAsync(shoppingTransaction).join();
+    }
+
+    /**
+     * This method is responsible for managing the shop transactions without blocking the caller.
+     * It adds the transaction to the queue of the lane of the withdrawal account, where it is settled
+     * together with the shop transactions queued right after it.
+     * A transaction whose operation id was already settled is not queued again, it gets the recorded result.
+     * An invalid transaction is declined on the caller thread and never queued.
+     *
+     * @param shoppingTransaction The transaction to be managed
+     * @return The result of the transaction, completed off the lane threads
+     */
+    @Override
+    public CompletableFuture<TransactionResult> shoppingTransactionAsync(ShoppingTransactionModel shoppingTransaction) {
+        long start = System.nanoTime();
+        var operationId = shoppingTransaction == null ? null : shoppingTransaction.getOperationId();
+        var paymentMethod = shoppingTransaction == null ? null : shoppingTransaction.getPaymentMethod();
+        return timed("shopping", paymentMethod, start, idempotencyStore.execute(operationId, () -> {
+            var accountIds = getAccountIdsOf(shoppingTransaction);
+            var status = preValidator.validate(shoppingTransaction, accountIds);
+            if (status != TransactionStatus.SUCCESS) {
+                return CompletableFuture.completedFuture(declined(status, operationId));
             }
-        });
-        try {
 
-            return result.get();
+            return executor.submitToBatch(shoppingTransaction, shoppingSettlement, accountIds)
+                    .exceptionally(e -> failed(unwrap(e), operationId));
+        }));
+    }
+
+    /**
+     * This method call the bankTransactionManager to settle a batch of shop transactions in a single database transaction.
+     * Before it, it transforms the ShoppingTransactions into BankTransactions. A transaction which cannot be
+     * transformed is declined on its own and left out of the batch.
+     * The results are recorded in the same database transaction: if they cannot be, nothing of the batch is written.
+     *
+     * @param shoppingTransactions The transactions to be managed, in queue order
+     * @return One result per transaction, in the same order
+     */
+    private List<TransactionResult> settleShoppingTransactions(List<ShoppingTransactionModel> shoppingTransactions) {
+        return transactionTemplate.execute(status -> settleAndRecordShoppingTransactions(shoppingTransactions));
+    }
+
+    private List<TransactionResult> settleAndRecordShoppingTransactions(List<ShoppingTransactionModel> shoppingTransactions) {
+        var results = new TransactionResult[shoppingTransactions.size()];
+        List<BankTransactionModel> bankTransactions = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+
+        for (int i = 0; i < shoppingTransactions.size(); i++) {
+            var shoppingTransaction = shoppingTransactions.get(i);
+            long start = System.nanoTime();
+            try {
+                bankTransactions.add(createBankTransactionFrom(shoppingTransaction));
+                positions.add(i);
+            } catch (RuntimeException ex) {
+                results[i] = failed(ex, shoppingTransaction.getOperationId());
+            } finally {
+                metrics.recordStage(Stage.RESOLVE_ACCOUNTS, System.nanoTime() - start);
+            }
+        }
+
+        if (!bankTransactions.isEmpty()) {
+            var settled = bankTransactionManager.executeBatch(bankTransactions);
+            for (int i = 0; i < settled.size(); i++) {
+                var result = settled.get(i);
+                results[positions.get(i)] = result.getTransactionStatus() == TransactionStatus.SUCCESS
+                        ? result : declined(result.getTransactionStatus(), result.getTransactionId());
+            }
+        }
+
+        // Only the operations identified by the caller can be retried
+        List<TransactionResult> identified = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            var operationId = shoppingTransactions.get(i).getOperationId();
+            if (operationId != null && !operationId.isBlank()) identified.add(results[i]);
+        }
+        recordResults(identified);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Record the results of transactions in the current database transaction, so their retries get them back.
+     * A failed record is thrown, so that the transactions are rolled back with it.
+     *
+     * @param results The results to be recorded
+     */
+    private void recordResults(List<TransactionResult> results) {
+        if (results.isEmpty()) return;
+        idempotencyStore.record(results);
+    }
 
-        } catch (ExecutionException | InterruptedException e) {
+    /**
+     * Supply the result of a declined transaction, with the message of its status
+     *
+     * @param status      The status of the transaction
+     * @param operationId The id of the transaction
+     * @return The result of the transaction
+     */
+    private TransactionResult declined(TransactionStatus status, String operationId) {
+        var value = status == null ? TransactionStatus.FAILED : status;
+        return new TransactionResult(value, operationId, value.getMessage());
+    }
 
-            return new TransactionResult(getEnum(e.getCause().getMessage()), shoppingTransaction.getOperationId()  , getMessage(e.getCause().getMessage()));
+    /**
+     * Supply the result of a transaction which threw. A BankTransactionException keeps its status,
+     * any other exception is a fault of the bank and fails the transaction.
+     *
+     * @param e           The exception thrown by the transaction
+     * @param operationId The id of the transaction
+     * @return The result of the transaction
+     */
+    private TransactionResult failed(Throwable e, String operationId) {
+        if (e instanceof BankTransactionException ex) {
+            return declined(ex.getTransactionStatus(), operationId);
         }
+        e.printStackTrace();
+        return declined(TransactionStatus.FAILED, operationId);
     }
 
     /**
      * This method is responsible for managing transactions about the buying QR Check .
-     * It adds a new Callable to the queue of the executor thread by the Submit method and wait for the result.
+     * It waits for the result of the asynchronous transaction.
      *
      * @param qrCheckTransaction The transaction to be managed
      */
     @Override
     public TransactionResult buyCheckTransaction(QrCheckTransactionModel qrCheckTransaction) {
-        Future<TransactionResult> result = executor.submit(new Callable<TransactionResult>() {
-
-            /**
-             * This method call the bankTransactionManager and the qrCheckManager to handle the transaction.
-             * Before it, it transforms the QrCheckTransaction into a BankTransaction.
-             * @return The result of the transaction
-             * @throws InterruptedException   If the thread is interrupted by a BankTransactionException for example
-             */
-            @Override
-            @Transactional(rollbackFor = {BankTransactionException.class, RuntimeException.class}, propagation = Propagation.REQUIRES_NEW)
-            public TransactionResult call() throws InterruptedException {
-                try {
-
-                    var bankTransaction = createBankTransactionFrom(qrCheckTransaction);
-                    qrCheckManager.controlAmountAndToken(qrCheckTransaction);
-                    bankTransactionManager.executeTransaction(bankTransaction);
-
-                    return qrCheckManager.createQrCheck(qrCheckTransaction);
-
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                    throw new InterruptedException(ex.getMessage());
-                }
+        return buyCheckTransactionAsync(qrCheckTransaction).join();
+    }
+
+    /**
+     * This method is responsible for managing transactions about the buying QR Check without blocking the caller.
+     * It adds a new Callable to the queue of the lane of the withdrawal account, unless the operation id was already run.
+     * An invalid transaction is declined on the caller thread and never queued.
+     * The payment, the creation of the QrCheck and the record of the result share a single database transaction.
+     *
+     * @param qrCheckTransaction The transaction to be managed
+     * @return The result of the transaction, completed off the lane threads
+     */
+    @Override
+    public CompletableFuture<TransactionResult> buyCheckTransactionAsync(QrCheckTransactionModel qrCheckTransaction) {
+        long start = System.nanoTime();
+        var operationId = qrCheckTransaction == null ? null : qrCheckTransaction.getOperationId();
+        var paymentMethod = qrCheckTransaction == null ? null : qrCheckTransaction.getPaymentMethod();
+        return timed("buy_check", paymentMethod, start, idempotencyStore.execute(operationId, () -> {
+            var accountIds = getAccountIdsOf(qrCheckTransaction);
+            var status = preValidator.validate(qrCheckTransaction, accountIds);
+            if (status != TransactionStatus.SUCCESS) {
+                return CompletableFuture.completedFuture(declined(status, operationId));
             }
-        });
 
+            return executor.submit(new Callable<TransactionResult>() {
+
+                /**
+                 * This method runs the transaction and records its result in a single database transaction.
+                 * A fault rolls back the whole of it, its BankTransactionException is thrown in a CompletionException.
+                 * @return The result of the transaction
+                 */
+                @Override
+                public TransactionResult call() {
+                    return transactionTemplate.execute(transactionStatus -> {
+                        TransactionResult result;
+                        try {
+                            result = buyCheck(qrCheckTransaction);
+                        } catch (BankTransactionException e) {
+                            throw new CompletionException(e);
+                        }
+                        if (operationId != null && !operationId.isBlank()) recordResults(List.of(result));
+                        return result;
+                    });
+                }
+            }, accountIds).exceptionally(e -> failed(unwrap(e), operationId));
+        }));
+    }
+
+    /**
+     * This method call the bankTransactionManager and the qrCheckManager to handle the transaction.
+     * Before it, it transforms the QrCheckTransaction into a BankTransaction.
+     * A declined transaction is returned with its status, only the faults are thrown.
+     *
+     * @param qrCheckTransaction The transaction to be managed
+     * @return The result of the transaction
+     * @throws BankTransactionException If the payment or the creation of the QrCheck fails
+     */
+    private TransactionResult buyCheck(QrCheckTransactionModel qrCheckTransaction) throws BankTransactionException {
+        var operationId = qrCheckTransaction.getOperationId();
+        var status = qrCheckManager.controlAmountAndToken(qrCheckTransaction);
+        if (status != TransactionStatus.SUCCESS) return declined(status, operationId);
+
+        long start = System.nanoTime();
+        var bankTransaction = createBankTransactionFrom(qrCheckTransaction);
+        metrics.recordStage(Stage.RESOLVE_ACCOUNTS, System.nanoTime() - start);
+        status = bankTransactionManager.settle(bankTransaction);
+        if (status != TransactionStatus.SUCCESS) return declined(status, operationId);
+
+        start = System.nanoTime();
         try {
-            return result.get();
-        } catch (ExecutionException | InterruptedException e) {
-            return new TransactionResult(getEnum(e.getCause().getMessage()), qrCheckTransaction.getOperationId(), getMessage(e.getCause().getMessage()));
+            return qrCheckManager.createQrCheck(qrCheckTransaction);
+        } finally {
+            metrics.recordStage(Stage.UPDATE_QR_CHECK, System.nanoTime() - start);
         }
     }
 
+    /**
+     * Record the time and the outcome of a transaction when its result is known
+     *
+     * @param type          The type of the transaction
+     * @param paymentMethod The payment method of the transaction, may be null
+     * @param start         The time of the submission of the transaction, by System.nanoTime()
+     * @param result        The future result of the transaction
+     * @return The future result of the transaction, completed after the record
+     */
+    private CompletableFuture<TransactionResult> timed(String type, PaymentMethod paymentMethod, long start,
+                                                       CompletableFuture<TransactionResult> result) {
+        return result.whenComplete((value, e) -> metrics.recordTransaction(type, paymentMethod,
+                value == null ? null : value.getTransactionStatus(), System.nanoTime() - start));
+    }
+
+    /**
+     * Supply the number of transactions waiting in each lane of the executor
+     *
+     * @return The queue depth of each lane
+     */
+    public List<Integer> getLaneQueueDepths() {
+        return executor.getQueueDepths();
+    }
+
+    /**
+     * Supply the contention counters of the account leases
+     *
+     * @return The metrics of the lease table
+     */
+    public AccountLeaseTable.Metrics getLeaseMetrics() {
+        return leaseTable.getMetrics();
+    }
+
+    /**
+     * Supply the ids of the accounts touched by a shop transaction, used to route it to its lane.
+     * They are resolved before the transaction is queued, so they may be null when an account is unknown.
+     *
+     * @param transaction Represents the transaction to be processed
+     * @return The withdrawal account id followed by the deposit account id
+     */
+    private UUID[] getAccountIdsOf(ShoppingTransactionModel transaction) {
+        if (transaction == null) return new UUID[0];
+
+        return new UUID[]{getWithdrawAccountIdBy(transaction), resolutionCache.getAccountIdByOwnerName(transaction.getDepositUsername())};
+    }
+
+    /**
+     * Supply the ids of the accounts touched by a QR Check purchase, used to route it to its lane.
+     *
+     * @param transaction Represents the transaction to be processed
+     * @return The withdrawal account id followed by the bank account id
+     */
+    private UUID[] getAccountIdsOf(QrCheckTransactionModel transaction) {
+        if (transaction == null) return new UUID[0];
+
+        return new UUID[]{accountService.getAccountIdByClientId(transaction.getClientId()), resolutionCache.getAccountIdByOwnerName(BankConstants.BANK_NAME)};
+    }
+
+    /**
+     * Supply the id of the account to withdraw.
+     *
+     * @param transaction Represents the transaction to be processed
+     * @return The id of the account to withdraw, or null
+     */
+    private UUID getWithdrawAccountIdBy(ShoppingTransactionModel transaction) {
+        if (isCardPayment(transaction)) {
+            if (transaction.getMeansOfPaymentId() == null || transaction.getMeansOfPaymentId().isBlank()) {
+                return null;
+            }
+            return resolutionCache.getAccountIdByCardId(transaction.getMeansOfPaymentId());
+        } else if (isCheckPayment(transaction)) {
+            return resolutionCache.getAccountIdByOwnerName(BankConstants.BANK_NAME);
+        }
+        return null;
+    }
+
     /**
      * This method is responsible for transforming a QrCheckTransaction into a BankTransaction.
      *
@@ -160,7 +383,7 @@ public class BankManager implements IBankManager {
      * @param shoppingTransaction The transaction to be managed
      * @return The BankTransaction
      */
-    private BankTransactionModel createBankTransactionFrom(ShoppingTransactionModel shoppingTransaction) throws BankTransactionException {
+    private BankTransactionModel createBankTransactionFrom(ShoppingTransactionModel shoppingTransaction) {
 
         if (shoppingTransaction == null) return null;
 
@@ -168,7 +391,10 @@ public class BankManager implements IBankManager {
 
         bankTransaction.setDepositAccount(getDepositAccountBy(shoppingTransaction));
         bankTransaction.setWithdrawalAccount(getWithdrawAccountBy(shoppingTransaction, BankTransactionType.SHOPPING));
-        bankTransaction.setQrCheck(getQrCheckFrom(shoppingTransaction));
+        // A card payment has no check to look up
+        if (isCheckPayment(shoppingTransaction)) {
+            bankTransaction.setQrCheck(getQrCheckFrom(shoppingTransaction));
+        }
 
         return bankTransaction;
     }
@@ -180,29 +406,25 @@ public class BankManager implements IBankManager {
      * @return The account to deposit
      */
     private Account getDepositAccountBy(ShoppingTransactionModel transaction) {
-        return accountService.getAccountByOwnerName(transaction.getDepositUsername());
+        return resolutionCache.getAccountByOwnerName(transaction.getDepositUsername());
     }
 
 
     /**
-     * Supply the account to withdraw
+     * Supply the account to withdraw. The means of payment are checked by the TransactionPreValidator
+     * before the transaction is queued.
      *
      * @param transaction Represents the transaction to be processed
-     * @throws BankTransactionException if the means of payment is not valid
+     * @return The account to withdraw, or null if the means of payment does not match an account
      */
-    private Account getWithdrawAccountBy(ShoppingTransactionModel transaction, BankTransactionType bankTransactionType) throws BankTransactionException {
+    private Account getWithdrawAccountBy(ShoppingTransactionModel transaction, BankTransactionType bankTransactionType) {
 
         if (isCardPayment(transaction)) {
-            if ( transaction.getMeansOfPaymentId() == null || transaction.getMeansOfPaymentId().isBlank() ||  transaction.getMeansOfPaymentId().isEmpty()) {
-                throw new BankTransactionException( TransactionStatus.CARD_ERROR, transaction.getOperationId(), "The card is not valid");
-            }
-            return accountService.getAccountByCardId(transaction.getMeansOfPaymentId());
-
+            return resolutionCache.getAccountByCardId(transaction.getMeansOfPaymentId());
         } else if (isCheckPayment(transaction)) {
-            return clientService.getClientByOrganisationName(BankConstants.BANK_NAME).getAccount();
-        } else {
-            throw new BankTransactionException(TransactionStatus.MEANS_OF_PAYMENT_ERROR, transaction.getOperationId(), "Means of Payment error was occurred");
+            return getBankAccount();
         }
+        return null;
     }
 
     /**
@@ -231,7 +453,7 @@ public class BankManager implements IBankManager {
      * @return The bank account
      */
     private Account getBankAccount() {
-        return clientService.getClientByOrganisationName(BankConstants.BANK_NAME).getAccount();
+        return resolutionCache.getAccountByOwnerName(BankConstants.BANK_NAME);
     }
 
     /**
@@ -245,47 +467,12 @@ public class BankManager implements IBankManager {
     }
 
     /**
-     * This method is responsible for transforming a string message into an TransactionStatus enum .
-     *
-     * @param value The value to be converted
-     * @return A TransactionStatus enum value
-     */
-    TransactionStatus getEnum(String value) {
-        try {
-            return TransactionStatus.valueOf(value);
-        } catch (IllegalArgumentException e) {
-            return TransactionStatus.FAILED;
-        }
-    }
-
-    /**
-     * This method is responsible for supply from a TransactionStatus enum, a corresponding message.
+     * Supply the exception thrown by a transaction, without the CompletionException wrapping it
      *
-     * @param value The value to be converted
-     * @return A message
+     * @param e The exception completing the future
+     * @return The exception thrown by the transaction
      */
-    String getMessage(String value) {
-        try {
-            return switch (TransactionStatus.valueOf(value)) {
-                case FAILED -> "Payment has been failed";
-                case SUCCESS -> "Payment has been validated";
-                case OPERATION_PENDING_ERROR -> "Operation is already pending";
-                case OPERATION_CLOSING_ERROR -> "Operation is already closed";
-                case PAYMENT_ERROR -> "Payment error was occurred";
-                case MEANS_OF_PAYMENT_ERROR -> "Means of Payment error was occurred";
-                case CARD_ERROR -> "Card not found";
-                case VALIDITY_DATE_ERROR -> "Means of payment expired";
-                case CHECK_ERROR -> "Check not found";
-                case TOKEN_EMPTY_ERROR, TOKEN_ERROR -> "Token error";
-                case BANK_ERROR -> "Bank not found";
-                case INSUFFICIENT_FUNDS_ERROR -> "Account's insufficient funds";
-                case ACCOUNT_ERROR -> "Account not found";
-                case EMPTY_TRANSACTION_ERROR -> "Empty transaction error";
-                case AMOUNT_ERROR -> "Amount is not valid";
-                default -> "";
-            };
-        } catch (IllegalArgumentException e) {
-            return value;
-        }
+    private Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
     }
 }
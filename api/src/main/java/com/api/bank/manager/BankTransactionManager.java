@@ -1,28 +1,50 @@
 package com.api.bank.manager;
 
+import com.api.bank.ledger.LedgerEngine;
+import com.api.bank.manager.BankTransactionMetrics.Stage;
 import com.api.bank.model.BankConstants;
+import com.api.bank.model.Money;
 import com.api.bank.model.entity.Account;
+import com.api.bank.model.entity.Base;
 import com.api.bank.model.entity.Operation;
 import com.api.bank.model.entity.QrCheck;
 import com.api.bank.model.enums.*;
 import com.api.bank.model.exception.BankTransactionException;
 import com.api.bank.model.transaction.BankTransactionModel;
+import com.api.bank.model.transaction.TransactionResult;
 import com.api.bank.repository.AccountRepository;
-import com.api.bank.repository.OperationRepository;
-import com.api.bank.service.AccountService;
-import com.api.bank.service.OperationService;
+import com.api.bank.repository.CheckRepository;
 import com.sun.istack.NotNull;
 import com.sun.istack.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Class that manage all the bank transactions
@@ -30,16 +52,28 @@ import java.util.UUID;
 @Component()
 @Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
 public class BankTransactionManager {
-    private final AccountService accountService;
-    private final OperationService operationService;
-    private final IQrCheckManager qrCheckManager;
+    private final AccountRepository accountRepository;
+    private final CheckRepository checkRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final LedgerEngine ledgerEngine;
+    private final AccountLeaseTable leaseTable;
+    private final long leaseWaitTimeout;
+    private final BankTransactionMetrics metrics;
 
-    @Autowired
-    public BankTransactionManager(OperationRepository operationRepository, AccountRepository accountRepository, IQrCheckManager qrCheckManager) {
-        this.accountService = new AccountService(accountRepository);
-        this.operationService = new OperationService(operationRepository);
-        this.qrCheckManager = qrCheckManager;
+    @PersistenceContext
+    private EntityManager entityManager;
 
+    @Autowired
+    public BankTransactionManager(AccountRepository accountRepository, CheckRepository checkRepository,
+                                  PlatformTransactionManager transactionManager, LedgerEngine ledgerEngine, AccountLeaseTable leaseTable,
+                                  @Value("${bank.lease.wait-timeout}") long leaseWaitTimeout, BankTransactionMetrics metrics) {
+        this.accountRepository = accountRepository;
+        this.checkRepository = checkRepository;
+        this.transactionManager = transactionManager;
+        this.ledgerEngine = ledgerEngine;
+        this.leaseTable = leaseTable;
+        this.leaseWaitTimeout = leaseWaitTimeout;
+        this.metrics = metrics;
     }
 
     /**
@@ -52,87 +86,415 @@ public class BankTransactionManager {
 
     @Transactional(rollbackFor = {BankTransactionException.class, RuntimeException.class}, propagation = Propagation.REQUIRED)
     public void executeTransaction(BankTransactionModel transaction) throws BankTransactionException, RuntimeException {
+        var status = settle(transaction);
+        if (status != TransactionStatus.SUCCESS)
+            throw new BankTransactionException(status, transaction == null ? "" : transaction.getOperationId(), status.getMessage());
+    }
+
+    /**
+     * Handle a transaction between two accounts. A declined transaction is reported by its status:
+     * only the faults are thrown, so a storm of declined payments does not cost an exception each.
+     *
+     * @param transaction Represents the transaction to be processed
+     * @return SUCCESS, or the status of the check which declined the transaction
+     * @throws BankTransactionException If the writes fail (PAYMENT_ERROR)
+     * @throws RuntimeException         If a runtime problem occurs
+     */
+    @Transactional(rollbackFor = {BankTransactionException.class, RuntimeException.class}, propagation = Propagation.REQUIRED)
+    public TransactionStatus settle(BankTransactionModel transaction) throws BankTransactionException, RuntimeException {
 
-        checkTransaction(transaction);
-        checkAmount(transaction);
-        checkAccount(transaction.getWithdrawalAccount(), transaction, OperationType.WITHDRAW);
-        checkMeansOfPayment(transaction.getWithdrawalAccount(), transaction);
+        if (ledgerEngine.isEnabled()) {
+            var status = settleInLedger(transaction);
+            timed(Stage.LEDGER, ledgerEngine::sync);
+            return status;
+        }
+
+        // Everything is validated before the first write
+        var status = timed(Stage.VALIDATE, () -> validate(transaction));
+        if (status != TransactionStatus.SUCCESS) return status;
 
-        isAlreadyPendingOperation(transaction.getWithdrawalAccount(), transaction);
-        var withdrawOperation = writeOperation(transaction.getWithdrawalAccount(), transaction, OperationStatus.PENDING, OperationType.WITHDRAW);  // Add the operation to the list of pending operations
+        var leases = timed(Stage.LEASE_ACCOUNTS,
+                () -> acquireLeases(getAccountId(transaction.getWithdrawalAccount()), getAccountId(transaction.getDepositAccount())));
+        if (leases == null) return TransactionStatus.OPERATION_PENDING_ERROR;
+        try {
+            status = timed(Stage.VALIDATE, () -> checkBalance(transaction.getWithdrawalAccount(), transaction));
+            if (status == TransactionStatus.SUCCESS) status = checkLeases(leases);
+            if (status == TransactionStatus.SUCCESS) status = commitTransaction(transaction);
+            return status;
+        } finally {
+            releaseLeases(leases);
+        }
+    }
 
-        checkBalance(transaction.getWithdrawalAccount(), transaction);
-        updateAccountBalanceAndOperation(transaction.getWithdrawalAccount(), transaction, withdrawOperation);
+    /**
+     * Write a validated transaction in a single flush: the balances are updated in place by the database, then
+     * both operations are inserted already closed.
+     * The balance updates are guarded, so an account or a check whose balance changed since it was loaded cannot
+     * go below zero. A declined guard never marks the database transaction rollback-only, since it may be the one of
+     * the caller: the check is debited first, and credited back if the account is declined after it.
+     * If the writes fail, the operations are recorded as canceled in a separate database transaction.
+     *
+     * @param transaction The transaction to be written
+     * @return SUCCESS, or INSUFFICIENT_FUNDS_ERROR if a balance is not enough anymore
+     * @throws BankTransactionException If the writes fail
+     */
+    private TransactionStatus commitTransaction(BankTransactionModel transaction) throws BankTransactionException {
+        var amount = transaction.getAmount();
+        var withdrawalAccount = transaction.getWithdrawalAccount();
+        var depositAccount = transaction.getDepositAccount();
+        var qrCheck = transaction.getQrCheck();
+        boolean debitQrCheck = isQrCheckDebited(transaction);
 
-        checkAccount(transaction.getDepositAccount(), transaction, OperationType.DEPOSIT);
-        var depositOperation = writeOperation(transaction.getDepositAccount(), transaction, OperationStatus.PENDING, OperationType.DEPOSIT);
+        try {
+            long start;
+            if (debitQrCheck) {
+                start = System.nanoTime();
+                int debited = checkRepository.withdraw(qrCheck.getId(), amount);
+                metrics.recordStage(Stage.UPDATE_QR_CHECK, System.nanoTime() - start);
+                if (debited == 0)
+                    return TransactionStatus.INSUFFICIENT_FUNDS_ERROR;
+            }
 
-        updateAccountBalanceAndOperation(transaction.getDepositAccount(), transaction, depositOperation);
+            start = System.nanoTime();
+            if (accountRepository.withdraw(withdrawalAccount.getId(), amount) == 0) {
+                if (debitQrCheck) {
+                    checkRepository.deposit(qrCheck.getId(), amount);
+                }
+                return TransactionStatus.INSUFFICIENT_FUNDS_ERROR;
+            }
+            accountRepository.deposit(depositAccount.getId(), amount);
+            metrics.recordStage(Stage.UPDATE_BALANCES, System.nanoTime() - start);
+
+            // References do not load the entities, the operations only need their ids
+            start = System.nanoTime();
+            var qrCheckReference = qrCheck == null ? null : entityManager.getReference(QrCheck.class, qrCheck.getId());
+            entityManager.persist(createOperation(transaction, entityManager.getReference(Account.class, withdrawalAccount.getId()),
+                    qrCheckReference, OperationStatus.CLOSED, OperationType.WITHDRAW, transaction.getPaymentMethod()));
+            entityManager.persist(createOperation(transaction, entityManager.getReference(Account.class, depositAccount.getId()),
+                    qrCheckReference, OperationStatus.CLOSED, OperationType.DEPOSIT, transaction.getPaymentMethod()));
+            entityManager.flush();
+            metrics.recordStage(Stage.WRITE_OPERATIONS, System.nanoTime() - start);
+
+        } catch (PersistenceException | DataAccessException ex) {
+            recordCanceledOperations(transaction);
+            throw new BankTransactionException(TransactionStatus.PAYMENT_ERROR, transaction.getOperationId(), "Payment error was occurred");
+        }
 
-        if (transaction.getBankTransactionType() == BankTransactionType.SHOPPING && transaction.getPaymentMethod() == PaymentMethod.CHECK) {
-            updateQrCheck(transaction);
+        // The entities of the transaction are detached, they are kept in line with the database for the caller
+        withdrawalAccount.setSold(withdrawalAccount.getSold().minus(amount));
+        depositAccount.setSold(depositAccount.getSold().plus(amount));
+        if (debitQrCheck) {
+            qrCheck.setSoldAmount(qrCheck.getSoldAmount().minus(amount));
         }
+        return TransactionStatus.SUCCESS;
     }
 
     /**
-     * Update the QrCheck status when the transaction used a check method payment
+     * Record the operations of a transaction which could not be written as canceled, in a new database transaction
+     * since the current one is rolled back
      *
-     * @param transaction Represents the transaction to be processed
-     * @throws BankTransactionException If the transaction is not valid
+     * @param transaction The transaction which failed
      */
-    private void updateQrCheck(BankTransactionModel transaction) throws BankTransactionException {
-        qrCheckManager.updateQrCheck(transaction);
+    private void recordCanceledOperations(BankTransactionModel transaction) {
+        try {
+            var requiresNew = new TransactionTemplate(transactionManager);
+            requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            requiresNew.executeWithoutResult(status -> {
+                var qrCheck = transaction.getQrCheck() == null ? null : entityManager.getReference(QrCheck.class, transaction.getQrCheck().getId());
+                entityManager.persist(createOperation(transaction, entityManager.getReference(Account.class, transaction.getWithdrawalAccount().getId()),
+                        qrCheck, OperationStatus.CANCELED, OperationType.WITHDRAW, transaction.getPaymentMethod()));
+                entityManager.persist(createOperation(transaction, entityManager.getReference(Account.class, transaction.getDepositAccount().getId()),
+                        qrCheck, OperationStatus.CANCELED, OperationType.DEPOSIT, transaction.getPaymentMethod()));
+            });
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
     }
 
+    /**
+     * Handle a batch of transactions in a single database transaction.
+     * Balances are validated cumulatively, in the order of the list: each transaction sees the balances left by the
+     * accepted transactions before it. A declined transaction does not stop the others.
+     * Accepted transactions are written by guarded updates of their summed amounts (see writeBatch), then in one flush
+     * with their operations already closed, so the inserts are sent through JDBC batching.
+     *
+     * @param transactions The transactions to be processed
+     * @return One result per transaction, in the same order
+     * @throws RuntimeException If a runtime problem occurs, in which case nothing of the batch is written
+     */
+    @Transactional(rollbackFor = RuntimeException.class, propagation = Propagation.REQUIRED)
+    public List<TransactionResult> executeBatch(List<BankTransactionModel> transactions) throws RuntimeException {
+        if (ledgerEngine.isEnabled()) {
+            return executeBatchInLedger(transactions);
+        }
+
+        Map<UUID, Account> accounts = new HashMap<>();
+        Map<UUID, QrCheck> qrChecks = new HashMap<>();
+        Map<UUID, AccountLeaseTable.Lease> leases = new HashMap<>();
+        List<BankTransactionModel> accepted = new ArrayList<>();
+        List<TransactionResult> results = new ArrayList<>(transactions.size());
+
+        try {
+            for (BankTransactionModel transaction : transactions) {
+                if (transaction != null) {
+                    // The same account must be shared by all the transactions of the batch to sum up their amounts
+                    transaction.setWithdrawalAccount(shared(accounts, transaction.getWithdrawalAccount()));
+                    transaction.setDepositAccount(shared(accounts, transaction.getDepositAccount()));
+                    transaction.setQrCheck(shared(qrChecks, transaction.getQrCheck()));
+                }
+
+                var status = timed(Stage.VALIDATE, () -> validate(transaction));
+                if (status == TransactionStatus.SUCCESS) status = timed(Stage.LEASE_ACCOUNTS, () -> acquireLeases(transaction, leases));
+                if (status == TransactionStatus.SUCCESS) status = timed(Stage.VALIDATE, () -> checkBalance(transaction.getWithdrawalAccount(), transaction));
+                if (status != TransactionStatus.SUCCESS) {
+                    results.add(resultOf(transaction, status));
+                    continue;
+                }
+
+                var withdrawalAccount = transaction.getWithdrawalAccount();
+                var depositAccount = transaction.getDepositAccount();
+                withdrawalAccount.setSold(withdrawalAccount.getSold().minus(transaction.getAmount()));
+                depositAccount.setSold(depositAccount.getSold().plus(transaction.getAmount()));
+                if (isQrCheckDebited(transaction)) {
+                    transaction.getQrCheck().setSoldAmount(transaction.getQrCheck().getSoldAmount().minus(transaction.getAmount()));
+                }
+
+                accepted.add(transaction);
+                results.add(resultOf(transaction, TransactionStatus.SUCCESS));
+            }
+
+            for (AccountLeaseTable.Lease lease : leases.values()) {
+                if (!leaseTable.isHeld(lease)) {
+                    throw new IllegalStateException("Account lease lost before the batch was written");
+                }
+            }
+            var declined = writeBatch(accepted);
+            for (int i = 0; i < transactions.size(); i++) {
+                if (declined.contains(transactions.get(i))) {
+                    results.set(i, resultOf(transactions.get(i), TransactionStatus.INSUFFICIENT_FUNDS_ERROR));
+                }
+            }
+        } finally {
+            releaseLeases(new ArrayList<>(leases.values()));
+        }
+        return results;
+    }
 
     /**
-     * Check if the transaction is not empty
+     * Handle a transaction in the ledger: the checks which do not need the balances are the same, then the ledger
+     * checks the balances and applies the transaction in memory. The database is written later by the ledger.
      *
      * @param transaction Represents the transaction to be processed
-     * @throws BankTransactionException If the transaction is not valid
+     * @return SUCCESS, or the status of the check which declined the transaction
+     */
+    private TransactionStatus settleInLedger(BankTransactionModel transaction) {
+        var status = timed(Stage.VALIDATE, () -> validate(transaction));
+        return status == TransactionStatus.SUCCESS ? timed(Stage.LEDGER, () -> ledgerEngine.apply(transaction)) : status;
+    }
+
+    /**
+     * Handle a batch of transactions in the ledger, with a single journal sync for the whole batch
+     *
+     * @param transactions The transactions to be processed
+     * @return One result per transaction, in the same order
      */
-    private void checkTransaction(BankTransactionModel transaction) throws BankTransactionException {
-        if (transaction == null) {
-            throw new BankTransactionException(TransactionStatus.EMPTY_TRANSACTION_ERROR, "", "Transaction is Empty");
+    private List<TransactionResult> executeBatchInLedger(List<BankTransactionModel> transactions) {
+        List<TransactionResult> results = new ArrayList<>(transactions.size());
+        for (BankTransactionModel transaction : transactions) {
+            results.add(resultOf(transaction, settleInLedger(transaction)));
         }
+        timed(Stage.LEDGER, ledgerEngine::sync);
+        return results;
     }
 
     /**
-     * Proceed to balance operation and update new value of the account and operation
+     * Write the accepted transactions of a batch: the balances first, then the operations in a single flush.
+     * The balances were checked on entities loaded before the database transaction, and may have been changed since
+     * by another writer. So each account and each check is written by the guarded updates of a single transaction,
+     * with the sum of the amounts of the batch. When a guard fails, the latest transaction withdrawing from that
+     * account or that check is declined, and only the difference with the sums already written is written again.
+     * The operations get references to the entities, so that nothing is merged or loaded again.
      *
-     * @param account     The account to be updated
-     * @param transaction The transaction to be processed
-     * @param operation   The operation to be updated
-     * @throws BankTransactionException If the operation is not valid
+     * @param accepted The transactions accepted by the checks of the batch, in order
+     * @return The transactions declined by a guard (INSUFFICIENT_FUNDS_ERROR)
      */
-    private void updateAccountBalanceAndOperation(Account account, BankTransactionModel transaction, Operation operation) throws BankTransactionException {
+    private Set<BankTransactionModel> writeBatch(List<BankTransactionModel> accepted) {
+        Set<BankTransactionModel> declined = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (accepted.isEmpty()) return declined;
+
+        List<BankTransactionModel> written = new ArrayList<>(accepted);
+        Map<UUID, Long> writtenAccountDeltas = new HashMap<>();
+        Map<UUID, Long> writtenQrCheckDebits = new HashMap<>();
+        while (true) {
+            Map<UUID, Long> accountDeltas = new LinkedHashMap<>();
+            Map<UUID, Long> qrCheckDebits = new LinkedHashMap<>();
+            for (BankTransactionModel transaction : written) {
+                long amount = transaction.getAmount().getMinorUnits();
+                accountDeltas.merge(transaction.getWithdrawalAccount().getId(), -amount, Long::sum);
+                accountDeltas.merge(transaction.getDepositAccount().getId(), amount, Long::sum);
+                if (isQrCheckDebited(transaction)) {
+                    qrCheckDebits.merge(transaction.getQrCheck().getId(), amount, Long::sum);
+                }
+            }
+
+            boolean qrChecks = !qrCheckDebits.isEmpty() || !writtenQrCheckDebits.isEmpty();
+            var overdrawnAccount = timed(Stage.UPDATE_BALANCES, () -> withdrawAccounts(accountDeltas, writtenAccountDeltas));
+            var overdrawnQrCheck = overdrawnAccount != null || !qrChecks ? null
+                    : timed(Stage.UPDATE_QR_CHECK, () -> withdrawQrChecks(qrCheckDebits, writtenQrCheckDebits));
+            if (overdrawnAccount == null && overdrawnQrCheck == null) {
+                timed(Stage.UPDATE_BALANCES, () -> depositAccounts(accountDeltas, writtenAccountDeltas));
+                if (qrChecks) timed(Stage.UPDATE_QR_CHECK, () -> depositQrChecks(qrCheckDebits, writtenQrCheckDebits));
+                break;
+            }
 
-        if (operation.getOperationType() == OperationType.DEPOSIT)
-            account.setSold(account.getSold() + transaction.getAmount());
+            for (int i = written.size() - 1; i >= 0; i--) {
+                var transaction = written.get(i);
+                if (overdrawnAccount != null ? overdrawnAccount.equals(transaction.getWithdrawalAccount().getId())
+                        : isQrCheckDebited(transaction) && overdrawnQrCheck.equals(transaction.getQrCheck().getId())) {
+                    declined.add(written.remove(i));
+                    break;
+                }
+            }
+        }
 
-        else if (operation.getOperationType() == OperationType.WITHDRAW)
-            account.setSold(account.getSold() - transaction.getAmount());
+        long start = System.nanoTime();
+        for (BankTransactionModel transaction : written) {
+            var qrCheck = transaction.getQrCheck() == null ? null : entityManager.getReference(QrCheck.class, transaction.getQrCheck().getId());
+            entityManager.persist(createOperation(transaction, entityManager.getReference(Account.class, transaction.getWithdrawalAccount().getId()),
+                    qrCheck, OperationStatus.CLOSED, OperationType.WITHDRAW, transaction.getPaymentMethod()));
+            entityManager.persist(createOperation(transaction, entityManager.getReference(Account.class, transaction.getDepositAccount().getId()),
+                    qrCheck, OperationStatus.CLOSED, OperationType.DEPOSIT, transaction.getPaymentMethod()));
+        }
+        entityManager.flush();
+        metrics.recordStage(Stage.WRITE_OPERATIONS, System.nanoTime() - start);
+        return declined;
+    }
 
-        var result = accountService.update(account);
-        if (result.isValid()) {
-            if (!this.updateOperationStatus(OperationStatus.CLOSED, operation))
-                throw new BankTransactionException(TransactionStatus.OPERATION_CLOSING_ERROR, transaction.getOperationId(), "Operation closing error");
-        } else {
-            this.updateOperationStatus(OperationStatus.CANCELED, operation);
-            throw new BankTransactionException(TransactionStatus.PAYMENT_ERROR, transaction.getOperationId(), "Payment error was occurred");
+    /**
+     * Withdraw from the accounts of a batch what their summed amounts withdraw more than what is already written
+     *
+     * @param deltas        The sum of the amounts of each account, in minor units, negative when withdrawn
+     * @param writtenDeltas The sums already written, updated with the withdrawals
+     * @return The id of the first account whose balance is not enough, or null
+     */
+    private UUID withdrawAccounts(Map<UUID, Long> deltas, Map<UUID, Long> writtenDeltas) {
+        for (var delta : deltas.entrySet()) {
+            long missing = writtenDeltas.getOrDefault(delta.getKey(), 0L) - delta.getValue();
+            if (missing <= 0) continue;
+            if (accountRepository.withdraw(delta.getKey(), Money.ofMinorUnits(missing)) == 0) return delta.getKey();
+            writtenDeltas.merge(delta.getKey(), -missing, Long::sum);
+        }
+        return null;
+    }
+
+    /**
+     * Deposit on the accounts of a batch what their summed amounts deposit more than what is already written,
+     * including what was withdrawn for transactions declined since
+     *
+     * @param deltas        The sum of the amounts of each account, in minor units, negative when withdrawn
+     * @param writtenDeltas The sums already written
+     */
+    private void depositAccounts(Map<UUID, Long> deltas, Map<UUID, Long> writtenDeltas) {
+        Set<UUID> ids = new LinkedHashSet<>(deltas.keySet());
+        ids.addAll(writtenDeltas.keySet());
+        for (UUID id : ids) {
+            long extra = deltas.getOrDefault(id, 0L) - writtenDeltas.getOrDefault(id, 0L);
+            if (extra > 0) accountRepository.deposit(id, Money.ofMinorUnits(extra));
+        }
+    }
+
+    /**
+     * Withdraw from the checks of a batch what their summed amounts debit more than what is already written
+     *
+     * @param debits        The sum of the amounts debited from each check, in minor units
+     * @param writtenDebits The sums already written, updated with the withdrawals
+     * @return The id of the first check whose balance is not enough, or null
+     */
+    private UUID withdrawQrChecks(Map<UUID, Long> debits, Map<UUID, Long> writtenDebits) {
+        for (var debit : debits.entrySet()) {
+            long missing = debit.getValue() - writtenDebits.getOrDefault(debit.getKey(), 0L);
+            if (missing <= 0) continue;
+            if (checkRepository.withdraw(debit.getKey(), Money.ofMinorUnits(missing)) == 0) return debit.getKey();
+            writtenDebits.merge(debit.getKey(), missing, Long::sum);
+        }
+        return null;
+    }
+
+    /**
+     * Credit back the checks of a batch with what was debited for transactions declined since
+     *
+     * @param debits        The sum of the amounts debited from each check, in minor units
+     * @param writtenDebits The sums already written
+     */
+    private void depositQrChecks(Map<UUID, Long> debits, Map<UUID, Long> writtenDebits) {
+        for (var written : writtenDebits.entrySet()) {
+            long extra = written.getValue() - debits.getOrDefault(written.getKey(), 0L);
+            if (extra > 0) checkRepository.deposit(written.getKey(), Money.ofMinorUnits(extra));
+        }
+    }
+
+    /**
+     * Run a stage of a transaction and record its time
+     *
+     * @param stage  The stage
+     * @param action The work of the stage
+     * @return The result of the action
+     */
+    private <T> T timed(Stage stage, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            metrics.recordStage(stage, System.nanoTime() - start);
         }
     }
 
+    private void timed(Stage stage, Runnable action) {
+        timed(stage, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Supply the instance of an entity shared by a batch, registering it on its first use
+     *
+     * @param entities The entities of the batch, by id
+     * @param entity   The entity loaded for a transaction, may be null
+     * @return The shared instance, or null if the entity is null
+     */
+    private <T extends Base> T shared(Map<UUID, T> entities, @Nullable T entity) {
+        if (entity == null) return null;
+        return entities.computeIfAbsent(entity.getId(), id -> entity);
+    }
+
+    /**
+     * Run the checks which do not need the balances, in order
+     *
+     * @param transaction Represents the transaction to be processed
+     * @return SUCCESS, or the status of the first check which failed
+     */
+    private TransactionStatus validate(BankTransactionModel transaction) {
+        if (transaction == null) return TransactionStatus.EMPTY_TRANSACTION_ERROR;
+
+        var status = checkAmount(transaction);
+        if (status == TransactionStatus.SUCCESS) status = checkAccount(transaction.getWithdrawalAccount(), transaction, OperationType.WITHDRAW);
+        if (status == TransactionStatus.SUCCESS) status = checkMeansOfPayment(transaction.getWithdrawalAccount(), transaction);
+        if (status == TransactionStatus.SUCCESS) status = checkAccount(transaction.getDepositAccount(), transaction, OperationType.DEPOSIT);
+        return status;
+    }
+
     /**
      * Check if the amount is valid
      *
      * @param transaction The transaction to be processed
-     * @throws BankTransactionException If the amount is not valid
+     * @return SUCCESS, or AMOUNT_ERROR if the amount is not valid
      */
-    private void checkAmount(BankTransactionModel transaction) throws BankTransactionException {
-        if (transaction.getAmount() <= 0) {
-            throw new BankTransactionException(TransactionStatus.AMOUNT_ERROR, transaction.getOperationId(), "Amount is not valid");
+    private TransactionStatus checkAmount(BankTransactionModel transaction) {
+        if (transaction.getAmount() == null || !transaction.getAmount().isPositive()) {
+            return TransactionStatus.AMOUNT_ERROR;
         }
+        return TransactionStatus.SUCCESS;
     }
 
     /**
@@ -140,47 +502,84 @@ public class BankTransactionManager {
      *
      * @param withdrawAccount The account to be checked
      * @param transaction     The transaction to be processed
-     * @throws BankTransactionException If the account or qrCheck has not enough balance
+     * @return SUCCESS, or INSUFFICIENT_FUNDS_ERROR if the account or qrCheck has not enough balance
      */
-    private void checkBalance(Account withdrawAccount, BankTransactionModel transaction) throws BankTransactionException {
-        if (transaction.getAmount() <= 0) {
-            throw new BankTransactionException(TransactionStatus.AMOUNT_ERROR, transaction.getOperationId(), "Amount is not valid");
-        }
+    private TransactionStatus checkBalance(Account withdrawAccount, BankTransactionModel transaction) {
         if (!withdrawAccount.isEnoughMoney(transaction.getAmount()))
-            throw new BankTransactionException(TransactionStatus.INSUFFICIENT_FUNDS_ERROR, transaction.getOperationId(), "Account's insufficient funds");
+            return TransactionStatus.INSUFFICIENT_FUNDS_ERROR;
 
         if (transaction.getQrCheck() != null && !transaction.getQrCheck().isEnoughMoney(transaction.getAmount()))
-            throw new BankTransactionException(TransactionStatus.INSUFFICIENT_FUNDS_ERROR, transaction.getOperationId(), "Check amount invalid");
+            return TransactionStatus.INSUFFICIENT_FUNDS_ERROR;
 
+        return TransactionStatus.SUCCESS;
     }
 
     /**
-     * Write a transaction operation and persist it in the database
+     * Lease the accounts of a transaction, so that no other transaction writes them at the same time
+     *
+     * @param accountIds The accounts to be leased, null ids are ignored
+     * @return The leases of the accounts, or null if an account is still leased by another transaction after the wait timeout
+     */
+    private List<AccountLeaseTable.Lease> acquireLeases(UUID... accountIds) {
+        try {
+            return leaseTable.acquireAll(leaseWaitTimeout, accountIds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Lease the accounts of a transaction of a batch which are not leased by the batch yet
      *
-     * @param account     The relevant bank account
      * @param transaction The transaction to be processed
-     * @param opStatus    The operation type to be persisted
-     * @param opType      The operation type to be persisted
-     * @throws BankTransactionException If the operation is not valid
+     * @param leases      The leases held by the batch, by account id
+     * @return SUCCESS, or OPERATION_PENDING_ERROR if an account is still leased by another transaction after the wait timeout
      */
-    private Operation writeOperation(Account account, BankTransactionModel transaction, OperationStatus opStatus, OperationType opType) throws BankTransactionException {
-        var operation = createOperation(transaction, account, transaction.getQrCheck(), opStatus, opType, transaction.getPaymentMethod());
-        if (!operationService.add(operation).isValid())
-            throw new BankTransactionException(TransactionStatus.OPERATION_PENDING_ERROR, transaction.getOperationId(), "Operation pending error");
-        return operation;
+    private TransactionStatus acquireLeases(BankTransactionModel transaction, Map<UUID, AccountLeaseTable.Lease> leases) {
+        var missingIds = Stream.of(getAccountId(transaction.getWithdrawalAccount()), getAccountId(transaction.getDepositAccount()))
+                .filter(id -> id != null && !leases.containsKey(id))
+                .toArray(UUID[]::new);
+        if (missingIds.length == 0) return TransactionStatus.SUCCESS;
+
+        var acquired = acquireLeases(missingIds);
+        if (acquired == null) return TransactionStatus.OPERATION_PENDING_ERROR;
+        for (AccountLeaseTable.Lease lease : acquired) {
+            leases.put(lease.getAccountId(), lease);
+        }
+        return TransactionStatus.SUCCESS;
     }
 
     /**
-     * Check if an existing operation is already processing to the same account
+     * Check that the transaction still holds the leases of its accounts before writing them (fencing check)
      *
-     * @param withdrawAccount The account to be checked
-     * @param transaction     The transaction to be processed
-     * @throws BankTransactionException If an existing operation is already processing
+     * @param leases The leases of the transaction
+     * @return SUCCESS, or OPERATION_PENDING_ERROR if a lease expired and the account may be written by another transaction
      */
-    private void isAlreadyPendingOperation(Account withdrawAccount, BankTransactionModel transaction) throws BankTransactionException {
-        // Is an operation is already in progress ?
-        if (operationService.isOperationPendingFor(withdrawAccount.getId()))
-            throw new BankTransactionException(TransactionStatus.OPERATION_PENDING_ERROR, transaction.getOperationId(), "Operation pending error");
+    private TransactionStatus checkLeases(List<AccountLeaseTable.Lease> leases) {
+        for (AccountLeaseTable.Lease lease : leases) {
+            if (!leaseTable.isHeld(lease))
+                return TransactionStatus.OPERATION_PENDING_ERROR;
+        }
+        return TransactionStatus.SUCCESS;
+    }
+
+    /**
+     * Release the leases when the database transaction completes, so that the next transaction reads the committed balances
+     *
+     * @param leases The leases to be released
+     */
+    private void releaseLeases(List<AccountLeaseTable.Lease> leases) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    leaseTable.releaseAll(leases);
+                }
+            });
+        } else {
+            leaseTable.releaseAll(leases);
+        }
     }
 
     /**
@@ -188,26 +587,29 @@ public class BankTransactionManager {
      *
      * @param withdrawAccount the account to be debited
      * @param transaction     the transaction to be processed
-     * @throws BankTransactionException if the payment method is not valid
+     * @return SUCCESS, or the status of the means of payment which is not valid
      */
-    private void checkMeansOfPayment(Account withdrawAccount, BankTransactionModel transaction) throws BankTransactionException {
+    private TransactionStatus checkMeansOfPayment(Account withdrawAccount, BankTransactionModel transaction) {
 
         if (isCardPayment(transaction)) {
             // Is the card exist ?
             if (withdrawAccount.getCard() == null) {
-                throw new BankTransactionException(TransactionStatus.CARD_ERROR, transaction.getOperationId(), "Card not found");
+                return TransactionStatus.CARD_ERROR;
             }
             // Is the expiration date card's valid ?
             if (withdrawAccount.getCard().isExpired())
-                throw new BankTransactionException(TransactionStatus.VALIDITY_DATE_ERROR, transaction.getOperationId(), "Card expired");
+                return TransactionStatus.VALIDITY_DATE_ERROR;
         } else if (isCheckPayment(transaction)) {
             // Is the check exist ?
             if (transaction.getQrCheck() == null)
-                throw new BankTransactionException(TransactionStatus.CHECK_ERROR, transaction.getOperationId(), "Check not found");
+                return TransactionStatus.CHECK_ERROR;
             // Is the check expired ?
             if (transaction.getQrCheck().isExpired())
-                throw new BankTransactionException(TransactionStatus.VALIDITY_DATE_ERROR, transaction.getOperationId(), "Check expired");
+                return TransactionStatus.VALIDITY_DATE_ERROR;
+        } else if (transaction.getBankTransactionType() == BankTransactionType.SHOPPING) {
+            return TransactionStatus.MEANS_OF_PAYMENT_ERROR;
         }
+        return TransactionStatus.SUCCESS;
     }
 
     /**
@@ -215,17 +617,39 @@ public class BankTransactionManager {
      *
      * @param transaction Represents the transaction to be processed
      * @param account     Represents the account to be debited
-     * @throws BankTransactionException if the account is not valid
+     * @return SUCCESS, or the status of the account which is not valid
      */
-    private void checkAccount(Account account, BankTransactionModel transaction, @Nullable OperationType opType) throws BankTransactionException {
+    private TransactionStatus checkAccount(Account account, BankTransactionModel transaction, @Nullable OperationType opType) {
 
         if (account == null) {
-            throw new BankTransactionException(TransactionStatus.ACCOUNT_ERROR, transaction.getOperationId(), "Account not found");
+            return TransactionStatus.ACCOUNT_ERROR;
         }
 
-        if (opType == OperationType.WITHDRAW && isCheckPayment(transaction) && !account.getClient().getOrganisationName().equals(BankConstants.BANK_NAME)) {
-            throw new BankTransactionException(TransactionStatus.BANK_ERROR, transaction.getOperationId(), "Bank not found");
+        if (opType == OperationType.WITHDRAW && isCheckPayment(transaction) && !BankConstants.BANK_NAME.equals(account.getClient().getOrganisationName())) {
+            return TransactionStatus.BANK_ERROR;
         }
+        return TransactionStatus.SUCCESS;
+    }
+
+    /**
+     * Supply the result of a transaction of a batch, with the message of its status
+     *
+     * @param transaction The transaction, may be null
+     * @param status      The status of the transaction
+     * @return The result of the transaction
+     */
+    private TransactionResult resultOf(@Nullable BankTransactionModel transaction, TransactionStatus status) {
+        return new TransactionResult(status, transaction == null ? "" : transaction.getOperationId(), status.getMessage());
+    }
+
+    /**
+     * Supply the id of an account which may not be found
+     *
+     * @param account The account
+     * @return The id of the account, or null
+     */
+    private UUID getAccountId(@Nullable Account account) {
+        return account == null ? null : account.getId();
     }
 
     /**
@@ -248,6 +672,16 @@ public class BankTransactionManager {
         return transaction.getPaymentMethod() == PaymentMethod.CHECK;
     }
 
+    /**
+     * Check if a transaction debits its check: a shop payment by check
+     *
+     * @param transaction Represents the transaction to be processed
+     * @return true if the balance of the check of the transaction is debited
+     */
+    private boolean isQrCheckDebited(BankTransactionModel transaction) {
+        return transaction.getBankTransactionType() == BankTransactionType.SHOPPING && isCheckPayment(transaction);
+    }
+
     /**
      * Create a new operation
      *
@@ -264,38 +698,4 @@ public class BankTransactionManager {
                 transaction.getDate(), account, qrCheck, opStatus, opType, payMethod);
     }
 
-    /**
-     * Update the status of transaction like Pending, Close or Failed
-     *
-     * @param status    Represents the operation status
-     * @param operation Represents the operation to be updated
-     */
-    private boolean updateOperationStatus(OperationStatus status, Operation operation) {
-        operation.setOperationStatus(status);
-        return operationService.update(operation).isValid();
-    }
-
-    /**
-     * Cancel a pending operation when transaction failed
-     *
-     * @param transaction The transaction to be canceled
-     */
-    private void cancelPendingOperation(BankTransactionModel transaction) {
-        try {
-            List<UUID> accounts = new ArrayList<>();
-            accounts.add(transaction.getWithdrawalAccount().getId());
-            accounts.add(transaction.getDepositAccount().getId());
-            for (UUID accountId : accounts) {
-
-                if (operationService.isOperationPendingByOperationId(transaction.getOperationId(), accountId)) {
-                    Operation op = operationService.getByOperationId(transaction.getOperationId());
-                    op.setOperationStatus(OperationStatus.CANCELED);
-                    operationService.update(op);
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
 }
\ No newline at end of file
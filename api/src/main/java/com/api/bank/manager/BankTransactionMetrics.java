@@ -0,0 +1,114 @@
+package com.api.bank.manager;
+
+import com.api.bank.model.enums.PaymentMethod;
+import com.api.bank.model.enums.TransactionStatus;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * This class is responsible for the metrics of the bank transactions, published by Micrometer (/actuator/prometheus):
+ * <ul>
+ *     <li>bank.executor.queue.depth and bank.executor.queue.wait: the transactions waiting in each lane of the executor,
+ *     and the time they waited before their lane ran them</li>
+ *     <li>bank.transaction.stage: the time spent in each stage of a transaction in the lane</li>
+ *     <li>bank.transaction: the time of a transaction from its submission to its result, by type, payment method and status.
+ *     Its count is the number of transactions of each outcome</li>
+ * </ul>
+ * The timers publish histograms (see management.metrics.distribution in application.properties), so the percentiles are
+ * computed by Prometheus across the instances.
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class BankTransactionMetrics {
+    /**
+     * The stages of a transaction, timed in the lane
+     */
+    public enum Stage {
+        RESOLVE_ACCOUNTS, // Load the accounts, and the QR check, of the transaction
+        VALIDATE, // Checks of the transaction and of the balances
+        LEASE_ACCOUNTS, // Wait for the accounts leased by other transactions
+        UPDATE_BALANCES, // Balance updates of the accounts
+        UPDATE_QR_CHECK, // Balance update or creation of the QR check
+        WRITE_OPERATIONS, // Insert of the operations
+        LEDGER // Transaction applied in the ledger, written to the database later
+    }
+
+    private final MeterRegistry registry;
+
+    @Autowired
+    public BankTransactionMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Publish the number of transactions waiting in the queue of a lane
+     *
+     * @param lane  The index of the lane
+     * @param depth The size of the queue of the lane, read when the gauge is scraped
+     */
+    public void registerQueueDepth(int lane, Supplier<Number> depth) {
+        Gauge.builder("bank.executor.queue.depth", depth)
+                .description("Transactions waiting in the queue of a lane of the executor")
+                .tag("lane", String.valueOf(lane))
+                .register(registry);
+    }
+
+    /**
+     * Record the time a transaction waited in the queue of its lane
+     *
+     * @param lane  The index of the lane
+     * @param nanos The time between the submission of the transaction and its start by the lane, in nanoseconds
+     */
+    public void recordQueueWait(int lane, long nanos) {
+        Timer.builder("bank.executor.queue.wait")
+                .description("Time a transaction waits in the queue of its lane")
+                .tag("lane", String.valueOf(lane))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the time spent in a stage of a transaction, or of a batch of transactions
+     *
+     * @param stage The stage
+     * @param nanos The time spent in the stage, in nanoseconds
+     */
+    public void recordStage(Stage stage, long nanos) {
+        Timer.builder("bank.transaction.stage")
+                .description("Time spent in a stage of a transaction in its lane")
+                .tag("stage", tagOf(stage))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the time of a transaction from its submission to its result, and its outcome
+     *
+     * @param type          The type of the transaction (shopping, buy_check)
+     * @param paymentMethod The payment method of the transaction, may be null
+     * @param status        The status of the result, may be null if the transaction failed without result
+     * @param nanos         The time of the transaction, in nanoseconds
+     */
+    public void recordTransaction(String type, PaymentMethod paymentMethod, TransactionStatus status, long nanos) {
+        Timer.builder("bank.transaction")
+                .description("Time of a transaction from its submission to its result")
+                .tag("type", type)
+                .tag("payment_method", tagOf(paymentMethod))
+                .tag("status", tagOf(status == null ? TransactionStatus.FAILED : status))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private String tagOf(Enum<?> value) {
+        return value == null ? "none" : value.name().toLowerCase(Locale.ROOT);
+    }
+}
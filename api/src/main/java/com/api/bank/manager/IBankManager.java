@@ -6,6 +6,7 @@ import com.api.bank.model.transaction.ShoppingTransactionModel;
 import com.api.bank.model.transaction.TransactionResult;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 public interface IBankManager {
@@ -13,4 +14,7 @@ public interface IBankManager {
     TransactionResult shoppingTransaction(ShoppingTransactionModel shoppingTransaction);
     @Transactional()
     TransactionResult buyCheckTransaction(QrCheckTransactionModel transaction);
+
+    CompletableFuture<TransactionResult> shoppingTransactionAsync(ShoppingTransactionModel shoppingTransaction);
+    CompletableFuture<TransactionResult> buyCheckTransactionAsync(QrCheckTransactionModel transaction);
 }
@@ -0,0 +1,137 @@
+package com.api.bank.manager;
+
+import com.api.bank.model.entity.TransactionRecord;
+import com.api.bank.model.enums.TransactionStatus;
+import com.api.bank.model.transaction.TransactionResult;
+import com.api.bank.repository.TransactionRecordRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * This class is responsible for executing each bank transaction only once per operation id.
+ * The results are kept in the transaction_record table, with the most recent ones in a bounded cache in front of it.
+ * A retry of an operation gets its recorded result back, and a retry arriving while the operation is still running
+ * waits for the same result instead of running it a second time.
+ * Only the final results are recorded: a transaction which failed for a transient reason (pending operation,
+ * payment or unexpected error) runs again when retried.
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class IdempotencyStore {
+    private final TransactionRecordRepository transactionRecordRepository;
+    private final Cache<String, TransactionResult> recentResults;
+    private final ConcurrentHashMap<String, CompletableFuture<TransactionResult>> running = new ConcurrentHashMap<>();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    public IdempotencyStore(TransactionRecordRepository transactionRecordRepository,
+                            @Value("${bank.idempotency.cache-size}") long cacheSize) {
+        this.transactionRecordRepository = transactionRecordRepository;
+        this.recentResults = Caffeine.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /**
+     * Run a transaction, unless its operation was already run or is running
+     *
+     * @param operationId The id of the operation, the transaction is always run when it is empty
+     * @param transaction Runs the transaction, which must record its result before completing
+     * @return The result of the transaction, or the recorded result of the operation
+     */
+    public CompletableFuture<TransactionResult> execute(String operationId, Supplier<CompletableFuture<TransactionResult>> transaction) {
+        if (operationId == null || operationId.isBlank()) return transaction.get();
+
+        var result = recentResults.getIfPresent(operationId);
+        if (result != null) return CompletableFuture.completedFuture(result);
+
+        var future = new CompletableFuture<TransactionResult>();
+        var current = running.putIfAbsent(operationId, future);
+        if (current != null) return current;
+
+        try {
+            result = transactionRecordRepository.findByOperationId(operationId).map(TransactionRecord::toResult).orElse(null);
+        } catch (RuntimeException e) {
+            // The operation is run as if it was unknown, the unique index still refuses to record it twice
+            e.printStackTrace();
+        }
+        if (result != null) {
+            recentResults.put(operationId, result);
+            running.remove(operationId, future);
+            future.complete(result);
+            return future;
+        }
+
+        try {
+            transaction.get().whenComplete((value, e) -> {
+                running.remove(operationId, future);
+                if (e != null) future.completeExceptionally(e);
+                else future.complete(value);
+            });
+        } catch (RuntimeException e) {
+            running.remove(operationId, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Record the final results of transactions, in the database transaction which settled them.
+     * They are given to the retries once it is committed, and never recorded if it is rolled back.
+     *
+     * @param results The results to be recorded, keyed by their transaction id
+     */
+    @Transactional(rollbackFor = RuntimeException.class, propagation = Propagation.MANDATORY)
+    public void record(List<TransactionResult> results) {
+        boolean recorded = false;
+        for (TransactionResult result : results) {
+            if (!isFinal(result)) continue;
+
+            entityManager.persist(new TransactionRecord(result));
+            recorded = true;
+        }
+        if (!recorded) return;
+
+        entityManager.flush();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                for (TransactionResult result : results) {
+                    if (isFinal(result)) recentResults.put(result.getTransactionId(), result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Check if a result does not change when its transaction is run again
+     *
+     * @param result The result of the transaction
+     * @return true if the result can be given back to the retries
+     */
+    public boolean isFinal(TransactionResult result) {
+        if (result == null || result.getTransactionStatus() == null
+                || result.getTransactionId() == null || result.getTransactionId().isBlank()) return false;
+
+        return switch (result.getTransactionStatus()) {
+            case FAILED, PAYMENT_ERROR, OPERATION_PENDING_ERROR -> false;
+            default -> true;
+        };
+    }
+}
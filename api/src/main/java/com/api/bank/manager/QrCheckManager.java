@@ -6,7 +6,6 @@ import com.api.bank.model.exception.BankTransactionException;
 import com.api.bank.model.transaction.BankTransactionModel;
 import com.api.bank.model.transaction.QrCheckTransactionModel;
 import com.api.bank.model.transaction.TransactionResult;
-import com.api.bank.repository.CheckRepository;
 import com.api.bank.service.CheckService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
@@ -24,8 +23,8 @@ public class QrCheckManager implements IQrCheckManager {
     private final CheckService checkService;
 
     @Autowired
-    public QrCheckManager(CheckRepository qrCheckRepository) {
-        this.checkService = new CheckService(qrCheckRepository);
+    public QrCheckManager(CheckService checkService) {
+        this.checkService = checkService;
     }
 
     /**
@@ -47,19 +46,20 @@ public class QrCheckManager implements IQrCheckManager {
     /**
      * Method that checks if the token of the QrCheck is valid and exists
      * @param transaction  Transaction data
-     * @throws BankTransactionException if the token is not valid or does not exist
+     * @return SUCCESS, or the status of the token or of the amount which is not valid
      */
-    @Transactional(rollbackFor = {BankTransactionException.class, RuntimeException.class}, propagation = Propagation.REQUIRED)
-    public void controlAmountAndToken(QrCheckTransactionModel transaction) throws BankTransactionException {
-        if (transaction.getToken().isEmpty()) {
-            throw new BankTransactionException(TransactionStatus.TOKEN_EMPTY_ERROR, transaction.getOperationId(), "Token is empty");
+    @Transactional(rollbackFor = RuntimeException.class, propagation = Propagation.REQUIRED)
+    public TransactionStatus controlAmountAndToken(QrCheckTransactionModel transaction) {
+        if (transaction.getToken() == null || transaction.getToken().isEmpty()) {
+            return TransactionStatus.TOKEN_EMPTY_ERROR;
         }
         if (checkService.existsCheckByCheckToken(transaction.getToken())) {
-            throw new BankTransactionException(TransactionStatus.TOKEN_ERROR, transaction.getOperationId(), "Token is already used");
+            return TransactionStatus.TOKEN_ERROR;
         }
         if (transaction.getAmount() <= 0) {
-            throw new BankTransactionException(TransactionStatus.AMOUNT_ERROR, transaction.getOperationId(), "Amount is not valid");
+            return TransactionStatus.AMOUNT_ERROR;
         }
+        return TransactionStatus.SUCCESS;
     }
 
 
@@ -91,7 +91,7 @@ public class QrCheckManager implements IQrCheckManager {
     @Override
     @Transactional(rollbackFor = {BankTransactionException.class, Exception.class}, propagation = Propagation.REQUIRED)
     public void updateQrCheck(BankTransactionModel transaction) throws BankTransactionException {
-        transaction.getQrCheck().setSoldAmount(transaction.getQrCheck().getSoldAmount() - transaction.getAmount());
+        transaction.getQrCheck().setSoldAmount(transaction.getQrCheck().getSoldAmount().minus(transaction.getAmount()));
         if (!checkService.update(transaction.getQrCheck()).isValid()) {
             throw new BankTransactionException(TransactionStatus.CHECK_ERROR, transaction.getOperationId(), "QrCheck update failed");
         }
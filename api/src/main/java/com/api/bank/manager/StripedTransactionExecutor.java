@@ -0,0 +1,397 @@
+package com.api.bank.manager;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * This class is responsible for running the bank transactions on several single-threaded lanes.
+ * A transaction is routed to a lane by the hash of the account it withdraws from, so the transactions
+ * of an account keep their submission order while transactions on unrelated accounts run in parallel.
+ * Each account is also guarded by a lock stripe (same hash as the lanes): a transaction holds the stripes
+ * of every account it touches, taken in ascending order, so a deposit on an account routed to another lane
+ * never runs at the same time as that lane.
+ * Batchable tasks that follow each other in a lane queue are drained together and run as a single batch.
+ * The futures are completed once the stripes are released, and by the completion threads rather than by the lane:
+ * their dependent stages (replies to the TPE, metrics) never run while other lanes wait for the accounts, nor delay
+ * the next task of the lane.
+ * Whatever a task does itself runs under the stripes: the results recorded by the tasks of the BankManager are part of
+ * their database transaction, so they hold the stripes until it is committed.
+ * At shutdown, the tasks still queued are never run: their futures fail with a RejectedExecutionException.
+ * The depth of each queue and the time the tasks wait in it are published by the BankTransactionMetrics.
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class StripedTransactionExecutor {
+    private final Lane[] lanes; // One thread per lane, each with its own queue
+    private final ExecutorService completions; // Complete the futures, as many threads as lanes
+    private final ReentrantLock[] stripes;
+    private final int batchSize;
+    private final BankTransactionMetrics metrics;
+    private volatile boolean shutdown;
+
+    @Autowired
+    public StripedTransactionExecutor(@Value("${bank.executor.lanes}") int laneCount,
+                                      @Value("${bank.executor.batch-size}") int batchSize,
+                                      BankTransactionMetrics metrics) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("bank.executor.lanes must be at least 1");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("bank.executor.batch-size must be at least 1");
+        }
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+        lanes = new Lane[laneCount];
+        completions = Executors.newFixedThreadPool(laneCount, new CompletionThreadFactory());
+        stripes = new ReentrantLock[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            stripes[i] = new ReentrantLock();
+            lanes[i] = new Lane(i);
+            metrics.registerQueueDepth(i, lanes[i].queue::size);
+        }
+        for (Lane lane : lanes) {
+            lane.thread.start();
+        }
+    }
+
+    /**
+     * Add a task to the queue of the lane owning the first account.
+     * The task runs while holding the stripes of all the given accounts.
+     *
+     * @param task       The task to be executed
+     * @param accountIds The accounts touched by the task, the withdrawal account first. Unknown accounts may be null
+     * @return The future result of the task, completed by a completion thread after the stripes are released
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task, UUID... accountIds) {
+        var entry = new SingleTask<>(task, stripesOf(accountIds));
+        enqueue(lanes[laneOf(accountIds)], entry);
+        return entry.result;
+    }
+
+    /**
+     * Add an item to the queue of the lane owning the first account.
+     * When the lane reaches it, the item is drained with the items of the same batch task queued right after it
+     * (up to the batch size), and the batch task runs once for all of them, holding the stripes of all their accounts.
+     * The batch task must return one result per item, in the same order.
+     *
+     * @param item       The item to be processed
+     * @param batchTask  The task processing a batch of items. The same instance must be given for items to be grouped
+     * @param accountIds The accounts touched by the item, the withdrawal account first. Unknown accounts may be null
+     * @return The future result of the item, completed by a completion thread after the stripes are released
+     */
+    public <I, R> CompletableFuture<R> submitToBatch(I item, Function<List<I>, List<R>> batchTask, UUID... accountIds) {
+        var entry = new BatchTask<>(item, batchTask, stripesOf(accountIds));
+        enqueue(lanes[laneOf(accountIds)], entry);
+        return entry.result;
+    }
+
+    /**
+     * @return The number of lanes
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @return The number of transactions waiting in the queue of each lane
+     */
+    public List<Integer> getQueueDepths() {
+        List<Integer> depths = new ArrayList<>(lanes.length);
+        for (Lane lane : lanes) {
+            depths.add(lane.queue.size());
+        }
+        return depths;
+    }
+
+    /**
+     * Stop the lanes. The task running in a lane is interrupted, the tasks still queued are rejected by their lane.
+     * The futures already handed to the completion threads are still completed
+     */
+    @PreDestroy
+    public void shutdown() {
+        shutdown = true;
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+        completions.shutdown();
+    }
+
+    /**
+     * Add a task to the queue of a lane, or reject it if the executor is shut down
+     *
+     * @param lane  The lane of the task
+     * @param entry The task to be queued
+     */
+    private void enqueue(Lane lane, Task entry) {
+        lane.queue.add(entry);
+        // Shut down meanwhile: the lane may have rejected its queue before the task was added
+        if (shutdown && lane.queue.remove(entry)) {
+            reject(entry);
+        }
+    }
+
+    private void reject(Task entry) {
+        entry.future().completeExceptionally(new RejectedExecutionException("The bank transaction executor is shut down"));
+    }
+
+    /**
+     * Complete a future on a completion thread, or on the current thread once the executor is shut down
+     *
+     * @param future  The future to be completed
+     * @param value   The result of the task
+     * @param failure The exception thrown by the task, null if it succeeded
+     */
+    private <T> void complete(CompletableFuture<T> future, T value, Throwable failure) {
+        Runnable completion = () -> {
+            if (failure != null) future.completeExceptionally(failure);
+            else future.complete(value);
+        };
+        try {
+            completions.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    private <T> void complete(SingleTask<T> task) {
+        complete(task.result, task.value, task.failure);
+    }
+
+    /**
+     * Supply the lane of a task, which is the stripe of its first known account
+     *
+     * @param accountIds The accounts touched by the task
+     * @return The lane index
+     */
+    private int laneOf(UUID... accountIds) {
+        for (UUID accountId : accountIds) {
+            if (accountId != null) {
+                return stripeOf(accountId);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Supply the sorted stripes of the known accounts, without duplicates
+     *
+     * @param accountIds The accounts touched by the task
+     * @return The stripes indexes in ascending order
+     */
+    private TreeSet<Integer> stripesOf(UUID... accountIds) {
+        var result = new TreeSet<Integer>();
+        for (UUID accountId : accountIds) {
+            if (accountId != null) {
+                result.add(stripeOf(accountId));
+            }
+        }
+        return result;
+    }
+
+    private int stripeOf(UUID accountId) {
+        int hash = Objects.hashCode(accountId);
+        return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+    }
+
+    /**
+     * Run an action while holding the given stripes
+     *
+     * @param lockedStripes The stripes to hold, in ascending order
+     * @param action        The action to be run
+     */
+    private void runLocked(TreeSet<Integer> lockedStripes, Runnable action) {
+        for (int stripe : lockedStripes) {
+            stripes[stripe].lock();
+        }
+        try {
+            action.run();
+        } finally {
+            for (int stripe : lockedStripes.descendingSet()) {
+                stripes[stripe].unlock();
+            }
+        }
+    }
+
+    /**
+     * A lane: a queue and the single thread consuming it in order
+     */
+    private final class Lane implements Runnable {
+        private final BlockingDeque<Task> queue = new LinkedBlockingDeque<>();
+        private final int index;
+        private final Thread thread;
+
+        private Lane(int index) {
+            this.index = index;
+            thread = new Thread(this, "bank-lane-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            // A task interrupted by the shutdown may clear the interrupted flag, the shutdown flag is checked too
+            while (!shutdown && !Thread.currentThread().isInterrupted()) {
+                try {
+                    Task first = queue.take();
+                    metrics.recordQueueWait(index, System.nanoTime() - first.queuedAt);
+                    if (first instanceof BatchTask<?, ?> batchTask) {
+                        runBatch(drainBatch(batchTask));
+                    } else if (first instanceof SingleTask<?> singleTask) {
+                        runLocked(singleTask.stripes, singleTask::run);
+                        complete(singleTask);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            // The callers of the tasks left are given an error instead of waiting forever
+            Task pending;
+            while ((pending = queue.poll()) != null) {
+                reject(pending);
+            }
+        }
+
+        /**
+         * Drain the items of the same batch task queued right after the first one.
+         * Besides this thread, only a task submitted during the shutdown is removed from the queue (by its submitter),
+         * so a peeked entry is removed by identity.
+         *
+         * @param first The first item of the batch
+         * @return The items of the batch, in queue order
+         */
+        @SuppressWarnings("unchecked")
+        private <I, R> List<BatchTask<I, R>> drainBatch(BatchTask<I, R> first) {
+            List<BatchTask<I, R>> batch = new ArrayList<>();
+            batch.add(first);
+            while (batch.size() < batchSize
+                    && queue.peek() instanceof BatchTask<?, ?> next
+                    && (Object) next.batchTask == first.batchTask
+                    && queue.remove(next)) {
+                var entry = (BatchTask<I, R>) next;
+                metrics.recordQueueWait(index, System.nanoTime() - entry.queuedAt);
+                batch.add(entry);
+            }
+            return batch;
+        }
+
+        private <I, R> void runBatch(List<BatchTask<I, R>> batch) {
+            var lockedStripes = new TreeSet<Integer>();
+            List<I> items = new ArrayList<>(batch.size());
+            for (BatchTask<I, R> entry : batch) {
+                lockedStripes.addAll(entry.stripes);
+                items.add(entry.item);
+            }
+            List<List<R>> results = new ArrayList<>(1);
+            Throwable[] failure = new Throwable[1];
+            runLocked(lockedStripes, () -> {
+                try {
+                    var applied = batch.get(0).batchTask.apply(items);
+                    if (applied.size() != batch.size()) {
+                        throw new IllegalStateException("The batch task returned " + applied.size() + " results for " + batch.size() + " items");
+                    }
+                    results.add(applied);
+                } catch (Throwable ex) {
+                    failure[0] = ex;
+                }
+            });
+
+            for (int i = 0; i < batch.size(); i++) {
+                complete(batch.get(i).result, failure[0] != null ? null : results.get(0).get(i), failure[0]);
+            }
+        }
+    }
+
+    /**
+     * The threads completing the futures, numbered like the lanes
+     */
+    private static final class CompletionThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            var thread = new Thread(runnable, "bank-completion-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * An entry of a lane queue
+     */
+    private abstract static class Task {
+        final TreeSet<Integer> stripes;
+        final long queuedAt = System.nanoTime();
+
+        Task(TreeSet<Integer> stripes) {
+            this.stripes = stripes;
+        }
+
+        abstract CompletableFuture<?> future();
+    }
+
+    private static final class SingleTask<T> extends Task {
+        final Callable<T> callable;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        private T value;
+        private Throwable failure;
+
+        SingleTask(Callable<T> callable, TreeSet<Integer> stripes) {
+            super(stripes);
+            this.callable = callable;
+        }
+
+        /**
+         * Run the task, its outcome is kept until the stripes are released
+         */
+        void run() {
+            try {
+                value = callable.call();
+            } catch (Throwable ex) {
+                failure = ex;
+            }
+        }
+
+        @Override
+        CompletableFuture<?> future() {
+            return result;
+        }
+    }
+
+    private static final class BatchTask<I, R> extends Task {
+        final I item;
+        final Function<List<I>, List<R>> batchTask;
+        final CompletableFuture<R> result = new CompletableFuture<>();
+
+        BatchTask(I item, Function<List<I>, List<R>> batchTask, TreeSet<Integer> stripes) {
+            super(stripes);
+            this.item = item;
+            this.batchTask = batchTask;
+        }
+
+        @Override
+        CompletableFuture<?> future() {
+            return result;
+        }
+    }
+}
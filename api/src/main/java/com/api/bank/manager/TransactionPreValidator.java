@@ -0,0 +1,115 @@
+package com.api.bank.manager;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.enums.PaymentMethod;
+import com.api.bank.model.enums.TransactionStatus;
+import com.api.bank.model.transaction.QrCheckTransactionModel;
+import com.api.bank.model.transaction.ShoppingTransactionModel;
+import com.api.bank.service.CardService;
+import com.api.bank.service.CheckService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * This class is responsible for declining the invalid transactions before they are queued in a lane.
+ * It runs the checks which do not depend on the balances (amount, means of payment, card and check validity,
+ * accounts found) on the caller thread, so the lanes only settle the transactions which can be accepted.
+ * The lanes check them again on the loaded entities, since a card or a check may expire in between.
+ */
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class TransactionPreValidator {
+    private final CardService cardService;
+    private final CheckService checkService;
+
+    @Autowired
+    public TransactionPreValidator(CardService cardService, CheckService checkService) {
+        this.cardService = cardService;
+        this.checkService = checkService;
+    }
+
+    /**
+     * Check a shop transaction, in the order the lane would decline it
+     *
+     * @param transaction The transaction to be checked
+     * @param accountIds  The withdrawal account id followed by the deposit account id, as resolved for the routing
+     * @return SUCCESS, or the status the transaction would be declined with whatever the balances
+     */
+    public TransactionStatus validate(ShoppingTransactionModel transaction, UUID[] accountIds) {
+        if (transaction == null) {
+            return TransactionStatus.EMPTY_TRANSACTION_ERROR;
+        }
+
+        if (transaction.getPaymentMethod() == PaymentMethod.CARD) {
+            if (isBlank(transaction.getMeansOfPaymentId()))
+                return TransactionStatus.CARD_ERROR;
+        } else if (transaction.getPaymentMethod() != PaymentMethod.CHECK) {
+            return TransactionStatus.MEANS_OF_PAYMENT_ERROR;
+        }
+
+        if (!isPositive(transaction.getAmount()))
+            return TransactionStatus.AMOUNT_ERROR;
+        if (accountIds[0] == null)
+            return TransactionStatus.ACCOUNT_ERROR;
+
+        if (transaction.getPaymentMethod() == PaymentMethod.CARD) {
+            var card = cardService.getCardByCardId(transaction.getMeansOfPaymentId());
+            if (card == null)
+                return TransactionStatus.CARD_ERROR;
+            if (card.isExpired())
+                return TransactionStatus.VALIDITY_DATE_ERROR;
+        } else {
+            var qrCheck = checkService.getCheckByCheckToken(transaction.getMeansOfPaymentId());
+            if (qrCheck == null)
+                return TransactionStatus.CHECK_ERROR;
+            if (qrCheck.isExpired())
+                return TransactionStatus.VALIDITY_DATE_ERROR;
+        }
+
+        if (accountIds[1] == null)
+            return TransactionStatus.ACCOUNT_ERROR;
+        return TransactionStatus.SUCCESS;
+    }
+
+    /**
+     * Check a QR Check purchase, in the order the lane would decline it
+     *
+     * @param transaction The transaction to be checked
+     * @param accountIds  The withdrawal account id followed by the bank account id, as resolved for the routing
+     * @return SUCCESS, or the status the transaction would be declined with whatever the balances
+     */
+    public TransactionStatus validate(QrCheckTransactionModel transaction, UUID[] accountIds) {
+        if (transaction == null) {
+            return TransactionStatus.EMPTY_TRANSACTION_ERROR;
+        }
+
+        if (isBlank(transaction.getToken()))
+            return TransactionStatus.TOKEN_EMPTY_ERROR;
+        if (checkService.existsCheckByCheckToken(transaction.getToken()))
+            return TransactionStatus.TOKEN_ERROR;
+        if (!isPositive(transaction.getAmount()))
+            return TransactionStatus.AMOUNT_ERROR;
+        if (accountIds[0] == null || accountIds[1] == null)
+            return TransactionStatus.ACCOUNT_ERROR;
+        return TransactionStatus.SUCCESS;
+    }
+
+    /**
+     * Check if an amount is a positive number of cents which the bank can hold
+     *
+     * @param amount The amount of the transaction
+     * @return false if the amount is not positive once rounded to the cent, not a number or too large
+     */
+    private boolean isPositive(double amount) {
+        var money = Money.tryOf(amount);
+        return money != null && money.isPositive();
+    }
+
+    private boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
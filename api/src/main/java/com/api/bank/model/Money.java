@@ -0,0 +1,125 @@
+package com.api.bank.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An amount of money, held as a whole number of minor units (cents) so that the balances never drift with rounding.
+ * The decimal amounts coming from the clients are rounded half even to the cent once, when they enter the bank,
+ * and the amounts are written back as decimals in JSON.
+ * The static methods work on the minor units directly, for the code which keeps them in primitive longs.
+ */
+public final class Money implements Comparable<Money>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int SCALE = 2;
+    public static final long MINOR_UNITS_PER_MAJOR = 100;
+    public static final Money ZERO = new Money(0);
+
+    private final long minorUnits;
+
+    private Money(long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+
+    public static Money ofMinorUnits(long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits);
+    }
+
+    /**
+     * Supply the money of a decimal amount
+     *
+     * @param amount The amount in major units, rounded half even to the cent
+     * @return The money
+     */
+    public static Money of(double amount) {
+        return of(BigDecimal.valueOf(amount));
+    }
+
+    /**
+     * Supply the money of a decimal amount coming from a client, without throwing
+     *
+     * @param amount The amount in major units, rounded half even to the cent
+     * @return The money, or null if the amount is not a number or does not fit in the minor units
+     */
+    public static Money tryOf(double amount) {
+        if (!Double.isFinite(amount)) return null;
+        try {
+            return of(amount);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    @JsonCreator
+    public static Money of(BigDecimal amount) {
+        return ofMinorUnits(amount.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact());
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    @JsonValue
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    public double toDouble() {
+        return (double) minorUnits / MINOR_UNITS_PER_MAJOR;
+    }
+
+    public Money plus(Money other) {
+        return ofMinorUnits(Math.addExact(minorUnits, other.minorUnits));
+    }
+
+    public Money minus(Money other) {
+        return ofMinorUnits(Math.subtractExact(minorUnits, other.minorUnits));
+    }
+
+    public boolean isPositive() {
+        return isPositive(minorUnits);
+    }
+
+    /**
+     * Check if this balance is enough to pay an amount
+     *
+     * @param amount The amount to be paid
+     * @return true if the balance is greater than or equal to the amount
+     */
+    public boolean covers(Money amount) {
+        return covers(minorUnits, amount.minorUnits);
+    }
+
+    public static boolean isPositive(long minorUnits) {
+        return minorUnits > 0;
+    }
+
+    public static boolean covers(long balance, long amount) {
+        return balance >= amount;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Money money && money.minorUnits == minorUnits;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minorUnits);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
@@ -0,0 +1,82 @@
+package com.api.bank.model;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * This class is responsible for generating the ids of the entities as version 7 UUIDs: the first 48 bits are the
+ * creation time in milliseconds, the other bits are random. Stored as BINARY(16), the ids of the rows created one
+ * after the other are next to each other in the primary key and the indexes, instead of at random positions.
+ */
+public final class TimeOrderedUUID {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private TimeOrderedUUID() {
+    }
+
+    /**
+     * Supply a new id
+     *
+     * @return A version 7 UUID of the current time
+     */
+    public static UUID randomUUID() {
+        return randomUUID(System.currentTimeMillis());
+    }
+
+    /**
+     * Supply a new id for a given time
+     *
+     * @param epochMillis The time of the id, in milliseconds since the epoch
+     * @return A version 7 UUID of this time
+     */
+    public static UUID randomUUID(long epochMillis) {
+        var random = new byte[10];
+        RANDOM.nextBytes(random);
+
+        // 48 bits of time, the version (7) and 12 random bits
+        long mostSigBits = (epochMillis << 16) | 0x7000L | ((random[0] & 0x0FL) << 8) | (random[1] & 0xFFL);
+        // The variant (2) and 62 random bits
+        long leastSigBits = 0;
+        for (int i = 2; i < 10; i++) {
+            leastSigBits = (leastSigBits << 8) | (random[i] & 0xFFL);
+        }
+        leastSigBits = (leastSigBits & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    /**
+     * Supply the 16 bytes of an id, as they are stored in a BINARY(16) column
+     *
+     * @param id The id
+     * @return The bytes of the id, most significant first
+     */
+    public static byte[] toBytes(UUID id) {
+        return ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array();
+    }
+
+    /**
+     * Supply the id stored in a BINARY(16) column
+     *
+     * @param bytes The 16 bytes of the id, most significant first, may be null
+     * @return The id, or null
+     */
+    public static UUID fromBytes(byte[] bytes) {
+        if (bytes == null) return null;
+        var buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Compare two ids in the order of their BINARY(16) column (unsigned bytes), which is not the order of UUID.compareTo
+     *
+     * @param first  An id
+     * @param second An other id
+     * @return A negative number, zero or a positive number if the first id is before, equal to or after the second one
+     */
+    public static int compare(UUID first, UUID second) {
+        int compared = Long.compareUnsigned(first.getMostSignificantBits(), second.getMostSignificantBits());
+        return compared != 0 ? compared : Long.compareUnsigned(first.getLeastSignificantBits(), second.getLeastSignificantBits());
+    }
+}
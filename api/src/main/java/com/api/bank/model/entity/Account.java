@@ -1,6 +1,9 @@
 package com.api.bank.model.entity;
 
 
+import com.api.bank.model.Money;
+import com.api.bank.model.MoneyConverter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -13,17 +16,23 @@ import java.util.UUID;
 @Setter
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
 public class Account extends Base {
-    private double sold;
+    @Column(nullable = false)
+    @Convert(converter = MoneyConverter.class)
+    private Money sold = Money.ZERO;
 
-    @OneToMany(mappedBy = "account", cascade=CascadeType.ALL)
+    // Read by pages from /bank/account/{id}/operations, never serialized with the account.
+    // Only the removal cascades: the history of an account is deleted with it
+    @JsonIgnore
+    @OneToMany(mappedBy = "account", cascade = CascadeType.REMOVE)
     private List<Operation> operations;
 
-    @OneToOne(cascade=CascadeType.ALL, orphanRemoval = true)
+    // Lazy: the repository finders say which of them they fetch with the account (entity graphs)
+    @OneToOne(fetch = FetchType.LAZY, cascade=CascadeType.ALL, orphanRemoval = true)
     @JoinColumn(name = "client_id")
     //@Embedded()
     private Client client;
 
-    @OneToOne(cascade = CascadeType.ALL, orphanRemoval = true)
+    @OneToOne(fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
     @JoinColumn(name = "card_id")
     private Card card;
 
@@ -34,29 +43,29 @@ public class Account extends Base {
     public Account(double sold, Client client) {
         super();
         this.client = client;
-        this.sold = sold;
+        this.sold = Money.of(sold);
 
     }
     public Account(UUID id, double sold, Client client, Card card) {
         super(id);
         this.client = client;
-        this.sold = sold;
+        this.sold = Money.of(sold);
         this.card = card;
     }
     public Account(UUID id, double sold, Client client) {
         super(id);
         this.client = client;
-        this.sold = sold;
+        this.sold = Money.of(sold);
     }
     public Account(double sold, Client client, Card card) {
         super();
         this.client = client;
-        this.sold = sold;
+        this.sold = Money.of(sold);
         this.card = card;
 
     }
 
-    public boolean isEnoughMoney(double amount) {
-        return sold >= amount;
+    public boolean isEnoughMoney(Money amount) {
+        return sold.covers(amount);
     }
 }
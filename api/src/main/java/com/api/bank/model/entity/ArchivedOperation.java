@@ -0,0 +1,59 @@
+package com.api.bank.model.entity;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.MoneyConverter;
+import com.api.bank.model.enums.OperationStatus;
+import com.api.bank.model.enums.OperationType;
+import com.api.bank.model.enums.PaymentMethod;
+import lombok.Getter;
+import org.hibernate.annotations.Immutable;
+import org.hibernate.annotations.Type;
+
+import javax.persistence.*;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * An operation moved to the archive (see OperationArchiveService). Read only: the archive is only written
+ * by the archiving, which copies the rows of the operation table.
+ */
+@Entity
+@Getter
+@Immutable
+@Table(name = "operation_archive")
+public class ArchivedOperation extends Base {
+
+    @Column(nullable = false, length = 36)
+    private String operationId;
+
+    @Column(nullable = true, length = 255)
+    private String label;
+
+    @Column(nullable = false)
+    @Convert(converter = MoneyConverter.class)
+    private Money amount;
+
+    private Date operationDate;
+
+    // The ids only: the check and the account of an archived operation may have been deleted since
+    @Column(name = "qr_check_id", length = 16, columnDefinition = "BINARY(16)")
+    @Type(type = "uuid-binary")
+    private UUID qrCheckId;
+
+    @Column(name = "account_id", length = 16, columnDefinition = "BINARY(16)")
+    @Type(type = "uuid-binary")
+    private UUID accountId;
+
+    @Enumerated(EnumType.STRING)
+    private OperationStatus operationStatus;
+
+    @Enumerated(EnumType.STRING)
+    private OperationType operationType;
+
+    @Enumerated(EnumType.STRING)
+    private PaymentMethod paymentMethod;
+
+    protected ArchivedOperation() {
+        super();
+    }
+}
@@ -1,5 +1,6 @@
 package com.api.bank.model.entity;
 
+import com.api.bank.model.TimeOrderedUUID;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
@@ -16,9 +17,10 @@ import java.util.UUID;
 @MappedSuperclass
 public abstract class Base {
 
+    // 16 bytes, time ordered: the rows are appended at the end of the primary key (see TimeOrderedUUID)
     @Id()
-    @Column(name = "id", length = 36, columnDefinition = "VARCHAR(36)")
-    @Type(type = "uuid-char")
+    @Column(name = "id", length = 16, columnDefinition = "BINARY(16)")
+    @Type(type = "uuid-binary")
     private UUID id;
 
     @CreatedDate
@@ -41,7 +43,7 @@ public abstract class Base {
             createdAt = Instant.now();
         }
         if (id == null) {
-            id = UUID.randomUUID();
+            id = TimeOrderedUUID.randomUUID();
         }
     }
 }
@@ -22,6 +22,10 @@ public class Card extends Base {
 
     private Date expirationDate;
 
+    // Marked by the InstrumentExpiryService once the expiration date is passed
+    @Column(nullable = false)
+    private boolean expired;
+
     public Card() {
         super();
         init();
@@ -43,11 +47,16 @@ public class Card extends Base {
             this.cardId = UUID.randomUUID().toString();
         }
         if (this.expirationDate == null) {
-            this.expirationDate = setDefaultExpirationDate();
+            this.expirationDate = getDefaultExpirationDate();
         }
     }
 
-    private Date setDefaultExpirationDate() {
+    /**
+     * Supply the expiration date of a card created now without one
+     *
+     * @return The expiration date
+     */
+    public static Date getDefaultExpirationDate() {
         Date dt = new Date();
         Calendar c = Calendar.getInstance();
         c.setTime(dt);
@@ -55,7 +64,23 @@ public class Card extends Base {
         return c.getTime();
     }
 
+    /**
+     * Set the expiration date of the card. The mark of an expired card is cleared, it is marked again by
+     * the InstrumentExpiryService if the new date is passed.
+     *
+     * @param expirationDate The expiration date
+     */
+    public void setExpirationDate(Date expirationDate) {
+        this.expirationDate = expirationDate;
+        this.expired = false;
+    }
+
+    /**
+     * Check if the card is expired, by its mark or by its expiration date, without allocation
+     *
+     * @return true if the card cannot be used anymore
+     */
     public boolean isExpired() {
-        return expirationDate.before(new Date());
+        return expired || expirationDate.getTime() < System.currentTimeMillis();
     }
 }
@@ -23,11 +23,8 @@ public class Client extends Base {
     @Column( length=100)
     private String lastname;
 
-   @OneToOne(mappedBy = "client", orphanRemoval = true)
-//    @Transient
-    private Account account;
-
-
+    // No inverse side to Account.client: a mappedBy one-to-one is always loaded with its owner, so the account
+    // of a client is queried from the account side
 
     public Client(UUID id, String firstname, String lastname, SocialReasonStatus socialReasonStatus) {
         super(id);
@@ -0,0 +1,25 @@
+package com.api.bank.model.entity;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import java.util.UUID;
+
+/**
+ * The last ledger journal sequence written in the database. There is a single checkpoint, with a fixed id.
+ */
+@Entity
+@Getter
+@Setter
+public class LedgerCheckpoint extends Base {
+    public static final UUID LEDGER_CHECKPOINT_ID = UUID.fromString("6f1c2b7e-3a59-4d0e-9c4f-0b8e1d2a7c35");
+
+    @Column(nullable = false)
+    private long sequence;
+
+    public LedgerCheckpoint() {
+        super(LEDGER_CHECKPOINT_ID);
+    }
+}
@@ -1,5 +1,7 @@
 package com.api.bank.model.entity;
 
+import com.api.bank.model.Money;
+import com.api.bank.model.MoneyConverter;
 import com.api.bank.model.enums.OperationStatus;
 import com.api.bank.model.enums.OperationType;
 import com.api.bank.model.enums.PaymentMethod;
@@ -13,6 +15,8 @@ import java.util.Date;
 @Getter
 @Setter
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
+// Account statements are read by keyset pagination on it, most recent first
+@Table(indexes = @Index(name = "idx_operation_account_date_id", columnList = "account_id, operationDate, id"))
 public class Operation extends Base {
 
     @Column(nullable = false, length = 36)
@@ -22,14 +26,16 @@ public class Operation extends Base {
     private String label;
 
     @Column(nullable = false)
-    private double amount;
+    @Convert(converter = MoneyConverter.class)
+    private Money amount;
 
     private Date operationDate;
 
-    @ManyToOne(cascade = CascadeType.ALL )
+    // Written by reference: an operation never loads nor merges its check and its account
+    @ManyToOne(fetch = FetchType.LAZY)
     private QrCheck qrCheck;
 
-    @ManyToOne(cascade = CascadeType.ALL)
+    @ManyToOne(fetch = FetchType.LAZY)
     private Account account;
 
     @Enumerated(EnumType.STRING)
@@ -49,7 +55,7 @@ public class Operation extends Base {
     }
 
     public Operation(String operationId,
-                     String label, double amount,
+                     String label, Money amount,
                      Date operationDate,
                      Account account, QrCheck qrCheck, OperationStatus operationStatus,
                      OperationType operationType, PaymentMethod paymentMethod) {
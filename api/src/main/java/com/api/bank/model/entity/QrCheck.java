@@ -1,9 +1,14 @@
 package com.api.bank.model.entity;
 
+import com.api.bank.model.Money;
+import com.api.bank.model.MoneyConverter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
 import javax.persistence.*;
+import java.time.temporal.ChronoUnit;
 import java.util.Date;
 import java.util.List;
 
@@ -15,12 +20,26 @@ public class QrCheck extends Base {
 
     @Column(nullable = false, unique = true)
     private String checkToken;
-    private double soldAmount;
+    @Column(nullable = false)
+    @Convert(converter = MoneyConverter.class)
+    private Money soldAmount = Money.ZERO;
 
     @Column(nullable = false)
+    @Setter(AccessLevel.NONE)
     private int nbDayOfValidity;
 
-    @OneToMany(mappedBy = "qrCheck", cascade= CascadeType.ALL)
+    // Stored at the creation of the check, from its number of days of validity
+    @Column(nullable = false)
+    @Setter(AccessLevel.NONE)
+    private Date expirationDate;
+
+    // Marked by the InstrumentExpiryService once the expiration date is passed
+    @Column(nullable = false)
+    private boolean expired;
+
+    // Only the removal cascades: the payments of a check are deleted with it
+    @JsonIgnore
+    @OneToMany(mappedBy = "qrCheck", cascade = CascadeType.REMOVE)
     private List<Operation> operations;
 
     public QrCheck() {
@@ -30,34 +49,44 @@ public class QrCheck extends Base {
 
     public QrCheck(double amount, String token) {
         super();
-        this.soldAmount = amount;
+        this.soldAmount = Money.of(amount);
         this.checkToken = token;
         init();
     }
 
     public QrCheck(double i, String token, String applicantAccountId) {
         super();
-        this.soldAmount = i;
+        this.soldAmount = Money.of(i);
         this.checkToken = token;
         init();
     }
 
     private void init() {
         if (nbDayOfValidity == 0) {
-            nbDayOfValidity = 365;
+            setNbDayOfValidity(365);
         }
     }
 
-    public Date getExpirationDate() {
-        Date expirationDate = new Date();
-        expirationDate.setTime(expirationDate.getTime() + (long) nbDayOfValidity * 24 * 60 * 60 * 1000);
-        return expirationDate;
+    /**
+     * Set the number of days of validity, and the expiration date of the check from its creation date
+     *
+     * @param nbDayOfValidity The number of days the check can be used
+     */
+    public void setNbDayOfValidity(int nbDayOfValidity) {
+        this.nbDayOfValidity = nbDayOfValidity;
+        this.expirationDate = Date.from(getCreatedAt().plus(nbDayOfValidity, ChronoUnit.DAYS));
+        this.expired = false;
     }
 
+    /**
+     * Check if the check is expired, by its mark or by its expiration date, without allocation
+     *
+     * @return true if the check cannot be used anymore
+     */
     public boolean isExpired() {
-        return getExpirationDate().before(new Date());
+        return expired || expirationDate.getTime() < System.currentTimeMillis();
     }
-    public boolean isEnoughMoney(double amount) {
-        return soldAmount >= amount;
+    public boolean isEnoughMoney(Money amount) {
+        return soldAmount.covers(amount);
     }
 }
@@ -0,0 +1,41 @@
+package com.api.bank.model.entity;
+
+import com.api.bank.model.enums.TransactionStatus;
+import com.api.bank.model.transaction.TransactionResult;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.*;
+
+/**
+ * The result of a transaction, kept to answer the retries of the same operation without executing it again
+ */
+@Entity
+@Getter
+@Setter
+@Table(indexes = @Index(name = "idx_transaction_record_operation_id", columnList = "operationId", unique = true))
+public class TransactionRecord extends Base {
+
+    @Column(nullable = false, length = 36)
+    private String operationId;
+
+    @Enumerated(EnumType.STRING)
+    private TransactionStatus transactionStatus;
+
+    private String message;
+
+    public TransactionRecord() {
+        super();
+    }
+
+    public TransactionRecord(TransactionResult result) {
+        super();
+        this.operationId = result.getTransactionId();
+        this.transactionStatus = result.getTransactionStatus();
+        this.message = result.getMessage();
+    }
+
+    public TransactionResult toResult() {
+        return new TransactionResult(transactionStatus, operationId, message);
+    }
+}
@@ -0,0 +1,47 @@
+package com.api.bank.model.enums;
+
+/**
+ * The formats of the bulk imports of accounts
+ */
+public enum ImportFormat {
+    // A header line naming the columns, then one account per line
+    CSV("text/csv", ".csv"),
+    // One JSON object per line
+    NDJSON("application/x-ndjson", ".ndjson");
+
+    private final String mediaType;
+    private final String extension;
+
+    ImportFormat(String mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @param contentType The content type of a request
+     * @return The format of this content type
+     * @throws IllegalArgumentException If the content type is not an import format
+     */
+    public static ImportFormat fromContentType(String contentType) {
+        for (var format : values()) {
+            if (contentType != null && contentType.toLowerCase().startsWith(format.mediaType)) return format;
+        }
+        throw new IllegalArgumentException("Unsupported import format: " + contentType);
+    }
+
+    /**
+     * @param fileName The name of a file
+     * @return The format of the file, from its extension
+     * @throws IllegalArgumentException If the extension is not an import format
+     */
+    public static ImportFormat fromFileName(String fileName) {
+        for (var format : values()) {
+            if (fileName.toLowerCase().endsWith(format.extension)) return format;
+        }
+        throw new IllegalArgumentException("Unsupported import file: " + fileName);
+    }
+}
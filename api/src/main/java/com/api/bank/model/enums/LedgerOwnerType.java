@@ -0,0 +1,9 @@
+package com.api.bank.model.enums;
+
+/**
+ * What holds a balance reconciled with its operations
+ */
+public enum LedgerOwnerType {
+    ACCOUNT,
+    QR_CHECK,
+}
@@ -1,19 +1,33 @@
 package com.api.bank.model.enums;
 
 public enum TransactionStatus {
-    SUCCESS,
-    FAILED,
-    PAYMENT_ERROR,
-    MEANS_OF_PAYMENT_ERROR,
-    CARD_ERROR,
-    VALIDITY_DATE_ERROR,
-    CHECK_ERROR,
-    TOKEN_EMPTY_ERROR,
-    TOKEN_ERROR,
-    BANK_ERROR,
-    INSUFFICIENT_FUNDS_ERROR,
-    OPERATION_PENDING_ERROR,
-    OPERATION_CLOSING_ERROR,
-    ACCOUNT_ERROR,
-    EMPTY_TRANSACTION_ERROR, AMOUNT_ERROR,
+    SUCCESS("Payment has been validated"),
+    FAILED("Payment has been failed"),
+    PAYMENT_ERROR("Payment error was occurred"),
+    MEANS_OF_PAYMENT_ERROR("Means of Payment error was occurred"),
+    CARD_ERROR("Card not found"),
+    VALIDITY_DATE_ERROR("Means of payment expired"),
+    CHECK_ERROR("Check not found"),
+    TOKEN_EMPTY_ERROR("Token error"),
+    TOKEN_ERROR("Token error"),
+    BANK_ERROR("Bank not found"),
+    INSUFFICIENT_FUNDS_ERROR("Account's insufficient funds"),
+    OPERATION_PENDING_ERROR("Operation is already pending"),
+    OPERATION_CLOSING_ERROR("Operation is already closed"),
+    ACCOUNT_ERROR("Account not found"),
+    EMPTY_TRANSACTION_ERROR("Empty transaction error"), AMOUNT_ERROR("Amount is not valid"),
+    ;
+
+    private final String message;
+
+    TransactionStatus(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return The message given to the client with a result of this status
+     */
+    public String getMessage() {
+        return message;
+    }
 }
@@ -0,0 +1,19 @@
+package com.api.bank.model.projection;
+
+import com.api.bank.model.Money;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * An account as read by the account endpoints: its balance, the ids of its client and its card, without its operations
+ */
+public record AccountView(UUID id,
+                          Money sold,
+                          UUID clientId,
+                          String cardId,
+                          Date cardExpirationDate,
+                          Instant createdAt,
+                          Instant modifiedAt) {
+}
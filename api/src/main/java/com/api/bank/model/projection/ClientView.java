@@ -0,0 +1,18 @@
+package com.api.bank.model.projection;
+
+import com.api.bank.model.enums.SocialReasonStatus;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A client as read by the client endpoints, with the id of its account instead of the account
+ */
+public record ClientView(UUID id,
+                         SocialReasonStatus socialReason,
+                         String organisationName,
+                         String firstname,
+                         String lastname,
+                         UUID accountId,
+                         Instant createdAt) {
+}
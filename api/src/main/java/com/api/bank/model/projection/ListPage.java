@@ -0,0 +1,26 @@
+package com.api.bank.model.projection;
+
+import org.springframework.data.domain.Slice;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * A page of a list of the admin endpoints. The next page is asked either by its number (?page=), or by the id
+ * of the last element of this page (?after=next), which reads it by keyset pagination whatever its position.
+ * The pages read by ?after= are in the order of the ids (the order of creation): the first one is read with ?sort=id.
+ */
+public record ListPage<V>(List<V> items, boolean hasNext, UUID next) {
+
+    /**
+     * @param slice The elements of the page, read with one more to know if there is a next page
+     * @param idOf  The id of an element
+     * @return The page, with the id of its last element when there is a next page
+     */
+    public static <V> ListPage<V> of(Slice<V> slice, Function<V, UUID> idOf) {
+        var items = slice.getContent();
+        var next = slice.hasNext() && !items.isEmpty() ? idOf.apply(items.get(items.size() - 1)) : null;
+        return new ListPage<>(items, slice.hasNext(), next);
+    }
+}
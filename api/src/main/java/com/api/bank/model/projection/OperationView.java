@@ -0,0 +1,22 @@
+package com.api.bank.model.projection;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.enums.OperationStatus;
+import com.api.bank.model.enums.OperationType;
+import com.api.bank.model.enums.PaymentMethod;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * An operation of an account statement, read without its account and its check
+ */
+public record OperationView(UUID id,
+                            String operationId,
+                            String label,
+                            Money amount,
+                            Date operationDate,
+                            OperationStatus operationStatus,
+                            OperationType operationType,
+                            PaymentMethod paymentMethod) {
+}
@@ -0,0 +1,13 @@
+package com.api.bank.model.projection;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A shop as read by the shop endpoints, without its password
+ */
+public record ShopView(UUID id,
+                       String name,
+                       Boolean whitelisted,
+                       Instant createdAt) {
+}
@@ -0,0 +1,43 @@
+package com.api.bank.model.projection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * The position of an account statement page: the date and the id of the last operation read.
+ * The next page starts right after it, in (operationDate, id) descending order.
+ */
+public record StatementCursor(Date operationDate, UUID id) {
+
+    public static StatementCursor of(OperationView operation) {
+        return new StatementCursor(operation.operationDate(), operation.id());
+    }
+
+    /**
+     * Read a cursor given back by a client
+     *
+     * @param value The cursor, as encoded by {@link #encode()}
+     * @return The cursor, or null if the value is empty
+     * @throws IllegalArgumentException If the value is not a cursor
+     */
+    public static StatementCursor decode(String value) {
+        if (value == null || value.isBlank()) return null;
+
+        var decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.US_ASCII);
+        int separator = decoded.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return new StatementCursor(new Date(Long.parseLong(decoded.substring(0, separator))), UUID.fromString(decoded.substring(separator + 1)));
+    }
+
+    /**
+     * @return The cursor as an opaque string for the client
+     */
+    public String encode() {
+        var value = operationDate.getTime() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,13 @@
+package com.api.bank.model.projection;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A TPE as read by the TPE endpoints, without its password
+ */
+public record TpeView(UUID id,
+                      String androidId,
+                      Boolean whitelisted,
+                      Instant createdAt) {
+}
@@ -0,0 +1,26 @@
+package com.api.bank.model.provisioning;
+
+import com.api.bank.model.enums.SocialReasonStatus;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * A line of a bulk import: a client, its account and, optionally, its card
+ *
+ * @param socialReason       INDIVIDUAL or COMPANY
+ * @param firstname          The first name of an individual
+ * @param lastname           The last name of an individual
+ * @param organisationName   The name of a company
+ * @param sold               The balance of the account, in the currency (12.34)
+ * @param cardId             The id of the card, no card if empty
+ * @param cardExpirationDate The expiration date of the card (2026-12-31), the default expiration date if empty
+ */
+public record AccountImportRow(SocialReasonStatus socialReason,
+                               String firstname,
+                               String lastname,
+                               String organisationName,
+                               BigDecimal sold,
+                               String cardId,
+                               LocalDate cardExpirationDate) {
+}
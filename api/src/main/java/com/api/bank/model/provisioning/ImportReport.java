@@ -0,0 +1,23 @@
+package com.api.bank.model.provisioning;
+
+import java.util.List;
+
+/**
+ * The result of a bulk import
+ *
+ * @param rows            The number of lines read, header excluded
+ * @param imported        The number of accounts created
+ * @param failed          The number of lines not imported
+ * @param durationMillis  The duration of the import
+ * @param rowsPerSecond   The number of lines read per second
+ * @param errors          The lines not imported, the first ones only if there are too many
+ * @param errorsTruncated True if some lines not imported are missing from the errors
+ */
+public record ImportReport(long rows,
+                           long imported,
+                           long failed,
+                           long durationMillis,
+                           double rowsPerSecond,
+                           List<ImportRowError> errors,
+                           boolean errorsTruncated) {
+}
@@ -0,0 +1,10 @@
+package com.api.bank.model.provisioning;
+
+/**
+ * A line of a bulk import which was not imported
+ *
+ * @param line    The number of the line in the file, from 1 (the header of a CSV file is line 1)
+ * @param message Why the line was not imported
+ */
+public record ImportRowError(long line, String message) {
+}
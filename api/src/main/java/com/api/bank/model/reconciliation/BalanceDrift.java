@@ -0,0 +1,22 @@
+package com.api.bank.model.reconciliation;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.enums.LedgerOwnerType;
+
+import java.util.UUID;
+
+/**
+ * A balance which does not match its operations
+ *
+ * @param ownerType       An account or a QR check
+ * @param ownerId         The id of the account or of the QR check
+ * @param balance         The balance written (Account.sold, QrCheck.soldAmount)
+ * @param expectedBalance The opening balance plus the deposits minus the withdrawals of the CLOSED operations
+ * @param drift           The balance minus the expected balance
+ */
+public record BalanceDrift(LedgerOwnerType ownerType,
+                           UUID ownerId,
+                           Money balance,
+                           Money expectedBalance,
+                           Money drift) {
+}
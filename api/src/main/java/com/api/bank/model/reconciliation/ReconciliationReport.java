@@ -0,0 +1,36 @@
+package com.api.bank.model.reconciliation;
+
+import com.api.bank.model.Money;
+
+import java.util.List;
+
+/**
+ * The result of a reconciliation of the balances with the operations
+ *
+ * @param accounts            The number of accounts reconciled
+ * @param qrChecks            The number of QR checks reconciled
+ * @param operations          The number of operations read, the ones written since the previous run
+ * @param drifted             The number of balances which do not match their operations
+ * @param drifts              The balances which do not match, the first ones only if there are too many
+ * @param driftsTruncated     True if some balances which do not match are missing from the drifts
+ * @param totalBalance        The sum of the account balances
+ * @param totalOpeningBalance The sum of the account balances before their first operation
+ * @param totalDeposits       The sum of the CLOSED deposits of the accounts, up to the last checkpoint
+ * @param totalWithdrawals    The sum of the CLOSED withdrawals of the accounts, up to the last checkpoint
+ * @param unbalancedMovement  The deposits minus the withdrawals: zero when no money was created nor lost,
+ *                            each transaction closing a withdrawal and a deposit of the same amount
+ * @param durationMillis      The duration of the reconciliation
+ */
+public record ReconciliationReport(long accounts,
+                                   long qrChecks,
+                                   long operations,
+                                   long drifted,
+                                   List<BalanceDrift> drifts,
+                                   boolean driftsTruncated,
+                                   Money totalBalance,
+                                   Money totalOpeningBalance,
+                                   Money totalDeposits,
+                                   Money totalWithdrawals,
+                                   Money unbalancedMovement,
+                                   long durationMillis) {
+}
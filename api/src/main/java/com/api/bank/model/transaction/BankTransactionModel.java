@@ -1,5 +1,6 @@
 package com.api.bank.model.transaction;
 
+import com.api.bank.model.Money;
 import com.api.bank.model.entity.Account;
 import com.api.bank.model.entity.QrCheck;
 import com.api.bank.model.enums.PaymentMethod;
@@ -16,7 +17,7 @@ public class BankTransactionModel {
     private Account withdrawalAccount;
     private Account depositAccount;
     private QrCheck qrCheck;
-    private double amount;
+    private Money amount;
     private Date date;
     private PaymentMethod paymentMethod;
     private BankTransactionType bankTransactionType;
@@ -26,7 +27,8 @@ public class BankTransactionModel {
 
         this.operationId = shoppingTransaction.getOperationId();
         this.label = shoppingTransaction.getLabel();
-        this.amount = shoppingTransaction.getAmount();
+        // Null if it is not a number or too large, declined as AMOUNT_ERROR by the validation
+        this.amount = Money.tryOf(shoppingTransaction.getAmount());
         this.paymentMethod = shoppingTransaction.getPaymentMethod();
         this.date = shoppingTransaction.getDate();
         this.bankTransactionType = BankTransactionType.SHOPPING;
@@ -38,7 +40,7 @@ public class BankTransactionModel {
 
         this.operationId = qrcheckTransaction.getOperationId();
         this.label = qrcheckTransaction.getLabel();
-        this.amount = qrcheckTransaction.getAmount();
+        this.amount = Money.tryOf(qrcheckTransaction.getAmount());
         this.paymentMethod = qrcheckTransaction.getPaymentMethod();
         this.date = qrcheckTransaction.getDate();
         this.bankTransactionType = BankTransactionType.QR_CHECK;
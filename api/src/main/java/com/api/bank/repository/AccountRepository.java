@@ -1,7 +1,13 @@
 package com.api.bank.repository;
 
+import com.api.bank.model.Money;
 import com.api.bank.model.entity.Account;
 import com.api.bank.model.entity.Client;
+import com.api.bank.model.projection.AccountView;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import javax.transaction.Transactional;
@@ -10,12 +16,59 @@ import java.util.UUID;
 
 @Repository
 public interface AccountRepository extends GenericRepository<Account> {
+    // The client and the card are lazy, the finders returning a whole account fetch them in the same select
+    @Override
+    @EntityGraph(attributePaths = {"client", "card"})
+    Optional<Account> findById(UUID id);
+
+    @EntityGraph(attributePaths = {"client", "card"})
     Account findAccountByCard_CardId(String cardId);
 
+    @EntityGraph(attributePaths = {"client", "card"})
     Account findAccountByClient(Client client);
 
+    @EntityGraph(attributePaths = {"client", "card"})
     Account findAccountByClient_Id(UUID clientId);
+    @EntityGraph(attributePaths = {"client", "card"})
     Account findAccountByClient_OrganisationName(String ownerName);
+    @EntityGraph(attributePaths = {"client", "card"})
     Account findAccountByClient_Lastname(String lastName);
 
+    /**
+     * Fetch plan of the payments by card: the account and its card only
+     */
+    @EntityGraph(attributePaths = {"card"})
+    Optional<Account> findWithCardById(UUID id);
+
+    /**
+     * Fetch plan of the accounts found by their owner name (deposit and bank accounts): the account and its client only
+     */
+    @EntityGraph(attributePaths = {"client"})
+    Optional<Account> findWithClientById(UUID id);
+
+    @Query("select a.id from Account a where a.card.cardId = :cardId")
+    UUID findAccountIdByCardId(@Param("cardId") String cardId);
+
+    @Query("select a.id from Account a where a.client.id = :clientId")
+    UUID findAccountIdByClientId(@Param("clientId") UUID clientId);
+
+    @Query("select a.id from Account a where a.client.organisationName = :ownerName")
+    UUID findAccountIdByOwnerName(@Param("ownerName") String ownerName);
+
+    @Query("select new com.api.bank.model.projection.AccountView(a.id, a.sold, c.id, k.cardId, k.expirationDate, a.createdAt, a.modifiedAt)"
+            + " from Account a left join a.client c left join a.card k where a.id = :id")
+    Optional<AccountView> findViewById(@Param("id") UUID id);
+
+    @Modifying
+    @Query("update Account a set a.sold = a.sold - :amount, a.modifiedAt = current_timestamp where a.id = :id and a.sold >= :amount")
+    int withdraw(@Param("id") UUID id, @Param("amount") Money amount);
+
+    @Modifying
+    @Query("update Account a set a.sold = a.sold + :amount, a.modifiedAt = current_timestamp where a.id = :id")
+    int deposit(@Param("id") UUID id, @Param("amount") Money amount);
+
+    @Modifying
+    @Query("update Account a set a.sold = :sold, a.modifiedAt = current_timestamp where a.id = :id")
+    int updateSold(@Param("id") UUID id, @Param("sold") Money sold);
+
 }
\ No newline at end of file
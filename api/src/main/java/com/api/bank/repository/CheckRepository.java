@@ -1,12 +1,40 @@
 package com.api.bank.repository;
 
+import com.api.bank.model.Money;
 import com.api.bank.model.entity.Card;
 import com.api.bank.model.entity.QrCheck;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.UUID;
+import java.util.stream.Stream;
+
 @Repository
 public interface CheckRepository extends GenericRepository<QrCheck>{
 
     QrCheck findQrCheckByCheckToken(String checkToken);
     boolean existsQrCheckByCheckToken(String checkToken);
+
+    /**
+     * The tokens of all the checks, read while they are streamed. The stream must be read and closed in the transaction which opened it.
+     */
+    @Query("select q.checkToken from QrCheck q")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    Stream<String> streamCheckTokens();
+
+    @Modifying
+    @Query("update QrCheck q set q.soldAmount = q.soldAmount - :amount, q.modifiedAt = current_timestamp where q.id = :id and q.soldAmount >= :amount")
+    int withdraw(@Param("id") UUID id, @Param("amount") Money amount);
+
+    @Modifying
+    @Query("update QrCheck q set q.soldAmount = q.soldAmount + :amount, q.modifiedAt = current_timestamp where q.id = :id")
+    int deposit(@Param("id") UUID id, @Param("amount") Money amount);
+
+    @Modifying
+    @Query("update QrCheck q set q.soldAmount = :soldAmount, q.modifiedAt = current_timestamp where q.id = :id")
+    int updateSoldAmount(@Param("id") UUID id, @Param("soldAmount") Money soldAmount);
 }
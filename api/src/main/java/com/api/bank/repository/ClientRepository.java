@@ -1,13 +1,40 @@
 package com.api.bank.repository;
 
 import com.api.bank.model.entity.Client;
+import com.api.bank.model.projection.ClientView;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import javax.transaction.Transactional;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface ClientRepository extends GenericRepository<Client>{
 
     Client findClientByOrganisationName(String name);
 
+    String VIEWS = "select new com.api.bank.model.projection.ClientView(c.id, c.socialReason, c.organisationName, c.firstname, c.lastname, a.id, c.createdAt)"
+            + " from Client c left join Account a on a.client = c";
+
+    // Sorted by the Pageable
+    @Query(VIEWS)
+    Slice<ClientView> findViews(Pageable pageable);
+
+    @Query(VIEWS + " where c.id > :after order by c.id")
+    Slice<ClientView> findViewsAfter(@Param("after") UUID after, Pageable pageable);
+
+    @Query(VIEWS + " order by c.id")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    Stream<ClientView> streamViews();
+
+    @Query(VIEWS + " where c.id = :id")
+    Optional<ClientView> findViewById(@Param("id") UUID id);
+
 }
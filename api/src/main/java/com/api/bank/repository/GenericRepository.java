@@ -7,6 +7,7 @@ import java.util.UUID;
 
 @NoRepositoryBean
 public interface GenericRepository<T> extends JpaRepository<T, UUID> {
-
-
+    // Rows sent by the database at once when a list is streamed
+    String STREAM_FETCH_SIZE = "500";
+    String HINT_FETCH_SIZE = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 }
@@ -0,0 +1,8 @@
+package com.api.bank.repository;
+
+import com.api.bank.model.entity.LedgerCheckpoint;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface LedgerCheckpointRepository extends GenericRepository<LedgerCheckpoint> {
+}
@@ -0,0 +1,32 @@
+package com.api.bank.repository;
+
+import com.api.bank.model.enums.OperationStatus;
+import com.api.bank.model.enums.OperationType;
+import com.api.bank.model.enums.PaymentMethod;
+import com.api.bank.model.projection.OperationView;
+import com.api.bank.model.projection.StatementCursor;
+
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Read the account statements by keyset pagination, on the (account_id, operationDate, id) index of the operations
+ * and of the archived operations
+ */
+public interface OperationStatementRepository {
+
+    /**
+     * Stream a page of the operations of an account, archived or not, most recent first. The filters left null are not applied.
+     * The stream must be read and closed in the transaction which opened it.
+     *
+     * @param accountId     The account of the operations
+     * @param after         The last operation of the previous page, null for the first page
+     * @param status        The status of the operations, may be null
+     * @param type          The type of the operations, may be null
+     * @param paymentMethod The payment method of the operations, may be null
+     * @param limit         The maximum number of operations
+     * @return The operations of the page
+     */
+    Stream<OperationView> streamStatement(UUID accountId, StatementCursor after, OperationStatus status,
+                                          OperationType type, PaymentMethod paymentMethod, int limit);
+}
@@ -0,0 +1,125 @@
+package com.api.bank.repository;
+
+import com.api.bank.model.TimeOrderedUUID;
+import com.api.bank.model.enums.OperationStatus;
+import com.api.bank.model.enums.OperationType;
+import com.api.bank.model.enums.PaymentMethod;
+import com.api.bank.model.projection.OperationView;
+import com.api.bank.model.projection.StatementCursor;
+import org.hibernate.jpa.QueryHints;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Implementation of the keyset pagination of the operations. The query only holds the filters which are given,
+ * so that the database seeks the index on the account and the date instead of evaluating "is null" alternatives.
+ * The same query is run on the operations and on the archived operations, and both results are merged in the
+ * order of the statement: the archived operations are read as if they were still in the operation table.
+ */
+public class OperationStatementRepositoryImpl implements OperationStatementRepository {
+    private static final int FETCH_SIZE = 500;
+
+    // Most recent first, then by id descending as the database orders the BINARY(16) ids
+    private static final Comparator<OperationView> STATEMENT_ORDER = Comparator
+            .comparing((OperationView operation) -> operation.operationDate().getTime(), Comparator.reverseOrder())
+            .thenComparing(OperationView::id, (first, second) -> TimeOrderedUUID.compare(second, first));
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Stream<OperationView> streamStatement(UUID accountId, StatementCursor after, OperationStatus status,
+                                                 OperationType type, PaymentMethod paymentMethod, int limit) {
+        var operations = query("Operation", "o.account.id", accountId, after, status, type, paymentMethod, limit);
+        var archivedOperations = query("ArchivedOperation", "o.accountId", accountId, after, status, type, paymentMethod, limit);
+        return merge(operations, archivedOperations, limit);
+    }
+
+    /**
+     * Stream a page of the operations of an account from one table
+     *
+     * @param entity      The entity of the table
+     * @param accountPath The path of the account id in the entity
+     * @return The operations of the page, in the order of the statement
+     */
+    private Stream<OperationView> query(String entity, String accountPath, UUID accountId, StatementCursor after, OperationStatus status,
+                                        OperationType type, PaymentMethod paymentMethod, int limit) {
+        var jpql = new StringBuilder("select new com.api.bank.model.projection.OperationView(")
+                .append("o.id, o.operationId, o.label, o.amount, o.operationDate, o.operationStatus, o.operationType, o.paymentMethod)")
+                .append(" from ").append(entity).append(" o where ").append(accountPath).append(" = :accountId");
+        if (after != null) {
+            jpql.append(" and (o.operationDate < :afterDate or (o.operationDate = :afterDate and o.id < :afterId))");
+        }
+        if (status != null) jpql.append(" and o.operationStatus = :status");
+        if (type != null) jpql.append(" and o.operationType = :type");
+        if (paymentMethod != null) jpql.append(" and o.paymentMethod = :paymentMethod");
+        jpql.append(" order by o.operationDate desc, o.id desc");
+
+        var query = entityManager.createQuery(jpql.toString(), OperationView.class)
+                .setParameter("accountId", accountId)
+                .setMaxResults(limit)
+                .setHint(QueryHints.HINT_FETCH_SIZE, Math.min(limit, FETCH_SIZE))
+                .setHint(QueryHints.HINT_READONLY, true);
+        if (after != null) {
+            query.setParameter("afterDate", after.operationDate()).setParameter("afterId", after.id());
+        }
+        if (status != null) query.setParameter("status", status);
+        if (type != null) query.setParameter("type", type);
+        if (paymentMethod != null) query.setParameter("paymentMethod", paymentMethod);
+
+        return query.getResultStream();
+    }
+
+    /**
+     * Merge two pages in the order of the statement, while they are read
+     *
+     * @param first  A page, in the order of the statement
+     * @param second An other page, in the order of the statement
+     * @param limit  The maximum number of operations
+     * @return The first operations of both pages, closing both pages when closed
+     */
+    private static Stream<OperationView> merge(Stream<OperationView> first, Stream<OperationView> second, int limit) {
+        var firstOperations = first.iterator();
+        var secondOperations = second.iterator();
+        var merged = new Iterator<OperationView>() {
+            private OperationView firstHead;
+            private OperationView secondHead;
+            private int returned;
+
+            @Override
+            public boolean hasNext() {
+                if (returned == limit) return false;
+                if (firstHead == null && firstOperations.hasNext()) firstHead = firstOperations.next();
+                if (secondHead == null && secondOperations.hasNext()) secondHead = secondOperations.next();
+                return firstHead != null || secondHead != null;
+            }
+
+            @Override
+            public OperationView next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                OperationView next;
+                if (secondHead == null || (firstHead != null && STATEMENT_ORDER.compare(firstHead, secondHead) <= 0)) {
+                    next = firstHead;
+                    firstHead = null;
+                } else {
+                    next = secondHead;
+                    secondHead = null;
+                }
+                returned++;
+                return next;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(first::close)
+                .onClose(second::close);
+    }
+}
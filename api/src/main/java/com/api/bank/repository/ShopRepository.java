@@ -2,10 +2,19 @@ package com.api.bank.repository;
 
 import com.api.bank.model.entity.Shop;
 import com.api.bank.model.entity.Tpe;
+import com.api.bank.model.projection.ShopView;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import javax.transaction.Transactional;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 @Transactional
@@ -13,6 +22,22 @@ public interface ShopRepository extends GenericRepository<Shop> {
     Optional<Shop> findByName(String name);
     Boolean existsByName(String name);
 
+    String VIEWS = "select new com.api.bank.model.projection.ShopView(s.id, s.name, s.whitelisted, s.createdAt) from Shop s";
+
+    // Sorted by the Pageable
+    @Query(VIEWS)
+    Slice<ShopView> findViews(Pageable pageable);
+
+    @Query(VIEWS + " where s.id > :after order by s.id")
+    Slice<ShopView> findViewsAfter(@Param("after") UUID after, Pageable pageable);
+
+    @Query(VIEWS + " order by s.id")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    Stream<ShopView> streamViews();
+
+    @Query(VIEWS + " where s.id = :id")
+    Optional<ShopView> findViewById(@Param("id") UUID id);
+
     @Transactional
     void deleteByName(String name);
 }
\ No newline at end of file
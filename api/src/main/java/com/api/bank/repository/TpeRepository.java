@@ -1,16 +1,41 @@
 package com.api.bank.repository;
 
 import com.api.bank.model.entity.Tpe;
+import com.api.bank.model.projection.TpeView;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import javax.transaction.Transactional;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 @Transactional
 public interface TpeRepository extends GenericRepository<Tpe> {
     Optional<Tpe> findByAndroidId(String id);
     Boolean existsByAndroidId(String id);
+
+    String VIEWS = "select new com.api.bank.model.projection.TpeView(t.id, t.androidId, t.whitelisted, t.createdAt) from Tpe t";
+
+    // Sorted by the Pageable
+    @Query(VIEWS)
+    Slice<TpeView> findViews(Pageable pageable);
+
+    @Query(VIEWS + " where t.id > :after order by t.id")
+    Slice<TpeView> findViewsAfter(@Param("after") UUID after, Pageable pageable);
+
+    @Query(VIEWS + " order by t.id")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    Stream<TpeView> streamViews();
+
+    @Query(VIEWS + " where t.id = :id")
+    Optional<TpeView> findViewById(@Param("id") UUID id);
     @Transactional
     void deleteByAndroidId(String id);
 }
@@ -0,0 +1,12 @@
+package com.api.bank.repository;
+
+import com.api.bank.model.entity.TransactionRecord;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface TransactionRecordRepository extends GenericRepository<TransactionRecord> {
+
+    Optional<TransactionRecord> findByOperationId(String operationId);
+}
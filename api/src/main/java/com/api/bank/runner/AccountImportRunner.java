@@ -0,0 +1,45 @@
+package com.api.bank.runner;
+
+import com.api.bank.model.enums.ImportFormat;
+import com.api.bank.service.AccountImportService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class is used to import clients, accounts and cards from files at startup, given by the import-accounts
+ * option (.csv or .ndjson): java -jar ROOT.war --import-accounts=cardholders.csv --spring.main.web-application-type=none
+ */
+@Component
+public class AccountImportRunner implements ApplicationRunner {
+    private static final String IMPORT_OPTION = "import-accounts";
+
+    private final AccountImportService importService;
+
+    @Autowired
+    public AccountImportRunner(AccountImportService importService) {
+        this.importService = importService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption(IMPORT_OPTION)) return;
+
+        for (var file : args.getOptionValues(IMPORT_OPTION)) {
+            try (var input = Files.newInputStream(Path.of(file))) {
+                var report = importService.importAccounts(input, ImportFormat.fromFileName(file));
+                System.out.println("Import of " + file + ": " + report.imported() + " accounts imported, " + report.failed()
+                        + " lines refused, " + report.rows() + " lines in " + report.durationMillis() + " ms ("
+                        + Math.round(report.rowsPerSecond()) + " lines/s)");
+                report.errors().forEach(error -> System.out.println("Line " + error.line() + ": " + error.message()));
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.api.bank.runner;
 
+import com.api.bank.model.TimeOrderedUUID;
 import com.api.bank.model.entity.Account;
 import com.api.bank.model.entity.Client;
 import com.api.bank.model.enums.SocialReasonStatus;
@@ -28,7 +29,7 @@ public class BankRunner implements ApplicationRunner {
     public void run(ApplicationArguments args) {
         Account accountSearch = accountService.getAccountByOwnerName(BANK_NAME);
         if (accountSearch == null) {
-            Client client = new Client(UUID.randomUUID(), BANK_NAME, SocialReasonStatus.BANK);
+            Client client = new Client(TimeOrderedUUID.randomUUID(), BANK_NAME, SocialReasonStatus.BANK);
             Account account = new Account(UUID.fromString(BANK_ID), 100000000, client);
 
             accountService.add(account);
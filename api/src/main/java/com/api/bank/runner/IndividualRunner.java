@@ -1,6 +1,7 @@
 package com.api.bank.runner;
 
 
+import com.api.bank.model.TimeOrderedUUID;
 import com.api.bank.model.entity.Account;
 import com.api.bank.model.entity.Card;
 import com.api.bank.model.entity.Client;
@@ -14,8 +15,6 @@ import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
 
-import java.util.UUID;
-
 /**
  * This class is used to create a default Individual account
  */
@@ -43,7 +42,7 @@ public class IndividualRunner implements ApplicationRunner {
 
         Account accountSearch = accountService.getAccountByCardId(cardId);
         if (accountSearch == null) {
-            Client client = new Client(UUID.randomUUID(), firstname, lastname, SocialReasonStatus.INDIVIDUAL);
+            Client client = new Client(TimeOrderedUUID.randomUUID(), firstname, lastname, SocialReasonStatus.INDIVIDUAL);
             Card card = new Card(cardId);
             Account account = new Account(10000, client, card);
 
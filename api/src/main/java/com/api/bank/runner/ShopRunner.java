@@ -1,5 +1,6 @@
 package com.api.bank.runner;
 
+import com.api.bank.model.TimeOrderedUUID;
 import com.api.bank.model.entity.Account;
 import com.api.bank.model.entity.Client;
 import com.api.bank.model.entity.Shop;
@@ -12,8 +13,6 @@ import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
 
-import java.util.UUID;
-
 @Component
 public class ShopRunner implements ApplicationRunner {
 
@@ -41,7 +40,7 @@ public class ShopRunner implements ApplicationRunner {
             var shop = shopService.getShopByName(username);
 
             if (shop == null) {
-                shop = new Shop(UUID.randomUUID().toString(), username, password);
+                shop = new Shop(TimeOrderedUUID.randomUUID().toString(), username, password);
                 shopService.registerShop(shop);
             }
 
@@ -0,0 +1,303 @@
+package com.api.bank.service;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.TimeOrderedUUID;
+import com.api.bank.model.entity.Card;
+import com.api.bank.model.enums.ImportFormat;
+import com.api.bank.model.enums.SocialReasonStatus;
+import com.api.bank.model.provisioning.AccountImportRow;
+import com.api.bank.model.provisioning.ImportReport;
+import com.api.bank.model.provisioning.ImportRowError;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is responsible for the bulk imports of clients, accounts and cards.
+ * The file is read line by line while it is received, and the accounts are written by chunks of JDBC batch inserts,
+ * one database transaction per chunk. A line which cannot be imported is reported with its line number,
+ * the other lines are imported.
+ */
+@Service
+public class AccountImportService {
+    private static final String INSERT_CLIENT = "insert into client (id, created_at, modified_at, firstname, lastname, organisation_name, social_reason)"
+            + " values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_CARD = "insert into card (id, created_at, modified_at, card_id, expiration_date) values (?, ?, ?, ?, ?)";
+    private static final String INSERT_ACCOUNT = "insert into account (id, created_at, modified_at, sold, card_id, client_id) values (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+    private final int maxReportedErrors;
+
+    @Autowired
+    public AccountImportService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, ObjectMapper objectMapper,
+                                @Value("${bank.import.chunk-size}") int chunkSize,
+                                @Value("${bank.import.max-reported-errors}") int maxReportedErrors) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    /**
+     * Import the accounts of a file
+     *
+     * @param input  The content of the file, read once, not closed
+     * @param format The format of the file
+     * @return The numbers of lines read and imported, and the lines which were not imported
+     * @throws IOException If the file cannot be read
+     */
+    public ImportReport importAccounts(InputStream input, ImportFormat format) throws IOException {
+        var progress = new Progress();
+        var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+
+        String[] header = null;
+        if (format == ImportFormat.CSV) {
+            var headerLine = reader.readLine();
+            progress.line++;
+            if (headerLine == null) return progress.report();
+            header = splitCsv(headerLine);
+        }
+
+        List<ParsedRow> chunk = new ArrayList<>(chunkSize);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            progress.line++;
+            if (line.isBlank()) continue;
+            progress.rows++;
+
+            try {
+                var row = format == ImportFormat.CSV ? parseCsv(header, line) : objectMapper.readValue(line, AccountImportRow.class);
+                var sold = validate(row);
+                chunk.add(new ParsedRow(progress.line, row, sold));
+            } catch (IOException | IllegalArgumentException e) {
+                progress.fail(progress.line, e.getMessage());
+            }
+
+            if (chunk.size() == chunkSize) {
+                write(chunk, progress);
+                chunk.clear();
+            }
+        }
+        write(chunk, progress);
+
+        return progress.report();
+    }
+
+    /**
+     * Write a chunk of accounts in one transaction. If the chunk is refused (a card id or an organisation name
+     * already used), its lines are written one by one to report the lines refused.
+     *
+     * @param chunk    The lines to write
+     * @param progress The state of the import
+     */
+    private void write(List<ParsedRow> chunk, Progress progress) {
+        if (chunk.isEmpty()) return;
+        try {
+            transactionTemplate.executeWithoutResult(status -> insert(chunk));
+            progress.imported += chunk.size();
+        } catch (DataAccessException chunkError) {
+            for (var row : chunk) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> insert(List.of(row)));
+                    progress.imported++;
+                } catch (DataAccessException e) {
+                    progress.fail(row.line(), NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert the clients, the cards and the accounts of some lines, by JDBC batches
+     *
+     * @param rows The lines to insert
+     */
+    private void insert(List<ParsedRow> rows) {
+        var now = new Timestamp(System.currentTimeMillis());
+        var defaultExpirationDate = new Timestamp(Card.getDefaultExpirationDate().getTime());
+        List<Object[]> clients = new ArrayList<>(rows.size());
+        List<Object[]> cards = new ArrayList<>(rows.size());
+        List<Object[]> accounts = new ArrayList<>(rows.size());
+
+        for (var parsed : rows) {
+            var row = parsed.row();
+            var clientId = TimeOrderedUUID.toBytes(TimeOrderedUUID.randomUUID());
+            clients.add(new Object[]{clientId, now, now, row.firstname(), row.lastname(), row.organisationName(), row.socialReason().ordinal()});
+
+            byte[] cardId = null;
+            if (row.cardId() != null) {
+                cardId = TimeOrderedUUID.toBytes(TimeOrderedUUID.randomUUID());
+                var expirationDate = row.cardExpirationDate() == null
+                        ? defaultExpirationDate
+                        : Timestamp.valueOf(row.cardExpirationDate().atStartOfDay());
+                cards.add(new Object[]{cardId, now, now, row.cardId(), expirationDate});
+            }
+
+            accounts.add(new Object[]{TimeOrderedUUID.toBytes(TimeOrderedUUID.randomUUID()), now, now, parsed.sold().getMinorUnits(), cardId, clientId});
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_CLIENT, clients);
+        if (!cards.isEmpty()) jdbcTemplate.batchUpdate(INSERT_CARD, cards);
+        jdbcTemplate.batchUpdate(INSERT_ACCOUNT, accounts);
+    }
+
+    /**
+     * Check a line before it is written
+     *
+     * @param row The line
+     * @return The balance of the account, converted here so that a balance which cannot be held is a line error
+     * @throws IllegalArgumentException If the line is not a valid account
+     */
+    private Money validate(AccountImportRow row) {
+        if (row.socialReason() == null) {
+            throw new IllegalArgumentException("socialReason is required");
+        }
+        switch (row.socialReason()) {
+            case INDIVIDUAL -> {
+                if (isEmpty(row.firstname()) || isEmpty(row.lastname()))
+                    throw new IllegalArgumentException("firstname and lastname are required for an individual");
+            }
+            case COMPANY -> {
+                if (isEmpty(row.organisationName()))
+                    throw new IllegalArgumentException("organisationName is required for a company");
+            }
+            default -> throw new IllegalArgumentException("Only individuals and companies can be imported");
+        }
+        if (row.sold() != null && row.sold().signum() < 0) {
+            throw new IllegalArgumentException("sold cannot be negative");
+        }
+        if (row.cardId() != null && row.cardId().length() > 50) {
+            throw new IllegalArgumentException("cardId is longer than 50 characters");
+        }
+        if (row.sold() == null) return Money.ZERO;
+        try {
+            return Money.of(row.sold());
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("sold is too large", e);
+        }
+    }
+
+    /**
+     * Read a CSV line with the columns named by the header
+     *
+     * @param header The columns of the file
+     * @param line   The line
+     * @return The account of the line
+     * @throws IllegalArgumentException If a value cannot be read
+     */
+    private AccountImportRow parseCsv(String[] header, String line) {
+        var values = splitCsv(line);
+        Map<String, String> columns = new HashMap<>();
+        for (int i = 0; i < header.length && i < values.length; i++) {
+            columns.put(header[i].trim(), values[i].isEmpty() ? null : values[i]);
+        }
+
+        try {
+            var socialReason = columns.get("socialReason");
+            var sold = columns.get("sold");
+            var cardExpirationDate = columns.get("cardExpirationDate");
+            return new AccountImportRow(
+                    socialReason == null ? null : SocialReasonStatus.valueOf(socialReason.trim().toUpperCase()),
+                    columns.get("firstname"),
+                    columns.get("lastname"),
+                    columns.get("organisationName"),
+                    sold == null ? null : new BigDecimal(sold.trim()),
+                    columns.get("cardId"),
+                    cardExpirationDate == null ? null : LocalDate.parse(cardExpirationDate.trim()));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid value: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Split a CSV line on the commas which are not quoted. A quoted value may hold commas and doubled quotes ("").
+     *
+     * @param line The line
+     * @return The values of the line
+     */
+    static String[] splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        var value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values.toArray(String[]::new);
+    }
+
+    private boolean isEmpty(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private record ParsedRow(long line, AccountImportRow row, Money sold) {
+    }
+
+    /**
+     * The counters of an import in progress
+     */
+    private class Progress {
+        private final long start = System.nanoTime();
+        private final List<ImportRowError> errors = new ArrayList<>();
+        private long line;
+        private long rows;
+        private long imported;
+        private long failed;
+
+        private void fail(long line, String message) {
+            failed++;
+            if (errors.size() < maxReportedErrors) {
+                errors.add(new ImportRowError(line, message));
+            }
+        }
+
+        private ImportReport report() {
+            long durationMillis = (System.nanoTime() - start) / 1_000_000;
+            double rowsPerSecond = durationMillis == 0 ? rows : rows * 1000.0 / durationMillis;
+            // The lines refused by the database are known after the invalid lines of their chunk
+            errors.sort(Comparator.comparingLong(ImportRowError::line));
+            return new ImportReport(rows, imported, failed, durationMillis, rowsPerSecond, errors, failed > errors.size());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.api.bank.service;
+
+import com.api.bank.model.entity.Account;
+import com.api.bank.repository.AccountRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Cache of the account ids resolved by the bank transactions, from the owner names and from the card ids.
+ * Only the ids are cached: the accounts themselves are always loaded from the database, since their balances change.
+ * The entries expire after a while and are evicted when the cache is full. They must be invalidated when a shop or
+ * a card is deleted, so that its name or its card id can be given to another account.
+ */
+@Service
+public class AccountResolutionCache {
+    private final AccountRepository accountRepository;
+    private final Cache<String, UUID> accountIdsByOwnerName;
+    private final Cache<String, UUID> accountIdsByCardId;
+
+    @Autowired
+    public AccountResolutionCache(AccountRepository accountRepository,
+                                  @Value("${bank.resolution-cache.max-size}") long maxSize,
+                                  @Value("${bank.resolution-cache.expire-after-write}") long expireAfterWrite) {
+        this.accountRepository = accountRepository;
+        this.accountIdsByOwnerName = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(expireAfterWrite))
+                .build();
+        this.accountIdsByCardId = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(expireAfterWrite))
+                .build();
+    }
+
+    public UUID getAccountIdByOwnerName(String ownerName) {
+        return resolve(accountIdsByOwnerName, ownerName, accountRepository::findAccountIdByOwnerName);
+    }
+
+    public UUID getAccountIdByCardId(String cardId) {
+        return resolve(accountIdsByCardId, cardId, accountRepository::findAccountIdByCardId);
+    }
+
+    /**
+     * Load the account of an owner name, with its client only (the bank account is recognised by its client)
+     */
+    public Account getAccountByOwnerName(String ownerName) {
+        return load(accountIdsByOwnerName, ownerName, accountRepository::findAccountIdByOwnerName, accountRepository::findWithClientById);
+    }
+
+    /**
+     * Load the account of a card id, with its card only
+     */
+    public Account getAccountByCardId(String cardId) {
+        return load(accountIdsByCardId, cardId, accountRepository::findAccountIdByCardId, accountRepository::findWithCardById);
+    }
+
+    public void invalidateOwnerName(String ownerName) {
+        if (ownerName != null) accountIdsByOwnerName.invalidate(ownerName);
+    }
+
+    public void invalidateCardId(String cardId) {
+        if (cardId != null) accountIdsByCardId.invalidate(cardId);
+    }
+
+    /**
+     * Supply the account id of a key, from the cache or from the database. Unknown keys are not cached.
+     *
+     * @param cache  The cache of the key
+     * @param key    The owner name or the card id
+     * @param finder The query resolving the key when it is not cached
+     * @return The account id, or null if no account matches
+     */
+    private UUID resolve(Cache<String, UUID> cache, String key, Function<String, UUID> finder) {
+        if (key == null || key.isBlank()) return null;
+        return cache.get(key, finder);
+    }
+
+    /**
+     * Load the account of a key. When the cached id does not match an account anymore, the key is resolved again.
+     *
+     * @param cache  The cache of the key
+     * @param key    The owner name or the card id
+     * @param finder The query resolving the key when it is not cached
+     * @param loader The query loading the account with the associations the caller needs
+     * @return The account, or null if no account matches
+     */
+    private Account load(Cache<String, UUID> cache, String key, Function<String, UUID> finder, Function<UUID, Optional<Account>> loader) {
+        var accountId = resolve(cache, key, finder);
+        if (accountId == null) return null;
+
+        var account = loader.apply(accountId).orElse(null);
+        if (account == null) {
+            cache.invalidate(key);
+            accountId = resolve(cache, key, finder);
+            account = accountId == null ? null : loader.apply(accountId).orElse(null);
+        }
+        return account;
+    }
+}
@@ -1,5 +1,6 @@
 package com.api.bank.service;
 
+import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.entity.Account;
 import com.api.bank.model.entity.Client;
 import com.api.bank.model.entity.Shop;
@@ -7,7 +8,9 @@ import com.api.bank.model.enums.SocialReasonStatus;
 import com.api.bank.repository.AccountRepository;
 import com.api.bank.repository.ClientRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 
 import java.util.UUID;
@@ -38,9 +41,37 @@ public class AccountService extends GenericService<Account> {
         return ((AccountRepository)repository).findAccountByClient_OrganisationName(owner);
     }
 
+    public UUID getAccountIdByCardId(String cardId){
+        return ((AccountRepository)repository).findAccountIdByCardId(cardId);
+    }
+    public UUID getAccountIdByClientId(UUID clientId){
+        return ((AccountRepository)repository).findAccountIdByClientId(clientId);
+    }
+    public UUID getAccountIdByOwnerName(String owner){
+        return ((AccountRepository)repository).findAccountIdByOwnerName(owner);
+    }
+
     public Account getAccountByClient(Client client){
         return ((AccountRepository)repository).findAccountByClient(client);
     }
 
+    /**
+     * Get the view of an Account by id (UUID), in a single query without loading the entity
+     * @param id Account UUID
+     * @return the view of the Account if found, exception otherwise
+     */
+    @Transactional(readOnly = true)
+    public ObjectResponse getViewById(String id) {
+        try {
+            return accountRepository.findViewById(UUID.fromString(id))
+                    .map(account -> new ObjectResponse("Success", account, HttpStatus.OK))
+                    .orElseGet(() -> new ObjectResponse("Account not found.", HttpStatus.NOT_FOUND));
+        } catch (IllegalArgumentException e) {
+            return new ObjectResponse(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (Exception e) {
+            return new ObjectResponse(e.getMessage(), HttpStatus.CONFLICT);
+        }
+    }
+
 }
 
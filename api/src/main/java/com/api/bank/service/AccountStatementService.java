@@ -0,0 +1,101 @@
+package com.api.bank.service;
+
+import com.api.bank.model.enums.OperationStatus;
+import com.api.bank.model.enums.OperationType;
+import com.api.bank.model.enums.PaymentMethod;
+import com.api.bank.model.projection.OperationView;
+import com.api.bank.model.projection.StatementCursor;
+import com.api.bank.repository.AccountRepository;
+import com.api.bank.repository.OperationRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * This class is responsible for the account statements: the operations of an account, most recent first, by pages.
+ * A page is located by the cursor of the last operation of the previous page (keyset pagination), so reading
+ * a page costs the same whatever its position in the history of the account.
+ */
+@Service
+public class AccountStatementService {
+    private final AccountRepository accountRepository;
+    private final OperationRepository operationRepository;
+    private final ObjectMapper objectMapper;
+    private final int pageSize;
+    private final int maxPageSize;
+
+    @Autowired
+    public AccountStatementService(AccountRepository accountRepository, OperationRepository operationRepository, ObjectMapper objectMapper,
+                                   @Value("${bank.statement.page-size}") int pageSize,
+                                   @Value("${bank.statement.max-page-size}") int maxPageSize) {
+        this.accountRepository = accountRepository;
+        this.operationRepository = operationRepository;
+        this.objectMapper = objectMapper;
+        this.pageSize = pageSize;
+        this.maxPageSize = maxPageSize;
+    }
+
+    public boolean exists(UUID accountId) {
+        return accountRepository.existsById(accountId);
+    }
+
+    /**
+     * Supply the size of a page
+     *
+     * @param limit The size asked by the client, may be null
+     * @return The size asked, within 1 and the maximum page size, or the default page size
+     */
+    public int getPageSize(Integer limit) {
+        if (limit == null) return pageSize;
+        return Math.max(1, Math.min(limit, maxPageSize));
+    }
+
+    /**
+     * Write a page of the statement of an account as JSON, while the operations are read from the database:
+     * {"operations": [...], "next": cursor of the next page, null on the last page}
+     *
+     * @param accountId     The account of the statement
+     * @param after         The cursor of the previous page, null for the first page
+     * @param status        The status of the operations, may be null
+     * @param type          The type of the operations, may be null
+     * @param paymentMethod The payment method of the operations, may be null
+     * @param limit         The size of the page
+     * @param output        The stream the page is written to
+     * @throws IOException If the page cannot be written
+     */
+    @Transactional(readOnly = true)
+    public void writeStatement(UUID accountId, StatementCursor after, OperationStatus status, OperationType type,
+                               PaymentMethod paymentMethod, int limit, OutputStream output) throws IOException {
+        // One more operation is read to know if there is a next page
+        try (var operations = operationRepository.streamStatement(accountId, after, status, type, paymentMethod, limit + 1);
+             var generator = objectMapper.getFactory().createGenerator(output)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("operations");
+
+            OperationView last = null;
+            boolean hasNext = false;
+            int count = 0;
+            var iterator = operations.iterator();
+            while (iterator.hasNext()) {
+                var operation = iterator.next();
+                if (count == limit) {
+                    hasNext = true;
+                    break;
+                }
+                generator.writeObject(operation);
+                last = operation;
+                count++;
+            }
+
+            generator.writeEndArray();
+            generator.writeStringField("next", hasNext ? StatementCursor.of(last).encode() : null);
+            generator.writeEndObject();
+        }
+    }
+}
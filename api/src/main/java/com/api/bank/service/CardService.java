@@ -1,5 +1,6 @@
 package com.api.bank.service;
 
+import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.entity.Card;
 import com.api.bank.model.entity.Client;
 import com.api.bank.repository.AccountRepository;
@@ -9,17 +10,44 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Service;
 
+import java.util.UUID;
+
 @Service
 public class CardService extends GenericService<Card> {
+    private final AccountResolutionCache resolutionCache;
 
     @Autowired
-    public CardService(CardRepository cardRepository) {
+    public CardService(CardRepository cardRepository, AccountResolutionCache resolutionCache) {
         super(cardRepository);
+        this.resolutionCache = resolutionCache;
+    }
+
+    @Override
+    public ObjectResponse delete(Card entity) {
+        var response = super.delete(entity);
+        if (entity != null) resolutionCache.invalidateCardId(entity.getCardId());
+        return response;
+    }
+
+    @Override
+    public ObjectResponse deleteByUUID(String id) {
+        var card = getCard(id);
+        var response = super.deleteByUUID(id);
+        if (card != null) resolutionCache.invalidateCardId(card.getCardId());
+        return response;
     }
 
     public Card getCardByCardId(String cardId) {
         return ((CardRepository)repository).findCardByCardId(cardId);
     }
+
+    private Card getCard(String id) {
+        try {
+            return repository.findById(UUID.fromString(id)).orElse(null);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 }
 
 
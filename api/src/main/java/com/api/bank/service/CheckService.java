@@ -1,5 +1,6 @@
 package com.api.bank.service;
 
+import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.entity.Card;
 import com.api.bank.model.entity.QrCheck;
 import com.api.bank.repository.CardRepository;
@@ -8,20 +9,54 @@ import com.api.bank.repository.GenericRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+/**
+ * Service of the QR checks. The lookups by token go through the CheckTokenFilter first: a token never issued
+ * is answered without the database.
+ */
 @Service
 public class CheckService extends GenericService<QrCheck> {
 
     public CheckRepository checkRepository;
+    private final CheckTokenFilter tokenFilter;
 
     @Autowired
-    public CheckService(CheckRepository checkRepository) {
+    public CheckService(CheckRepository checkRepository, CheckTokenFilter tokenFilter) {
         super(checkRepository);
         this.checkRepository = checkRepository;
+        this.tokenFilter = tokenFilter;
     }
+
+    /**
+     * Add a check, its token being added to the filter before the check is written
+     */
+    @Override
+    public ObjectResponse add(QrCheck entity) {
+        if (entity != null) tokenFilter.add(entity.getCheckToken());
+        return super.add(entity);
+    }
+
+    /**
+     * Update a check, its token may have changed
+     */
+    @Override
+    public ObjectResponse update(QrCheck entity) {
+        if (entity != null) tokenFilter.add(entity.getCheckToken());
+        return super.update(entity);
+    }
+
     public QrCheck getCheckByCheckToken(String checkToken) {
-        return this.checkRepository.findQrCheckByCheckToken(checkToken);
+        if (!tokenFilter.mightContain(checkToken)) return null;
+
+        var qrCheck = this.checkRepository.findQrCheckByCheckToken(checkToken);
+        if (qrCheck == null) tokenFilter.recordFalsePositive();
+        return qrCheck;
     }
+
     public boolean existsCheckByCheckToken(String checkToken) {
-        return this.checkRepository.existsQrCheckByCheckToken(checkToken);
+        if (!tokenFilter.mightContain(checkToken)) return false;
+
+        boolean exists = this.checkRepository.existsQrCheckByCheckToken(checkToken);
+        if (!exists) tokenFilter.recordFalsePositive();
+        return exists;
     }
 }
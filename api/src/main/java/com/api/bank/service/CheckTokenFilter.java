@@ -0,0 +1,202 @@
+package com.api.bank.service;
+
+import com.api.bank.repository.CheckRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is responsible for answering, without the database, that a QR check token was never issued.
+ * It is a Bloom filter over the tokens of the checks: built at startup from the check table, then kept current by
+ * the CheckService when a check is added or updated. A token it does not contain is definitely not in the database,
+ * a token it contains may be (false positive) and is looked up.
+ * The tokens are only added, never removed: a deleted check is a false positive until the next startup.
+ * The filter only knows the checks added through this instance: with several instances writing the checks,
+ * it must be disabled (bank.check-token-filter.enabled).
+ * <p>
+ * Its answers are counted in bank.qr_check.token.filter (skipped, looked_up, false_positive), and its false positive
+ * rate is published in bank.qr_check.token.filter.false_positive_rate, as observed and as expected from its size.
+ */
+@Component
+public class CheckTokenFilter {
+    private static final double LN2 = Math.log(2);
+
+    private final CheckRepository checkRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long expectedTokens;
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLong tokenCount = new AtomicLong();
+    private final Counter skipped;
+    private final Counter lookedUp;
+    private final Counter falsePositives;
+
+    private volatile boolean ready;
+
+    @Autowired
+    public CheckTokenFilter(CheckRepository checkRepository, PlatformTransactionManager transactionManager, MeterRegistry registry,
+                            @Value("${bank.check-token-filter.enabled}") boolean enabled,
+                            @Value("${bank.check-token-filter.expected-tokens}") long expectedTokens,
+                            @Value("${bank.check-token-filter.false-positive-probability}") double falsePositiveProbability) {
+        if (expectedTokens < 1) {
+            throw new IllegalArgumentException("bank.check-token-filter.expected-tokens must be at least 1");
+        }
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("bank.check-token-filter.false-positive-probability must be between 0 and 1");
+        }
+        this.checkRepository = checkRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.expectedTokens = expectedTokens;
+
+        // Optimal size for the expected number of tokens, rounded up to whole words
+        long optimalBits = (long) Math.ceil(-expectedTokens * Math.log(falsePositiveProbability) / (LN2 * LN2));
+        int words = enabled ? (int) Math.min(Integer.MAX_VALUE, (optimalBits + 63) / 64) : 1;
+        bits = new AtomicLongArray(words);
+        bitCount = (long) words * 64;
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedTokens * LN2));
+
+        skipped = lookupCounter(registry, "skipped");
+        lookedUp = lookupCounter(registry, "looked_up");
+        falsePositives = lookupCounter(registry, "false_positive");
+        Gauge.builder("bank.qr_check.token.filter.false_positive_rate", this, CheckTokenFilter::getObservedFalsePositiveRate)
+                .description("Share of the tokens not issued which the filter did not exclude")
+                .tag("estimate", "observed")
+                .register(registry);
+        Gauge.builder("bank.qr_check.token.filter.false_positive_rate", this, CheckTokenFilter::getExpectedFalsePositiveRate)
+                .description("False positive rate expected from the size of the filter and the number of tokens")
+                .tag("estimate", "expected")
+                .register(registry);
+    }
+
+    private static Counter lookupCounter(MeterRegistry registry, String result) {
+        return Counter.builder("bank.qr_check.token.filter")
+                .description("Lookups of QR check tokens, by answer of the filter")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * Add the tokens of all the checks, before the first transaction. The tokens are read on the primary database
+     * (read-write transaction), a replica may miss the last ones.
+     */
+    @PostConstruct
+    public void load() {
+        if (!enabled) return;
+
+        transactionTemplate.executeWithoutResult(status -> {
+            try (var tokens = checkRepository.streamCheckTokens()) {
+                tokens.forEach(this::add);
+            }
+        });
+        ready = true;
+        if (tokenCount.get() > expectedTokens) {
+            System.out.println("The check token filter holds " + tokenCount.get() + " tokens for " + expectedTokens
+                    + " expected, raise bank.check-token-filter.expected-tokens");
+        }
+    }
+
+    /**
+     * Add the token of a check, issued or about to be
+     *
+     * @param token The token of the check, ignored if null
+     */
+    public void add(String token) {
+        if (!enabled || token == null) return;
+
+        long hash = hash(token);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(first + (long) i * second, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            // Most bits are already set once the filter fills up, which is checked without writing
+            if ((bits.get(word) & mask) == 0) {
+                bits.getAndAccumulate(word, mask, (current, value) -> current | value);
+            }
+        }
+        tokenCount.incrementAndGet();
+    }
+
+    /**
+     * Check if a token may have been issued. The answer is counted as skipped or looked up.
+     *
+     * @param token The token of a check
+     * @return false if no check has this token, true if it has to be looked up in the database
+     */
+    public boolean mightContain(String token) {
+        if (!enabled || !ready) return true;
+
+        boolean contained = token != null && contains(token);
+        (contained ? lookedUp : skipped).increment();
+        return contained;
+    }
+
+    /**
+     * Count a token the filter contains but which was not found in the database
+     */
+    public void recordFalsePositive() {
+        if (enabled && ready) falsePositives.increment();
+    }
+
+    private boolean contains(String token) {
+        long hash = hash(token);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(first + (long) i * second, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Supply a 64 bits hash of a token (FNV-1a over its chars, then the finalizer of MurmurHash3), split in two
+     * 32 bits hashes combined for each bit of the token (Kirsch and Mitzenmacher).
+     * The database compares the tokens without case nor trailing spaces, so does the hash: a token equal to an issued
+     * one for the database is never excluded.
+     */
+    private static long hash(String token) {
+        int length = token.length();
+        while (length > 0 && token.charAt(length - 1) == ' ') length--;
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= Character.toLowerCase(Character.toUpperCase(token.charAt(i)));
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @return The share of the tokens not issued which were looked up in the database, among the tokens not issued
+     */
+    public double getObservedFalsePositiveRate() {
+        double notIssued = skipped.count() + falsePositives.count();
+        return notIssued == 0 ? 0 : falsePositives.count() / notIssued;
+    }
+
+    /**
+     * @return The false positive rate expected from the number of bits, of hashes and of tokens of the filter
+     */
+    public double getExpectedFalsePositiveRate() {
+        if (!enabled) return 1;
+        return Math.pow(1 - Math.exp(-hashCount * (double) tokenCount.get() / bitCount), hashCount);
+    }
+}
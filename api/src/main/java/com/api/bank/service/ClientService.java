@@ -1,22 +1,123 @@
 package com.api.bank.service;
 
+import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.entity.Client;
+import com.api.bank.model.projection.ClientView;
 import com.api.bank.repository.AccountRepository;
 import com.api.bank.repository.ClientRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
 
 @Service
 public class ClientService extends GenericService<Client> {
     public ClientRepository clientRepository;
+    private final AccountRepository accountRepository;
 
     @Autowired
-    public ClientService(ClientRepository repository) {
+    public ClientService(ClientRepository repository, AccountRepository accountRepository) {
         super(repository);
         clientRepository = repository;
+        this.accountRepository = accountRepository;
+    }
+
+    /**
+     * Delete a Client with its account: the account owns the client, so deleting the account deletes the client and the card
+     * @param client the Client to delete
+     * @return the response of the deletion
+     */
+    @Override
+    @Transactional
+    public ObjectResponse delete(Client client) {
+        var account = accountRepository.findAccountByClient(client);
+        if (account == null) return super.delete(client);
+        try {
+            accountRepository.delete(account);
+            accountRepository.flush();
+            return new ObjectResponse("Success", null, true, HttpStatus.NO_CONTENT);
+        } catch (Exception e) {
+            return new ObjectResponse(e.getMessage(), HttpStatus.CONFLICT);
+        }
+    }
+
+    /**
+     * Delete a Client by id (UUID) with its account
+     * @param id Client UUID
+     * @return the response of the deletion
+     */
+    @Override
+    @Transactional
+    public ObjectResponse deleteByUUID(String id) {
+        try {
+            var account = accountRepository.findAccountByClient_Id(UUID.fromString(id));
+            if (account == null) return super.deleteByUUID(id);
+            accountRepository.delete(account);
+            accountRepository.flush();
+            return new ObjectResponse("Success", HttpStatus.NO_CONTENT);
+        } catch (IllegalArgumentException e) {
+            return new ObjectResponse(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (Exception e) {
+            return new ObjectResponse(e.getMessage(), HttpStatus.CONFLICT);
+        }
     }
 
     public Client getClientByOrganisationName(String name){
         return clientRepository.findClientByOrganisationName(name);
     }
+
+    /**
+     * Get a page of the Client views, in a single query without loading the entities nor counting them
+     * @param after The id of the last Client of the previous page, to read the Clients in order of creation; null to read the page of the Pageable
+     * @param pageable The number, the size and the sort of the page
+     * @return the page of the Client views (see ListPage)
+     */
+    @Transactional(readOnly = true)
+    public ObjectResponse getViews(UUID after, Pageable pageable) {
+        try {
+            var views = after == null
+                    ? clientRepository.findViews(pageable)
+                    : clientRepository.findViewsAfter(after, PageRequest.ofSize(pageable.getPageSize()));
+            return getPage(views, ClientView::id);
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            return new ObjectResponse("Error", HttpStatus.CONFLICT);
+        }
+    }
+
+    /**
+     * Write all the Client views as NDJSON (one JSON object per line), while they are read from the database
+     * @param output The stream the views are written to
+     * @throws IOException If the views cannot be written
+     */
+    @Transactional(readOnly = true)
+    public void writeViews(OutputStream output) throws IOException {
+        try (var views = clientRepository.streamViews()) {
+            writeNdjson(views, output);
+        }
+    }
+
+    /**
+     * Get the view of a Client by id (UUID), in a single query without loading the entity
+     * @param id Client UUID
+     * @return the view of the Client if found, exception otherwise
+     */
+    @Transactional(readOnly = true)
+    public ObjectResponse getViewById(String id) {
+        try {
+            return clientRepository.findViewById(UUID.fromString(id))
+                    .map(client -> new ObjectResponse("Success", client, HttpStatus.OK))
+                    .orElseGet(() -> new ObjectResponse("Client not found.", HttpStatus.NOT_FOUND));
+        } catch (IllegalArgumentException e) {
+            return new ObjectResponse(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (Exception e) {
+            return new ObjectResponse(e.getMessage(), HttpStatus.CONFLICT);
+        }
+    }
 }
@@ -3,26 +3,35 @@ package com.api.bank.service;
 import com.api.bank.model.entity.Base;
 import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.exception.BankTransactionException;
+import com.api.bank.model.projection.ListPage;
 import com.api.bank.repository.GenericRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.AllArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class GenericService<T extends Base> {
 
     protected  GenericRepository<T> repository;
+    @Autowired
+    protected ObjectMapper objectMapper;
 
     public GenericService( GenericRepository<T> repository) {
         super();
@@ -82,6 +91,7 @@ public class GenericService<T extends Base> {
         }
     }
 
+    @Transactional(readOnly = true)
     public ObjectResponse getAll(){
         try {
             List<T> entities = repository.findAll();
@@ -91,6 +101,7 @@ public class GenericService<T extends Base> {
             return new ObjectResponse("Error", HttpStatus.CONFLICT);
         }
     }
+    @Transactional(readOnly = true)
     public ObjectResponse get(String id){
         try {
             T entity = repository.findById(UUID.fromString(id)).get();
@@ -118,4 +129,33 @@ public class GenericService<T extends Base> {
             return false;
         }
     }
+
+    /**
+     * Wrap a page of a list in a response
+     * @param page The elements of the page
+     * @param idOf The id of an element, given as the cursor of the next page
+     * @return the page (see ListPage)
+     */
+    protected <V> ObjectResponse getPage(Slice<V> page, Function<V, UUID> idOf) {
+        return new ObjectResponse("Success", ListPage.of(page, idOf), HttpStatus.OK);
+    }
+
+    /**
+     * Write the elements of a stream as NDJSON (one JSON object per line), while they are read
+     * @param elements The elements
+     * @param output The stream the elements are written to
+     * @throws IOException If the elements cannot be written
+     */
+    protected <V> void writeNdjson(Stream<V> elements, OutputStream output) throws IOException {
+        try (var generator = objectMapper.getFactory().createGenerator(output)) {
+            // One element per line, instead of the space written by default between the elements
+            generator.setRootValueSeparator(null);
+            var iterator = elements.iterator();
+            while (iterator.hasNext()) {
+                var element = iterator.next();
+                objectMapper.writeValue(generator, element);
+                generator.writeRaw('\n');
+            }
+        }
+    }
 }
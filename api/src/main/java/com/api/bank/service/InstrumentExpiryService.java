@@ -0,0 +1,118 @@
+package com.api.bank.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is responsible for marking the expired means of payment. The QR checks and the cards whose expiration
+ * date is passed are marked as expired (expired column) by batches, one database transaction per batch, read on the
+ * (expired, expiration_date) indexes so that a sweep only reads the instruments expired since the previous one.
+ * The payment path does not wait for the sweep: QrCheck.isExpired and Card.isExpired also compare the stored
+ * expiration date with the current time.
+ */
+@Service
+public class InstrumentExpiryService {
+    private static final List<String> TABLES = List.of("qr_check", "card");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long interval;
+
+    private ScheduledExecutorService sweeper;
+
+    @Autowired
+    public InstrumentExpiryService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                   @Value("${bank.expiry.enabled}") boolean enabled,
+                                   @Value("${bank.expiry.batch-size}") int batchSize,
+                                   @Value("${bank.expiry.interval}") long interval) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.interval = interval;
+    }
+
+    /**
+     * Start the sweeping thread, which marks the checks and cards expired at each interval
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "bank-expiry-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweepExpired, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sweeper != null) sweeper.shutdownNow();
+    }
+
+    private void sweepExpired() {
+        try {
+            sweep(new Date());
+        } catch (RuntimeException e) {
+            // Kept for the next run: a failed batch is rolled back, its instruments are still expired by their date
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Mark the QR checks and the cards expired at a date
+     *
+     * @param now The date the expiration dates are compared with
+     * @return The number of checks and cards marked
+     */
+    public long sweep(Date now) {
+        long marked = 0;
+        for (var table : TABLES) {
+            int batch;
+            do {
+                batch = transactionTemplate.execute(status -> markBatch(table, now));
+                marked += batch;
+            } while (batch == batchSize);
+        }
+        return marked;
+    }
+
+    /**
+     * Mark a batch of the instruments of a table whose expiration date is passed
+     *
+     * @param table The table of the instruments, qr_check or card
+     * @param now   The date the expiration dates are compared with
+     * @return The number of instruments marked, less than the batch size for the last batch
+     */
+    private int markBatch(String table, Date now) {
+        var nowDate = new Timestamp(now.getTime());
+        List<byte[]> ids = jdbcTemplate.queryForList("select id from " + table + " where expired = false and expiration_date < ? limit ?",
+                byte[].class, nowDate, batchSize);
+        if (ids.isEmpty()) return 0;
+
+        var in = " where id in (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+        var parameters = new Object[ids.size() + 1];
+        parameters[0] = nowDate;
+        System.arraycopy(ids.toArray(), 0, parameters, 1, ids.size());
+        jdbcTemplate.update("update " + table + " set expired = true, modified_at = ?" + in, parameters);
+        return ids.size();
+    }
+}
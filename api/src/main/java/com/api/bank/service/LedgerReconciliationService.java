@@ -0,0 +1,456 @@
+package com.api.bank.service;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.TimeOrderedUUID;
+import com.api.bank.model.enums.LedgerOwnerType;
+import com.api.bank.model.enums.OperationType;
+import com.api.bank.model.reconciliation.BalanceDrift;
+import com.api.bank.model.reconciliation.ReconciliationReport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is responsible for the reconciliation of the balances with the operations: the balance of an account
+ * (Account.sold) is expected to be its opening balance plus its CLOSED deposits minus its CLOSED withdrawals, and the
+ * balance of a QR check (QrCheck.soldAmount) its opening balance minus its CLOSED check payments.
+ * <p>
+ * The owners are split in ranges of ids, reconciled in parallel by a fork-join pool. A range is read in one read-only
+ * transaction, in a consistent snapshot of the database (repeatable read), so that its balances and its operations
+ * match without locking anything on the payment path. Its operations are read from the operation table and from the
+ * archive, and summed up by owner while they are read.
+ * <p>
+ * The reconciliation is incremental: each owner has a checkpoint (ledger_reconciliation) holding the sums of its
+ * operations dated before a date, and a run only reads the operations dated since. The operations of the last settle
+ * delay are summed up but not checkpointed yet, since an operation of an earlier date may still be committed.
+ * The opening balance of an owner is recorded the first time it is reconciled.
+ */
+@Service
+public class LedgerReconciliationService {
+    private static final int FETCH_SIZE = 500;
+    private static final String SELECT_CHECKPOINTS = "select owner_id, opening_balance, reconciled_deposits, reconciled_withdrawals,"
+            + " reconciled_operations, reconciled_until from ledger_reconciliation where owner_type = ?";
+    private static final String UPDATE_CHECKPOINT = "update ledger_reconciliation set reconciled_deposits = ?, reconciled_withdrawals = ?,"
+            + " reconciled_operations = ?, reconciled_until = ?, modified_at = ? where owner_type = ? and owner_id = ?";
+    private static final String INSERT_CHECKPOINT = "insert into ledger_reconciliation (owner_type, owner_id, opening_balance, reconciled_deposits,"
+            + " reconciled_withdrawals, reconciled_operations, reconciled_until, modified_at) values (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate snapshotTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long interval;
+    private final int parallelism;
+    private final int chunkSize;
+    private final long settleDelay;
+    private final int maxReportedDrifts;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private ScheduledExecutorService reconciler;
+
+    @Autowired
+    public LedgerReconciliationService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                       @Value("${bank.reconciliation.enabled}") boolean enabled,
+                                       @Value("${bank.reconciliation.interval}") long interval,
+                                       @Value("${bank.reconciliation.parallelism}") int parallelism,
+                                       @Value("${bank.reconciliation.chunk-size}") int chunkSize,
+                                       @Value("${bank.reconciliation.settle-delay}") long settleDelay,
+                                       @Value("${bank.reconciliation.max-reported-drifts}") int maxReportedDrifts) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.snapshotTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTemplate.setReadOnly(true);
+        this.snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.interval = interval;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.settleDelay = settleDelay;
+        this.maxReportedDrifts = maxReportedDrifts;
+    }
+
+    /**
+     * Start the reconciliation thread, which reconciles the balances at each interval
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+
+        reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "bank-ledger-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcileScheduled, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (reconciler != null) reconciler.shutdownNow();
+    }
+
+    private void reconcileScheduled() {
+        try {
+            var report = reconcile();
+            if (report.drifted() > 0 || report.unbalancedMovement().getMinorUnits() != 0) {
+                System.out.println("Ledger reconciliation: " + report.drifted() + " balances do not match their operations, "
+                        + report.unbalancedMovement() + " of deposits not matched by withdrawals");
+            }
+        } catch (RuntimeException e) {
+            // The ranges already reconciled keep their checkpoints, the next run starts from them
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reconcile the balances of the accounts and of the QR checks with their operations
+     *
+     * @return The balances which do not match their operations, and the totals of the accounts
+     * @throws IllegalStateException If a reconciliation is already running
+     */
+    public ReconciliationReport reconcile() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A reconciliation is already running");
+        }
+        try {
+            long start = System.nanoTime();
+            // Whole seconds, as the operation dates are stored
+            var settledBefore = new Timestamp(TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - settleDelay)));
+            var totals = new Totals();
+            var pool = new ForkJoinPool(parallelism);
+            try {
+                for (var ownerType : LedgerOwnerType.values()) {
+                    var bounds = chunkBounds(ownerType);
+                    totals.merge(pool.invoke(new RangeTask(ownerType, bounds, 0, bounds.size() - 1, settledBefore)));
+                }
+            } finally {
+                pool.shutdown();
+            }
+            return totals.report((System.nanoTime() - start) / 1_000_000);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Split the ids of the owners in ranges of chunk size owners, by reading their primary key in order
+     *
+     * @param ownerType The accounts or the QR checks
+     * @return The bounds of the ranges: a range goes from a bound included to the next one excluded,
+     * the first bound is null for no lower bound and the last one null for no upper bound
+     */
+    private List<byte[]> chunkBounds(LedgerOwnerType ownerType) {
+        List<byte[]> bounds = new ArrayList<>();
+        bounds.add(null);
+        var owners = new long[1];
+        jdbcTemplate.query(connection -> {
+            var statement = connection.prepareStatement("select id from " + table(ownerType) + " order by id");
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) row -> {
+            if (owners[0] > 0 && owners[0] % chunkSize == 0) bounds.add(row.getBytes("id"));
+            owners[0]++;
+        });
+        bounds.add(null);
+        return bounds;
+    }
+
+    /**
+     * Reconcile a range of owners: their balances, their checkpoints and their operations since are read in one
+     * snapshot, then the checkpoints are moved forward in a write transaction
+     *
+     * @param ownerType     The accounts or the QR checks
+     * @param from          The first id of the range, or null
+     * @param to            The id after the range, or null
+     * @param settledBefore The date before which the operations are checkpointed
+     * @return The reconciliation of the range
+     */
+    private Totals reconcileRange(LedgerOwnerType ownerType, byte[] from, byte[] to, Timestamp settledBefore) {
+        var ledgers = snapshotTemplate.execute(status -> readRange(ownerType, from, to, settledBefore));
+
+        var totals = new Totals();
+        var now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> updates = new ArrayList<>();
+        List<Object[]> inserts = new ArrayList<>();
+        for (var ledger : ledgers.values()) {
+            totals.add(ownerType, ledger);
+            var id = TimeOrderedUUID.toBytes(ledger.ownerId);
+            // An owner without new settled operations keeps its checkpoint, which is still right
+            if (!ledger.checkpointed) {
+                inserts.add(new Object[]{ownerType.name(), id, ledger.openingBalance, ledger.deposits, ledger.withdrawals,
+                        ledger.operations, settledBefore, now});
+            } else if (ledger.settled > 0) {
+                updates.add(new Object[]{ledger.deposits, ledger.withdrawals, ledger.operations, settledBefore, now, ownerType.name(), id});
+            }
+        }
+
+        if (!updates.isEmpty() || !inserts.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (!updates.isEmpty()) jdbcTemplate.batchUpdate(UPDATE_CHECKPOINT, updates);
+                if (!inserts.isEmpty()) jdbcTemplate.batchUpdate(INSERT_CHECKPOINT, inserts);
+            });
+        }
+        return totals;
+    }
+
+    /**
+     * Read the balances of a range of owners with their checkpoints, and sum up the operations written since
+     *
+     * @return The ledger of each owner, by id
+     */
+    private Map<UUID, Ledger> readRange(LedgerOwnerType ownerType, byte[] from, byte[] to, Timestamp settledBefore) {
+        Map<UUID, Ledger> ledgers = new LinkedHashMap<>();
+        jdbcTemplate.query("select id, " + balanceColumn(ownerType) + " as balance from " + table(ownerType)
+                        + " where 1 = 1" + range("id", from, to) + " order by id",
+                (RowCallbackHandler) row -> {
+                    var ownerId = TimeOrderedUUID.fromBytes(row.getBytes("id"));
+                    ledgers.put(ownerId, new Ledger(ownerId, row.getLong("balance")));
+                }, rangeParameters(from, to).toArray());
+        if (ledgers.isEmpty()) return ledgers;
+
+        List<Object> parameters = new ArrayList<>(List.of(ownerType.name()));
+        parameters.addAll(rangeParameters(from, to));
+        jdbcTemplate.query(SELECT_CHECKPOINTS + range("owner_id", from, to), (RowCallbackHandler) row -> {
+            var ledger = ledgers.get(TimeOrderedUUID.fromBytes(row.getBytes("owner_id")));
+            if (ledger == null) return;
+            ledger.checkpointed = true;
+            ledger.openingBalance = row.getLong("opening_balance");
+            ledger.deposits = row.getLong("reconciled_deposits");
+            ledger.withdrawals = row.getLong("reconciled_withdrawals");
+            ledger.operations = row.getLong("reconciled_operations");
+            ledger.reconciledUntil = row.getTimestamp("reconciled_until");
+        }, parameters.toArray());
+
+        // The operations of the range are read from the oldest checkpoint, the ones already reconciled are skipped
+        Date since = null;
+        for (var ledger : ledgers.values()) {
+            if (!ledger.checkpointed) {
+                since = null;
+                break;
+            }
+            if (since == null || ledger.reconciledUntil.before(since)) {
+                since = ledger.reconciledUntil;
+            }
+        }
+        for (var table : List.of("operation", "operation_archive")) {
+            readOperations(ownerType, table, from, to, since, settledBefore, ledgers);
+        }
+        return ledgers;
+    }
+
+    /**
+     * Sum up the CLOSED operations of a range of owners from one table, while they are read
+     */
+    private void readOperations(LedgerOwnerType ownerType, String table, byte[] from, byte[] to, Date since,
+                                Timestamp settledBefore, Map<UUID, Ledger> ledgers) {
+        var ownerColumn = ownerColumn(ownerType);
+        var sql = "select " + ownerColumn + " as owner_id, operation_date, amount, operation_type from " + table
+                + " where operation_status = 'CLOSED'" + operationFilter(ownerType) + range(ownerColumn, from, to)
+                + (since == null ? "" : " and operation_date >= ?");
+        List<Object> parameters = rangeParameters(from, to);
+        if (since != null) parameters.add(new Timestamp(since.getTime()));
+
+        jdbcTemplate.query(connection -> {
+            var statement = connection.prepareStatement(sql);
+            statement.setFetchSize(FETCH_SIZE);
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+            return statement;
+        }, (RowCallbackHandler) row -> {
+            var ledger = ledgers.get(TimeOrderedUUID.fromBytes(row.getBytes("owner_id")));
+            if (ledger == null) return;
+            ledger.add(row.getTimestamp("operation_date"), row.getLong("amount"),
+                    OperationType.DEPOSIT.name().equals(row.getString("operation_type")), settledBefore);
+        });
+    }
+
+    private static String table(LedgerOwnerType ownerType) {
+        return ownerType == LedgerOwnerType.ACCOUNT ? "account" : "qr_check";
+    }
+
+    private static String balanceColumn(LedgerOwnerType ownerType) {
+        return ownerType == LedgerOwnerType.ACCOUNT ? "sold" : "sold_amount";
+    }
+
+    private static String ownerColumn(LedgerOwnerType ownerType) {
+        return ownerType == LedgerOwnerType.ACCOUNT ? "account_id" : "qr_check_id";
+    }
+
+    // A QR check is only debited by the check payments, the other operations of its transaction are the accounts' ones
+    private static String operationFilter(LedgerOwnerType ownerType) {
+        return ownerType == LedgerOwnerType.ACCOUNT ? "" : " and operation_type = 'WITHDRAW' and payment_method = 'CHECK'";
+    }
+
+    private static String range(String column, byte[] from, byte[] to) {
+        return (from == null ? "" : " and " + column + " >= ?") + (to == null ? "" : " and " + column + " < ?");
+    }
+
+    private static List<Object> rangeParameters(byte[] from, byte[] to) {
+        List<Object> parameters = new ArrayList<>(2);
+        if (from != null) parameters.add(from);
+        if (to != null) parameters.add(to);
+        return parameters;
+    }
+
+    /**
+     * Reconcile the ranges between two bounds, splitting them in halves until a single range is left
+     * The tasks run in the pool of the service and are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private class RangeTask extends RecursiveTask<Totals> {
+        private final LedgerOwnerType ownerType;
+        private final List<byte[]> bounds;
+        private final int first;
+        private final int last;
+        private final Timestamp settledBefore;
+
+        private RangeTask(LedgerOwnerType ownerType, List<byte[]> bounds, int first, int last, Timestamp settledBefore) {
+            this.ownerType = ownerType;
+            this.bounds = bounds;
+            this.first = first;
+            this.last = last;
+            this.settledBefore = settledBefore;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (last - first == 1) {
+                return reconcileRange(ownerType, bounds.get(first), bounds.get(last), settledBefore);
+            }
+            int middle = (first + last) >>> 1;
+            var lower = new RangeTask(ownerType, bounds, first, middle, settledBefore);
+            lower.fork();
+            var upper = new RangeTask(ownerType, bounds, middle, last, settledBefore).compute();
+            var totals = lower.join();
+            totals.merge(upper);
+            return totals;
+        }
+    }
+
+    /**
+     * The balance of an owner, its checkpoint and the operations read since, in minor units
+     */
+    private static class Ledger {
+        private final UUID ownerId;
+        private final long balance;
+        private boolean checkpointed;
+        private long openingBalance;
+        // Checkpointed sums, moved forward by the settled operations
+        private long deposits;
+        private long withdrawals;
+        private long operations;
+        private Date reconciledUntil;
+        // Operations read since the checkpoint
+        private long settled;
+        private long read;
+        private long pendingMovement;
+
+        private Ledger(UUID ownerId, long balance) {
+            this.ownerId = ownerId;
+            this.balance = balance;
+        }
+
+        private void add(Date date, long amount, boolean deposit, Date settledBefore) {
+            if (checkpointed && date.before(reconciledUntil)) return;
+            read++;
+            if (date.before(settledBefore)) {
+                if (deposit) {
+                    deposits = Math.addExact(deposits, amount);
+                } else {
+                    withdrawals = Math.addExact(withdrawals, amount);
+                }
+                operations++;
+                settled++;
+            } else {
+                pendingMovement = deposit ? Math.addExact(pendingMovement, amount) : Math.subtractExact(pendingMovement, amount);
+            }
+        }
+
+        private long movement() {
+            return Math.addExact(Math.subtractExact(deposits, withdrawals), pendingMovement);
+        }
+    }
+
+    /**
+     * The reconciliation of some ranges, merged in the order of the ranges
+     */
+    private class Totals {
+        private final List<BalanceDrift> drifts = new ArrayList<>();
+        private long accounts;
+        private long qrChecks;
+        private long operations;
+        private long drifted;
+        private long balance;
+        private long openingBalance;
+        private long deposits;
+        private long withdrawals;
+
+        private void add(LedgerOwnerType ownerType, Ledger ledger) {
+            operations += ledger.read;
+            if (!ledger.checkpointed) {
+                ledger.openingBalance = Math.subtractExact(ledger.balance, ledger.movement());
+            }
+            long expected = Math.addExact(ledger.openingBalance, ledger.movement());
+            if (expected != ledger.balance) {
+                drifted++;
+                if (drifts.size() < maxReportedDrifts) {
+                    drifts.add(new BalanceDrift(ownerType, ledger.ownerId, Money.ofMinorUnits(ledger.balance),
+                            Money.ofMinorUnits(expected), Money.ofMinorUnits(ledger.balance - expected)));
+                }
+            }
+
+            if (ownerType == LedgerOwnerType.QR_CHECK) {
+                qrChecks++;
+                return;
+            }
+            accounts++;
+            balance = Math.addExact(balance, ledger.balance);
+            openingBalance = Math.addExact(openingBalance, ledger.openingBalance);
+            deposits = Math.addExact(deposits, ledger.deposits);
+            withdrawals = Math.addExact(withdrawals, ledger.withdrawals);
+        }
+
+        private void merge(Totals other) {
+            for (var drift : other.drifts) {
+                if (drifts.size() == maxReportedDrifts) break;
+                drifts.add(drift);
+            }
+            accounts += other.accounts;
+            qrChecks += other.qrChecks;
+            operations += other.operations;
+            drifted += other.drifted;
+            balance = Math.addExact(balance, other.balance);
+            openingBalance = Math.addExact(openingBalance, other.openingBalance);
+            deposits = Math.addExact(deposits, other.deposits);
+            withdrawals = Math.addExact(withdrawals, other.withdrawals);
+        }
+
+        private ReconciliationReport report(long durationMillis) {
+            return new ReconciliationReport(accounts, qrChecks, operations, drifted, drifts, drifted > drifts.size(),
+                    Money.ofMinorUnits(balance), Money.ofMinorUnits(openingBalance), Money.ofMinorUnits(deposits),
+                    Money.ofMinorUnits(withdrawals), Money.ofMinorUnits(deposits - withdrawals), durationMillis);
+        }
+    }
+}
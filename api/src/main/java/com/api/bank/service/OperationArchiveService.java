@@ -0,0 +1,175 @@
+package com.api.bank.service;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.TimeOrderedUUID;
+import com.api.bank.model.enums.OperationStatus;
+import com.api.bank.model.enums.OperationType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is responsible for the archive of the operations. The CLOSED and CANCELED operations older than the
+ * horizon are moved from the operation table to the operation_archive table by batches, one database transaction
+ * per batch, and the balance movement they carry is added to the snapshot of their account (account_snapshot).
+ * The statements read both tables (see OperationStatementRepositoryImpl), and the balance movement of an account
+ * is the one of its snapshot plus the one of its operations not archived yet.
+ * The PENDING operations are never archived.
+ */
+@Service
+public class OperationArchiveService {
+    private static final String COLUMNS = "id, created_at, modified_at, amount, label, operation_date, operation_id,"
+            + " operation_status, operation_type, payment_method, account_id, qr_check_id";
+    // No order: the batch is read on the (operation_status, operation_date) index without sorting the whole backlog
+    private static final String SELECT_BATCH = "select id, account_id, amount, operation_type from operation"
+            + " where operation_status = ? and operation_date < ? limit ?";
+    private static final String UPDATE_SNAPSHOT = "update account_snapshot set cut_off = ?, archived_movement = archived_movement + ?,"
+            + " archived_operations = archived_operations + ?, modified_at = ? where account_id = ?";
+    private static final String INSERT_SNAPSHOT = "insert into account_snapshot (account_id, cut_off, archived_movement, archived_operations, modified_at)"
+            + " values (?, ?, ?, ?, ?)";
+    private static final String SELECT_SNAPSHOT_MOVEMENT = "select archived_movement from account_snapshot where account_id = ?";
+    private static final String SELECT_MOVEMENT = "select coalesce(sum(case when operation_type = 'DEPOSIT' then amount else -amount end), 0)"
+            + " from operation where account_id = ? and operation_status = 'CLOSED'";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int horizonDays;
+    private final int batchSize;
+    private final long interval;
+
+    private ScheduledExecutorService archiver;
+
+    @Autowired
+    public OperationArchiveService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                   @Value("${bank.archive.enabled}") boolean enabled,
+                                   @Value("${bank.archive.horizon-days}") int horizonDays,
+                                   @Value("${bank.archive.batch-size}") int batchSize,
+                                   @Value("${bank.archive.interval}") long interval) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.horizonDays = horizonDays;
+        this.batchSize = batchSize;
+        this.interval = interval;
+    }
+
+    /**
+     * Start the archiving thread, which archives the operations older than the horizon at each interval
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+
+        archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "bank-operation-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        archiver.scheduleWithFixedDelay(this::archiveExpired, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (archiver != null) archiver.shutdownNow();
+    }
+
+    private void archiveExpired() {
+        try {
+            archive(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(horizonDays)));
+        } catch (RuntimeException e) {
+            // Kept for the next run: a failed batch is rolled back, the operations stay in the operation table
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Archive the CLOSED and CANCELED operations older than a date
+     *
+     * @param cutOff The date before which the operations are archived
+     * @return The number of operations archived
+     */
+    public long archive(Date cutOff) {
+        long archived = 0;
+        for (var status : List.of(OperationStatus.CLOSED, OperationStatus.CANCELED)) {
+            int moved;
+            do {
+                moved = transactionTemplate.execute(transactionStatus -> archiveBatch(status, cutOff));
+                archived += moved;
+            } while (moved == batchSize);
+        }
+        return archived;
+    }
+
+    /**
+     * Supply the balance movement of all the CLOSED operations of an account, archived or not:
+     * the deposits minus the withdrawals
+     *
+     * @param accountId The account
+     * @return The movement of the snapshot of the account plus the one of its operations not archived
+     */
+    public Money getClosedMovement(UUID accountId) {
+        var id = TimeOrderedUUID.toBytes(accountId);
+        var snapshot = jdbcTemplate.queryForList(SELECT_SNAPSHOT_MOVEMENT, Long.class, id);
+        long movement = jdbcTemplate.queryForObject(SELECT_MOVEMENT, Long.class, id);
+        return Money.ofMinorUnits(Math.addExact(movement, snapshot.isEmpty() ? 0 : snapshot.get(0)));
+    }
+
+    /**
+     * Move a batch of operations to the archive and add their movement to the snapshots of their accounts
+     *
+     * @param status The status of the operations
+     * @param cutOff The date before which the operations are archived
+     * @return The number of operations moved, less than the batch size for the last batch
+     */
+    private int archiveBatch(OperationStatus status, Date cutOff) {
+        var cutOffDate = new Timestamp(cutOff.getTime());
+        List<byte[]> ids = new ArrayList<>(batchSize);
+        Map<UUID, long[]> snapshots = new HashMap<>(); // Movement and number of operations, by account
+        jdbcTemplate.query(SELECT_BATCH, row -> {
+            ids.add(row.getBytes("id"));
+            var accountId = TimeOrderedUUID.fromBytes(row.getBytes("account_id"));
+            if (accountId == null) return;
+
+            var snapshot = snapshots.computeIfAbsent(accountId, id -> new long[2]);
+            if (status == OperationStatus.CLOSED) {
+                long amount = row.getLong("amount");
+                snapshot[0] += OperationType.DEPOSIT.name().equals(row.getString("operation_type")) ? amount : -amount;
+            }
+            snapshot[1]++;
+        }, status.name(), cutOffDate, batchSize);
+        if (ids.isEmpty()) return 0;
+
+        var in = " where id in (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+        var idParameters = ids.toArray();
+        jdbcTemplate.update("insert into operation_archive (" + COLUMNS + ") select " + COLUMNS + " from operation" + in, idParameters);
+
+        var now = new Timestamp(System.currentTimeMillis());
+        snapshots.forEach((accountId, snapshot) -> {
+            var id = TimeOrderedUUID.toBytes(accountId);
+            if (jdbcTemplate.update(UPDATE_SNAPSHOT, cutOffDate, snapshot[0], snapshot[1], now, id) == 0) {
+                jdbcTemplate.update(INSERT_SNAPSHOT, id, cutOffDate, snapshot[0], snapshot[1], now);
+            }
+        });
+
+        jdbcTemplate.update("delete from operation" + in, idParameters);
+        return ids.size();
+    }
+}
@@ -3,14 +3,20 @@ package com.api.bank.service;
 import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.entity.Account;
 import com.api.bank.model.entity.Shop;
+import com.api.bank.model.projection.ShopView;
 import com.api.bank.repository.AccountRepository;
 import com.api.bank.repository.ClientRepository;
 import com.api.bank.repository.ShopRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.UUID;
 
 @Service
@@ -18,29 +24,65 @@ public class ShopService extends GenericService<Shop> {
     private final PasswordEncoder passwordEncoder;
     private final ShopRepository shopRepository;
     private final AccountRepository accountRepository;
+    private final AccountResolutionCache resolutionCache;
 
     @Autowired
     public ShopService(
             PasswordEncoder passwordEncoder,
             ShopRepository shopRepository,
-            AccountRepository accountRepository
+            AccountRepository accountRepository,
+            AccountResolutionCache resolutionCache
     ) {
         super(shopRepository);
         this.passwordEncoder = passwordEncoder;
         this.shopRepository = shopRepository;
         this.accountRepository = accountRepository;
+        this.resolutionCache = resolutionCache;
     }
 
 
     /**
-     * Get Shop by id (UUID)
+     * Get a page of the Shop views, in a single query without loading the entities nor counting them
+     * @param after The id of the last Shop of the previous page, to read the Shops in order of creation; null to read the page of the Pageable
+     * @param pageable The number, the size and the sort of the page
+     * @return the page of the Shop views (see ListPage)
+     */
+    @Transactional(readOnly = true)
+    public ObjectResponse getViews(UUID after, Pageable pageable) {
+        try {
+            var views = after == null
+                    ? shopRepository.findViews(pageable)
+                    : shopRepository.findViewsAfter(after, PageRequest.ofSize(pageable.getPageSize()));
+            return getPage(views, ShopView::id);
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            return new ObjectResponse("Error", HttpStatus.CONFLICT);
+        }
+    }
+
+    /**
+     * Write all the Shop views as NDJSON (one JSON object per line), while they are read from the database
+     * @param output The stream the views are written to
+     * @throws IOException If the views cannot be written
+     */
+    @Transactional(readOnly = true)
+    public void writeViews(OutputStream output) throws IOException {
+        try (var views = shopRepository.streamViews()) {
+            writeNdjson(views, output);
+        }
+    }
+
+    /**
+     * Get the view of a Shop by id (UUID), in a single query without loading the entity
      * @param id Shop UUID
-     * @return the Shop if found, exception otherwise
+     * @return the view of the Shop if found, exception otherwise
      */
-    public ObjectResponse getShopById(String id) {
+    @Transactional(readOnly = true)
+    public ObjectResponse getViewById(String id) {
         try {
-            Shop shop = shopRepository.findById(UUID.fromString(id)).get();
-            return new ObjectResponse("Shop found.", shop, HttpStatus.OK);
+            return shopRepository.findViewById(UUID.fromString(id))
+                    .map(shop -> new ObjectResponse("Shop found.", shop, HttpStatus.OK))
+                    .orElseGet(() -> new ObjectResponse("Shop not found.", HttpStatus.NOT_FOUND));
         } catch (IllegalArgumentException e) {
             return new ObjectResponse(e.getMessage(), HttpStatus.NOT_FOUND);
         } catch (Exception e) {
@@ -95,8 +137,10 @@ public class ShopService extends GenericService<Shop> {
     public ObjectResponse deleteShopStackByUUID(String id) {
         try {
             // Delete shop
+            var shopName = shopRepository.findById(UUID.fromString(id)).map(Shop::getName).orElse(null);
             shopRepository.deleteById(UUID.fromString(id));
             shopRepository.flush();
+            resolutionCache.invalidateOwnerName(shopName);
 
             // Delete account
             Account account = accountRepository.findAccountByClient_Id(UUID.fromString(id));
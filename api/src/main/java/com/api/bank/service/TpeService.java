@@ -2,11 +2,17 @@ package com.api.bank.service;
 
 import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.entity.Tpe;
+import com.api.bank.model.projection.TpeView;
 import com.api.bank.repository.TpeRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.UUID;
 
 @Service
@@ -21,14 +27,47 @@ public class TpeService extends GenericService<Tpe> {
     }
 
     /**
-     * Get Tpe by id (UUID)
+     * Get a page of the Tpe views, in a single query without loading the entities nor counting them
+     * @param after The id of the last Tpe of the previous page, to read the Tpes in order of creation; null to read the page of the Pageable
+     * @param pageable The number, the size and the sort of the page
+     * @return the page of the Tpe views (see ListPage)
+     */
+    @Transactional(readOnly = true)
+    public ObjectResponse getViews(UUID after, Pageable pageable) {
+        try {
+            var views = after == null
+                    ? tpeRepository.findViews(pageable)
+                    : tpeRepository.findViewsAfter(after, PageRequest.ofSize(pageable.getPageSize()));
+            return getPage(views, TpeView::id);
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            return new ObjectResponse("Error", HttpStatus.CONFLICT);
+        }
+    }
+
+    /**
+     * Write all the Tpe views as NDJSON (one JSON object per line), while they are read from the database
+     * @param output The stream the views are written to
+     * @throws IOException If the views cannot be written
+     */
+    @Transactional(readOnly = true)
+    public void writeViews(OutputStream output) throws IOException {
+        try (var views = tpeRepository.streamViews()) {
+            writeNdjson(views, output);
+        }
+    }
+
+    /**
+     * Get the view of a Tpe by id (UUID), in a single query without loading the entity
      * @param id Tpe UUID
-     * @return the Tpe if found, exception otherwise
+     * @return the view of the Tpe if found, exception otherwise
      */
-    public ObjectResponse getTpeById(String id) {
+    @Transactional(readOnly = true)
+    public ObjectResponse getViewById(String id) {
         try {
-            Tpe tpe = tpeRepository.findById(UUID.fromString(id)).get();
-            return new ObjectResponse("TPE found.", tpe, HttpStatus.OK);
+            return tpeRepository.findViewById(UUID.fromString(id))
+                    .map(tpe -> new ObjectResponse("TPE found.", tpe, HttpStatus.OK))
+                    .orElseGet(() -> new ObjectResponse("Tpe not found.", HttpStatus.NOT_FOUND));
         } catch (IllegalArgumentException e) {
             return new ObjectResponse(e.getMessage(), HttpStatus.NOT_FOUND);
         } catch (Exception e) {
@@ -19,6 +19,7 @@ import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
 import java.security.Principal;
+import java.util.concurrent.CompletableFuture;
 
 @Controller
 public class TpeManagerController {
@@ -93,44 +94,24 @@ public class TpeManagerController {
                         transactionRequest.getPaymentMethod()
                     );
 
-                    TransactionResult transactionResult = bankManager.shoppingTransaction(transaction);
-
-                    if (transactionResult.getTransactionStatus() == TransactionStatus.SUCCESS) {
-                        // Remove transaction from Redis
-                        tpeManagerService.deleteTransactionByTransactionId(transactionRequest.getId());
-
-                        // Make the Tpe available for a new transaction
-                        TpeManager tpeManager = new TpeManager(user.getName(), sessionId);
-                        tpeManagerService.addTpeRedis(tpeManager);
-
-                        // Send transaction done message to TPE
-                        smt.convertAndSendToUser(
-                                tpeManager.getUsername(),
-                                destinationGenerator.getTpeTransactionStatusDest(sessionId),
-                                new Message(transactionResult.getMessage(), transactionResult.getTransactionStatus())
-                        );
-
-                        // Send transaction done message to Shop
-                        smt.convertAndSendToUser(
-                                transactionRequest.getShopUsername(),
-                                destinationGenerator.getShopTransactionStatusDest(transactionRequest.getShopSessionId()),
-                                new Message(transactionResult.getMessage(), transactionResult.getTransactionStatus())
-                        );
-                    } else {
-                        tpeManagerService.deleteTransactionByTransactionId(transactionRequest.getId());
-                        // Send transaction error message to TPE
-                        smt.convertAndSendToUser(
-                                user.getName(),
-                                destinationGenerator.getTpeTransactionStatusDest(sessionId),
-                                new Message(transactionResult.getMessage(), transactionResult.getTransactionStatus())
-                        );
-                        // Send transaction error message to Shop
-                        smt.convertAndSendToUser(
-                                transactionRequest.getShopUsername(),
-                                destinationGenerator.getShopTransactionStatusDest(transactionRequest.getShopSessionId()),
-                                new Message("Error while processing transaction.", TransactionStatus.FAILED)
-                        );
+                    // The result is sent from the completion callback, so the inbound thread is not held during the transaction
+                    String tpeUsername = user.getName();
+                    CompletableFuture<TransactionResult> result;
+                    try {
+                        result = bankManager.shoppingTransactionAsync(transaction);
+                    } catch (RuntimeException e) {
+                        result = CompletableFuture.failedFuture(e);
                     }
+                    result.whenComplete((transactionResult, e) -> {
+                        if (e == null) {
+                            sendTransactionResult(tpeUsername, sessionId, transactionRequest, transactionResult);
+                            return;
+                        }
+                        // A transaction which failed without result is reported as failed, so the TPE and the Shop still get a reply
+                        e.printStackTrace();
+                        sendTransactionResult(tpeUsername, sessionId, transactionRequest,
+                                new TransactionResult(TransactionStatus.FAILED, transactionRequest.getId(), TransactionStatus.FAILED.getMessage()));
+                    });
                 } else {
                     tpeManagerService.deleteTransactionByTransactionId(transactionRequest.getId());
                     // Send transaction error message to TPE
@@ -210,4 +191,57 @@ public class TpeManagerController {
             );
         }
     }
+
+    /**
+     * Send the result of a completed transaction to the TPE and to the related Shop
+     * It is called by a completion thread of the bank executor once the transaction is done
+     *
+     * @param tpeUsername the TPE user that completed the transaction
+     * @param sessionId the session id of the TPE user
+     * @param transactionRequest the transaction request stored in Redis
+     * @param transactionResult the result of the transaction
+     */
+    private void sendTransactionResult(
+            String tpeUsername,
+            String sessionId,
+            TransactionRequest transactionRequest,
+            TransactionResult transactionResult
+    ) {
+        if (transactionResult.getTransactionStatus() == TransactionStatus.SUCCESS) {
+            // Remove transaction from Redis
+            tpeManagerService.deleteTransactionByTransactionId(transactionRequest.getId());
+
+            // Make the Tpe available for a new transaction
+            TpeManager tpeManager = new TpeManager(tpeUsername, sessionId);
+            tpeManagerService.addTpeRedis(tpeManager);
+
+            // Send transaction done message to TPE
+            smt.convertAndSendToUser(
+                    tpeManager.getUsername(),
+                    destinationGenerator.getTpeTransactionStatusDest(sessionId),
+                    new Message(transactionResult.getMessage(), transactionResult.getTransactionStatus())
+            );
+
+            // Send transaction done message to Shop
+            smt.convertAndSendToUser(
+                    transactionRequest.getShopUsername(),
+                    destinationGenerator.getShopTransactionStatusDest(transactionRequest.getShopSessionId()),
+                    new Message(transactionResult.getMessage(), transactionResult.getTransactionStatus())
+            );
+        } else {
+            tpeManagerService.deleteTransactionByTransactionId(transactionRequest.getId());
+            // Send transaction error message to TPE
+            smt.convertAndSendToUser(
+                    tpeUsername,
+                    destinationGenerator.getTpeTransactionStatusDest(sessionId),
+                    new Message(transactionResult.getMessage(), transactionResult.getTransactionStatus())
+            );
+            // Send transaction error message to Shop
+            smt.convertAndSendToUser(
+                    transactionRequest.getShopUsername(),
+                    destinationGenerator.getShopTransactionStatusDest(transactionRequest.getShopSessionId()),
+                    new Message("Error while processing transaction.", TransactionStatus.FAILED)
+            );
+        }
+    }
 }
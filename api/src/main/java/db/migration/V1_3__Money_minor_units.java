@@ -0,0 +1,85 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store the balances and the amounts as a whole number of minor units (cents) instead of DOUBLE (com.api.bank.model.Money).
+ * A Java migration, because the values must be rounded as Money.of(double) rounds them: half to even, from the shortest
+ * decimal representation of the double. ROUND in SQL rounds half away from zero, from the binary value.
+ * <p>
+ * The values are updated in the transaction of the migration, then MariaDB commits each ALTER TABLE on its own:
+ * a failure of the updates leaves the database unchanged, a failure of an ALTER TABLE must be repaired by hand.
+ */
+public class V1_3__Money_minor_units extends BaseJavaMigration {
+    // The money column of each table
+    private static final Map<String, String> COLUMNS = Map.of("account", "sold", "qr_check", "sold_amount", "operation", "amount");
+    private static final int BATCH_SIZE = 1000;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        var connection = context.getConnection();
+        for (var column : COLUMNS.entrySet()) {
+            convert(connection, column.getKey(), column.getValue());
+        }
+        try (var statement = connection.createStatement()) {
+            for (var column : COLUMNS.entrySet()) {
+                statement.execute("alter table " + column.getKey() + " modify " + column.getValue() + " bigint not null");
+            }
+        }
+    }
+
+    /**
+     * Replace the amounts of a column by their minor units, still stored as DOUBLE (exact up to 2^53) until the type changes
+     *
+     * @param connection The connection of the migration
+     * @param table      The table holding the column
+     * @param column     The column of the amounts
+     * @throws SQLException If the amounts cannot be read or written
+     */
+    private void convert(Connection connection, String table, String column) throws SQLException {
+        var select = "select id, " + column + " from " + table + " where id > ? order by id limit " + BATCH_SIZE;
+        var update = "update " + table + " set " + column + " = ? where id = ?";
+        var lastId = "";
+        while (true) {
+            List<String> ids = new ArrayList<>();
+            List<Long> minorUnits = new ArrayList<>();
+            try (var statement = connection.prepareStatement(select)) {
+                statement.setString(1, lastId);
+                try (var rows = statement.executeQuery()) {
+                    while (rows.next()) {
+                        ids.add(rows.getString(1));
+                        minorUnits.add(toMinorUnits(rows.getDouble(2)));
+                    }
+                }
+            }
+            if (ids.isEmpty()) return;
+
+            try (var statement = connection.prepareStatement(update)) {
+                for (int i = 0; i < ids.size(); i++) {
+                    statement.setDouble(1, minorUnits.get(i));
+                    statement.setString(2, ids.get(i));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            lastId = ids.get(ids.size() - 1);
+        }
+    }
+
+    /**
+     * @param amount An amount in major units
+     * @return Its minor units, rounded as Money.of(double) rounds them
+     */
+    static long toMinorUnits(double amount) {
+        return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+    }
+}
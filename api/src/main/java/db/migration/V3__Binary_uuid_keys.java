@@ -0,0 +1,131 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Store the ids of the entities (com.api.bank.model.entity.Base) and the foreign keys to them as BINARY(16)
+ * instead of VARCHAR(36). The existing ids keep their value: the 36 characters are replaced by the 16 bytes they encode.
+ * A Java migration, because the foreign keys of a database created by Hibernate have generated names,
+ * which are read from the metadata of the database before they are dropped.
+ * <p>
+ * MariaDB commits every ALTER TABLE on its own, so this migration is not transactional, and the update of the ids
+ * cannot run twice. A failure halfway leaves a half-converted schema which Flyway can neither undo nor retry:
+ * it must be repaired by hand, or restored from a backup. Every id is therefore checked to be a UUID as text
+ * before the first statement which changes the schema.
+ */
+public class V3__Binary_uuid_keys extends BaseJavaMigration {
+    private static final List<String> TABLES = List.of("account", "card", "client", "ledger_checkpoint", "operation",
+            "qr_check", "shop", "tpe", "transaction_record");
+
+    // The foreign key columns to the converted ids, by table, and the table they reference
+    private static final Map<String, Map<String, String>> FOREIGN_KEYS = Map.of(
+            "account", Map.of("card_id", "card", "client_id", "client"),
+            "operation", Map.of("account_id", "account", "qr_check_id", "qr_check"));
+
+    private static final String UUID_PATTERN = "^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$";
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        var connection = context.getConnection();
+        try (var statement = connection.createStatement()) {
+            for (var table : TABLES) {
+                checkUUIDs(statement, table, "id");
+                for (var column : FOREIGN_KEYS.getOrDefault(table, Map.of()).keySet()) {
+                    checkUUIDs(statement, table, column);
+                }
+            }
+
+            for (var table : FOREIGN_KEYS.keySet()) {
+                dropForeignKeys(connection, statement, table);
+            }
+
+            // Raw bytes first, so that the text of the ids can be replaced by the bytes it encodes in place
+            for (var table : TABLES) {
+                statement.execute("alter table " + table + " modify id varbinary(36) not null");
+                for (var column : FOREIGN_KEYS.getOrDefault(table, Map.of()).keySet()) {
+                    statement.execute("alter table " + table + " modify " + column + " varbinary(36)");
+                }
+            }
+            for (var table : TABLES) {
+                var update = new StringBuilder("update ").append(table).append(" set id = ").append(unhex("id"));
+                for (var column : FOREIGN_KEYS.getOrDefault(table, Map.of()).keySet()) {
+                    update.append(", ").append(column).append(" = ").append(unhex(column));
+                }
+                statement.execute(update.toString());
+            }
+            for (var table : TABLES) {
+                statement.execute("alter table " + table + " modify id binary(16) not null");
+                for (var column : FOREIGN_KEYS.getOrDefault(table, Map.of()).keySet()) {
+                    statement.execute("alter table " + table + " modify " + column + " binary(16)");
+                }
+            }
+
+            for (var foreignKeys : FOREIGN_KEYS.entrySet()) {
+                var table = foreignKeys.getKey();
+                for (var foreignKey : foreignKeys.getValue().entrySet()) {
+                    var referenced = foreignKey.getValue();
+                    statement.execute("alter table " + table + " add constraint fk_" + table + "_" + referenced
+                            + " foreign key (" + foreignKey.getKey() + ") references " + referenced + " (id)");
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that a column only holds UUIDs as text, before anything is converted
+     *
+     * @param statement The statement running the migration
+     * @param table     The table holding the column
+     * @param column    The column holding UUIDs as text
+     * @throws SQLException          If the column cannot be read
+     * @throws IllegalStateException If a value of the column is not a UUID of 36 characters
+     */
+    private void checkUUIDs(Statement statement, String table, String column) throws SQLException {
+        try (var invalid = statement.executeQuery("select count(*) from " + table + " where " + column + " is not null"
+                + " and (char_length(" + column + ") <> 36 or " + column + " not regexp '" + UUID_PATTERN + "')")) {
+            invalid.next();
+            var count = invalid.getLong(1);
+            if (count > 0) {
+                throw new IllegalStateException(count + " values of " + table + "." + column
+                        + " are not UUIDs, nothing was converted");
+            }
+        }
+    }
+
+    /**
+     * Drop the foreign keys of a table, whatever their name
+     *
+     * @param connection The connection of the migration
+     * @param statement  The statement running the migration
+     * @param table      The table holding the foreign keys
+     * @throws SQLException If the foreign keys cannot be read or dropped
+     */
+    private void dropForeignKeys(Connection connection, Statement statement, String table) throws SQLException {
+        Set<String> names = new LinkedHashSet<>();
+        try (var foreignKeys = connection.getMetaData().getImportedKeys(connection.getCatalog(), null, table)) {
+            while (foreignKeys.next()) {
+                names.add(foreignKeys.getString("FK_NAME"));
+            }
+        }
+        for (var name : names) {
+            statement.execute("alter table " + table + " drop foreign key " + name);
+        }
+    }
+
+    /**
+     * @param column A column holding a UUID as text
+     * @return The expression of the 16 bytes of the UUID
+     */
+    private String unhex(String column) {
+        return "unhex(replace(" + column + ", '-', ''))";
+    }
+}
@@ -0,0 +1,8 @@
+-- Checkpoint of the ledger engine (LedgerWriter): the sequence of the last journal entry written to the database
+create table ledger_checkpoint (
+    id VARCHAR(36) not null,
+    created_at datetime,
+    modified_at datetime,
+    sequence bigint not null,
+    primary key (id)
+) engine=InnoDB;
@@ -0,0 +1,12 @@
+-- Results of the executed transactions by operation id (IdempotencyStore), returned again to the retries
+create table transaction_record (
+    id VARCHAR(36) not null,
+    created_at datetime,
+    modified_at datetime,
+    message varchar(255),
+    operation_id varchar(36) not null,
+    transaction_status varchar(255),
+    primary key (id)
+) engine=InnoDB;
+
+alter table transaction_record add constraint idx_transaction_record_operation_id unique (operation_id);
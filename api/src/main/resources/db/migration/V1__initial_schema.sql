@@ -0,0 +1,97 @@
+-- Schema of the entities as generated by Hibernate on MariaDB (ddl-auto) before the migrations owned it.
+-- A database created by ddl-auto is baselined at this version instead of running it (spring.flyway.baseline-on-migrate),
+-- so this script must stay the schema of that time: every later change is a migration of its own.
+
+create table account (
+    id VARCHAR(36) not null,
+    created_at datetime,
+    modified_at datetime,
+    sold double precision not null,
+    card_id VARCHAR(36),
+    client_id VARCHAR(36),
+    primary key (id)
+) engine=InnoDB;
+
+create table card (
+    id VARCHAR(36) not null,
+    created_at datetime,
+    modified_at datetime,
+    card_id varchar(50) not null,
+    expiration_date datetime,
+    primary key (id)
+) engine=InnoDB;
+
+create table client (
+    id VARCHAR(36) not null,
+    created_at datetime,
+    modified_at datetime,
+    firstname varchar(100),
+    lastname varchar(100),
+    organisation_name varchar(100),
+    social_reason integer not null,
+    primary key (id)
+) engine=InnoDB;
+
+create table manager (
+    id VARCHAR(36) not null,
+    password varchar(255),
+    username varchar(255),
+    primary key (id)
+) engine=InnoDB;
+
+create table operation (
+    id VARCHAR(36) not null,
+    created_at datetime,
+    modified_at datetime,
+    amount double precision not null,
+    label varchar(255),
+    operation_date datetime,
+    operation_id varchar(36) not null,
+    operation_status varchar(255),
+    operation_type varchar(255),
+    payment_method varchar(255),
+    account_id VARCHAR(36),
+    qr_check_id VARCHAR(36),
+    primary key (id)
+) engine=InnoDB;
+
+create table qr_check (
+    id VARCHAR(36) not null,
+    created_at datetime,
+    modified_at datetime,
+    check_token varchar(255) not null,
+    nb_day_of_validity integer not null,
+    sold_amount double precision not null,
+    primary key (id)
+) engine=InnoDB;
+
+create table shop (
+    id VARCHAR(36) not null,
+    created_at datetime,
+    modified_at datetime,
+    name varchar(255) not null,
+    password varchar(255),
+    whitelisted bit,
+    primary key (id)
+) engine=InnoDB;
+
+create table tpe (
+    id VARCHAR(36) not null,
+    created_at datetime,
+    modified_at datetime,
+    android_id varchar(255) not null,
+    password varchar(255),
+    whitelisted bit,
+    primary key (id)
+) engine=InnoDB;
+
+alter table card add constraint uk_card_card_id unique (card_id);
+alter table client add constraint uk_client_organisation_name unique (organisation_name);
+alter table qr_check add constraint uk_qr_check_check_token unique (check_token);
+alter table shop add constraint uk_shop_name unique (name);
+alter table tpe add constraint uk_tpe_android_id unique (android_id);
+
+alter table account add constraint fk_account_card foreign key (card_id) references card (id);
+alter table account add constraint fk_account_client foreign key (client_id) references client (id);
+alter table operation add constraint fk_operation_account foreign key (account_id) references account (id);
+alter table operation add constraint fk_operation_qr_check foreign key (qr_check_id) references qr_check (id);
@@ -0,0 +1,22 @@
+-- Indexes of the repository finders which are not served by a primary or a unique key.
+-- The lookups by card id, check token, organisation name, shop name and android id already use the unique keys of V1,
+-- and the lookup of a transaction record by operation id the unique key of V1.2.
+-- "if not exists": a database baselined from ddl-auto may already hold the indexes declared on the entities.
+
+-- Account statements, by keyset pagination (OperationStatementRepository)
+create index if not exists idx_operation_account_date_id on operation (account_id, operation_date, id);
+-- Operations of an account by status (the CLOSED movement of an account in OperationArchiveService)
+create index if not exists idx_operation_account_status_operation_id on operation (account_id, operation_status, operation_id);
+-- Operation by its operation id, whatever its account (OperationRepository)
+create index if not exists idx_operation_operation_id on operation (operation_id);
+
+-- Account of a client and of a card (AccountRepository)
+create index if not exists idx_account_client_id on account (client_id);
+create index if not exists idx_account_card_id on account (card_id);
+
+-- Account by the last name of its client, and the client views ordered by creation (ClientRepository)
+create index if not exists idx_client_lastname on client (lastname);
+create index if not exists idx_client_created_at on client (created_at);
+
+-- Manager login (ManagerRepository)
+create index if not exists idx_manager_username on manager (username);
@@ -0,0 +1,37 @@
+-- Archive of the operations (OperationArchiveService): the CLOSED and CANCELED operations older than the archive horizon
+-- are moved from operation to operation_archive by batches, so that the operation table and its indexes only hold
+-- the recent history written and read by the transactions.
+-- The columns are the ones of operation. No foreign key: the archived rows are never written again.
+create table operation_archive (
+    id binary(16) not null,
+    created_at datetime,
+    modified_at datetime,
+    amount bigint not null,
+    label varchar(255),
+    operation_date datetime,
+    operation_id varchar(36) not null,
+    operation_status varchar(255),
+    operation_type varchar(255),
+    payment_method varchar(255),
+    account_id binary(16),
+    qr_check_id binary(16),
+    primary key (id)
+) engine=InnoDB;
+
+-- Account statements, by keyset pagination on the archived operations too (OperationStatementRepository)
+create index idx_operation_archive_account_date_id on operation_archive (account_id, operation_date, id);
+
+-- Operations to be archived, oldest first
+create index idx_operation_status_date on operation (operation_status, operation_date);
+
+-- Balance movement of the archived history of each account, updated in the transaction moving the operations:
+-- the sum of the archived CLOSED deposits minus the archived CLOSED withdrawals, and the number of archived operations,
+-- up to the cut-off date of the last archiving
+create table account_snapshot (
+    account_id binary(16) not null,
+    cut_off datetime not null,
+    archived_movement bigint not null,
+    archived_operations bigint not null,
+    modified_at datetime,
+    primary key (account_id)
+) engine=InnoDB;
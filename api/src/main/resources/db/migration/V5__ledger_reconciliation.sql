@@ -0,0 +1,19 @@
+-- Checkpoints of the ledger reconciliation (LedgerReconciliationService): for each account and each QR check, the sums
+-- of its CLOSED operations dated before reconciled_until, so that a run only reads the operations dated since.
+-- opening_balance is the balance before the first operation, recorded the first time the owner is reconciled;
+-- the balance is then expected to be the opening balance plus the deposits minus the withdrawals.
+create table ledger_reconciliation (
+    owner_id binary(16) not null,
+    owner_type varchar(16) not null,
+    opening_balance bigint not null,
+    reconciled_deposits bigint not null,
+    reconciled_withdrawals bigint not null,
+    reconciled_operations bigint not null,
+    reconciled_until datetime not null,
+    modified_at datetime,
+    primary key (owner_type, owner_id)
+) engine=InnoDB;
+
+-- Operations of the QR checks written since their last reconciliation, in the operations and in the archive
+create index idx_operation_qr_check_date_id on operation (qr_check_id, operation_date, id);
+create index idx_operation_archive_qr_check_date_id on operation_archive (qr_check_id, operation_date, id);
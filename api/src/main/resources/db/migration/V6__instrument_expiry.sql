@@ -0,0 +1,13 @@
+-- Expiration date of the QR checks, stored at their creation instead of being computed from the current date.
+-- The existing checks expire nb_day_of_validity days after their creation.
+alter table qr_check add column expiration_date datetime;
+update qr_check set expiration_date = timestampadd(day, nb_day_of_validity, coalesce(created_at, current_timestamp));
+alter table qr_check modify expiration_date datetime not null;
+
+-- Expired checks and cards, marked by batches by the InstrumentExpiryService
+alter table qr_check add column expired bit not null default 0;
+alter table card add column expired bit not null default 0;
+
+-- Checks and cards expired but not marked yet, read by the InstrumentExpiryService
+create index idx_qr_check_expired_expiration_date on qr_check (expired, expiration_date);
+create index idx_card_expired_expiration_date on card (expired, expiration_date);
@@ -1,5 +1,10 @@
 $(document).ready(function() {
-    const url = `/bank/shop`;
+    loadShops(null);
+});
+
+// The shops are read page by page, each page starting after the last shop of the previous one
+const loadShops = (after) => {
+    const url = `/bank/shop` + (after ? `?after=${after}` : "?sort=id");
     $.ajax({
         type: "GET",
         headers: {
@@ -9,14 +14,17 @@ $(document).ready(function() {
         url: url,
         contentType: "application/json; charset=utf-8",
         success: (response) => {
-            let clients = response.data;
+            let clients = response.data.items;
             let select = $("#client");
             clients.map((client) => {
                 select.append(`<option value="${client.id}">${client.name}</option>`);
             });
+            if (response.data.hasNext) {
+                loadShops(response.data.next);
+            }
         },
     });
-});
+}
 
 $("#generate-qr-code").click(function() {
     let error = $("#error");
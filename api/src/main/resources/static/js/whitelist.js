@@ -1,5 +1,11 @@
 const refreshList = (entity) => {
-    const url = `/bank/${entity}`;
+    $("#list > tr").remove();
+    loadPage(entity, null);
+}
+
+// The list is read page by page, each page starting after the last element of the previous one
+const loadPage = (entity, after) => {
+    const url = `/bank/${entity}` + (after ? `?after=${after}` : "?sort=id");
     $.ajax({
       type: "GET",
       headers: {
@@ -9,7 +15,10 @@ const refreshList = (entity) => {
       url: url,
       contentType: "application/json; charset=utf-8",
       success: (response) => {
-          updateList(response.data);
+          appendList(response.data.items);
+          if (response.data.hasNext) {
+              loadPage(entity, response.data.next);
+          }
       },
     });
 }
@@ -70,8 +79,7 @@ const createTdSwitch = (entity, status, id) => {
     return td;
 }
 
-const updateList = (list) => {
+const appendList = (list) => {
     let table = $("#list");
-    $("#list > tr").remove();
     list.map((data) => table.append(createTr(data)));
 }
@@ -1,22 +1,38 @@
 package com.api.bank;
 
 import com.api.bank.model.BankConstants;
+import com.api.bank.model.Money;
 import com.api.bank.model.ObjectResponse;
 import com.api.bank.model.entity.Account;
 import com.api.bank.model.entity.Card;
 import com.api.bank.model.entity.Client;
+import com.api.bank.model.enums.ImportFormat;
 import com.api.bank.model.enums.SocialReasonStatus;
+import com.api.bank.model.TimeOrderedUUID;
+import com.api.bank.model.projection.AccountView;
+import com.api.bank.model.projection.ClientView;
+import com.api.bank.model.projection.ListPage;
+import com.api.bank.service.AccountImportService;
 import com.api.bank.service.AccountService;
+import com.api.bank.service.ClientService;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -28,6 +44,10 @@ public class AccountTests {
 
     @Autowired
     private AccountService accountService;
+    @Autowired
+    private AccountImportService importService;
+    @Autowired
+    private ClientService clientService;
     public static boolean started = false;
     private final static String SUCCESS = "Success";
     public final static UUID ACCOUNT_ID = UUID.fromString("19ce4597-642a-432c-aac1-e26dcfaaa8d9");
@@ -64,7 +84,26 @@ public class AccountTests {
         assertEquals(ACCOUNT_ID, ((Account) res.getData()).getId());
         assertEquals( CLIENT_ID, ((Account) res.getData()).getClient().getId());
         assertEquals(CARD_ID.toString(), ((Account) res.getData()).getCard().getCardId());
-        assertEquals(100000, ((Account) res.getData()).getSold() );
+        assertEquals(Money.of(100000), ((Account) res.getData()).getSold() );
+    }
+
+    //Get the view of the account created and check it holds the ids of its client and its card
+    @Test
+    void testAccountView() {
+
+        //Arrange
+        ObjectResponse res = null;
+
+        //Act
+        res = accountService.getViewById(ACCOUNT_ID.toString());
+
+        //Assert
+        assertEquals(HttpStatus.OK, res.getStatus());
+        var view = (AccountView) res.getData();
+        assertEquals(ACCOUNT_ID, view.id());
+        assertEquals(CLIENT_ID, view.clientId());
+        assertEquals(CARD_ID.toString(), view.cardId());
+        assertEquals(HttpStatus.NOT_FOUND, accountService.getViewById(UUID.randomUUID().toString()).getStatus());
     }
 
     //Update the account created and check if the account is the same
@@ -73,7 +112,7 @@ public class AccountTests {
         //Arrange
         var account = ((Account) accountService.get(ACCOUNT_ID.toString()).getData());
         account.getClient().setLastname("TestNewUsername");
-        account.setSold(200000);
+        account.setSold(Money.of(200000));
         account.getCard().setExpirationDate(Date.from(Instant.from(DateTimeFormatter.ISO_INSTANT.parse("2050-02-13T18:51:09.840Z"))));
 
         //Act
@@ -84,7 +123,7 @@ public class AccountTests {
         assertEquals(SUCCESS, res.getMessage());
         assertTrue(res.isValid());
         assertEquals(((Account) res.getData()).getClient().getLastname(), "TestNewUsername");
-        assertEquals(((Account) res.getData()).getSold(), 200000);
+        assertEquals(((Account) res.getData()).getSold(), Money.of(200000));
         assertEquals(((Account) res.getData()).getCard().getExpirationDate(), Date.from(Instant.from(DateTimeFormatter.ISO_INSTANT.parse("2050-02-13T18:51:09.840Z"))));
     }
 
@@ -105,6 +144,83 @@ public class AccountTests {
         assertNotNull(resDeleting);
     }
 
+    //Import accounts from a CSV file, the invalid lines and the lines refused by the database are reported
+    @Test
+    void testImportAccounts() throws IOException {
+
+        //Arrange
+        var cardId = UUID.randomUUID().toString();
+        var organisationName = UUID.randomUUID().toString();
+        var csv = "socialReason,firstname,lastname,organisationName,sold,cardId,cardExpirationDate\n"
+                + "INDIVIDUAL,Ada,Lovelace,,12.34," + cardId + ",2030-01-31\n"
+                + "COMPANY,,,\"" + organisationName + ", Ltd\",0,,\n"
+                + "INDIVIDUAL,,Nobody,,5,,\n"
+                + "INDIVIDUAL,Alan,Turing,,5," + cardId + ",\n";
+
+        //Act
+        var report = importService.importAccounts(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), ImportFormat.CSV);
+        var account = accountService.getAccountByCardId(cardId);
+
+        //Assert
+        assertEquals(4, report.rows());
+        assertEquals(2, report.imported());
+        assertEquals(2, report.failed());
+        assertEquals(4, report.errors().get(0).line());
+        assertEquals(5, report.errors().get(1).line());
+        assertNotNull(account);
+        assertEquals(Money.ofMinorUnits(1234), account.getSold());
+        assertEquals("Lovelace", account.getClient().getLastname());
+        assertNotNull(accountService.getAccountByOwnerName(organisationName + ", Ltd"));
+    }
+
+    //A balance which cannot be held is reported on its line, the other lines are still imported
+    @Test
+    void testImportAccountsSoldTooLarge() throws IOException {
+
+        //Arrange
+        var cardId = UUID.randomUUID().toString();
+        var csv = "socialReason,firstname,lastname,organisationName,sold,cardId,cardExpirationDate\n"
+                + "INDIVIDUAL,Grace,Hopper,,1e20,,\n"
+                + "INDIVIDUAL,Ada,Lovelace,,12.34," + cardId + ",\n";
+
+        //Act
+        var report = importService.importAccounts(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), ImportFormat.CSV);
+
+        //Assert
+        assertEquals(2, report.rows());
+        assertEquals(1, report.imported());
+        assertEquals(1, report.failed());
+        assertEquals(2, report.errors().get(0).line());
+        assertNotNull(accountService.getAccountByCardId(cardId));
+    }
+
+    //Read the clients page after page from the id of the last client of the previous page, and as a NDJSON stream
+    @Test
+    @SuppressWarnings("unchecked")
+    void testClientViewPages() throws IOException {
+
+        //Arrange
+        List<UUID> pagedIds = new ArrayList<>();
+        var stream = new ByteArrayOutputStream();
+
+        //Act
+        var page = (ListPage<ClientView>) clientService.getViews(null, PageRequest.of(0, 2, Sort.by("id"))).getData();
+        page.items().forEach(client -> pagedIds.add(client.id()));
+        while (page.hasNext()) {
+            page = (ListPage<ClientView>) clientService.getViews(page.next(), PageRequest.ofSize(2)).getData();
+            page.items().forEach(client -> pagedIds.add(client.id()));
+        }
+        clientService.writeViews(stream);
+        var lines = stream.toString(StandardCharsets.UTF_8).lines().toList();
+
+        //Assert
+        assertTrue(pagedIds.contains(CLIENT_ID));
+        for (int i = 1; i < pagedIds.size(); i++) {
+            assertTrue(TimeOrderedUUID.compare(pagedIds.get(i - 1), pagedIds.get(i)) < 0);
+        }
+        assertEquals(pagedIds.size(), lines.size());
+    }
+
     @Test
     void testGetRealBankAccountById() {
         //Arrange
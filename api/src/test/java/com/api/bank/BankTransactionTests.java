@@ -1,21 +1,45 @@
 package com.api.bank;
 
 
+import com.api.bank.manager.BankTransactionManager;
+import com.api.bank.manager.BankTransactionMetrics;
 import com.api.bank.manager.IBankManager;
+import com.api.bank.manager.IdempotencyStore;
+import com.api.bank.manager.StripedTransactionExecutor;
 import com.api.bank.model.BankConstants;
+import com.api.bank.model.Money;
 import com.api.bank.model.ObjectResponse;
+import com.api.bank.model.TimeOrderedUUID;
 import com.api.bank.model.entity.Account;
 import com.api.bank.model.entity.Card;
 import com.api.bank.model.entity.Client;
 import com.api.bank.model.entity.QrCheck;
+import com.api.bank.model.enums.OperationStatus;
+import com.api.bank.model.enums.OperationType;
 import com.api.bank.model.enums.PaymentMethod;
 import com.api.bank.model.enums.SocialReasonStatus;
 import com.api.bank.model.enums.TransactionStatus;
+import com.api.bank.model.exception.BankTransactionException;
+import com.api.bank.model.projection.StatementCursor;
+import com.api.bank.model.reconciliation.ReconciliationReport;
+import com.api.bank.model.transaction.BankTransactionModel;
 import com.api.bank.model.transaction.QrCheckTransactionModel;
 import com.api.bank.model.transaction.ShoppingTransactionModel;
+import com.api.bank.model.transaction.TransactionResult;
 import com.api.bank.service.AccountService;
+import com.api.bank.service.AccountStatementService;
 import com.api.bank.service.CheckService;
+import com.api.bank.service.CheckTokenFilter;
+import com.api.bank.service.ClientService;
+import com.api.bank.service.InstrumentExpiryService;
+import com.api.bank.service.LedgerReconciliationService;
+import com.api.bank.service.OperationArchiveService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.hamcrest.Matchers;
+import org.hibernate.SessionFactory;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -23,16 +47,35 @@ import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
-
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
 @ExtendWith(SpringExtension.class)
@@ -46,6 +89,30 @@ public class BankTransactionTests {
     AccountService accountService;
     @Autowired
     CheckService qrCheckService;
+    @Autowired
+    BankTransactionManager bankTransactionManager;
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+    @Autowired
+    AccountStatementService statementService;
+    @Autowired
+    OperationArchiveService archiveService;
+    @Autowired
+    LedgerReconciliationService reconciliationService;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    CheckTokenFilter checkTokenFilter;
+    @Autowired
+    ClientService clientService;
+    @Autowired
+    MeterRegistry meterRegistry;
+    @Autowired
+    InstrumentExpiryService expiryService;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    IdempotencyStore idempotencyStore;
 
 
     @Test
@@ -125,24 +192,42 @@ public class BankTransactionTests {
         //Assert
         assertNotNull(res);
         assertEquals(TransactionStatus.SUCCESS, res.getTransactionStatus());
-        assertEquals(originalBankSold, bankAccountAfter.getSold() - 100d);
-        assertEquals(originalClientSold, clientAccountAfter.getSold() + 100d);
+        assertEquals(originalBankSold, bankAccountAfter.getSold().minus(Money.of(100)));
+        assertEquals(originalClientSold, clientAccountAfter.getSold().plus(Money.of(100)));
 
         assertNotNull(check);
         assertEquals(TestConst.CHECK_ID, check.getCheckToken().toString());
-        assertEquals(100d, check.getSoldAmount());
+        assertEquals(Money.of(100), check.getSoldAmount());
         assertEquals(365d, check.getNbDayOfValidity());
     }
 
+    @Test
+    void testBuyQrCodeNotEnoughMoney() {
+        //Arrange
+        var originalClientSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
+        var token = UUID.randomUUID().toString();
+        var transaction = new QrCheckTransactionModel(UUID.randomUUID().toString(), token, 1000000000, TestConst.CLIENT_ID, PaymentMethod.TRANSFER);
+
+        //Act
+        var res = bankManager.buyCheckTransaction(transaction);
+        var clientAccountAfter = accountService.getAccountByClientId(TestConst.CLIENT_ID);
+
+        //Assert
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS_ERROR, res.getTransactionStatus());
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS_ERROR.getMessage(), res.getMessage());
+        assertEquals(originalClientSold, clientAccountAfter.getSold());
+        assertNull(qrCheckService.getCheckByCheckToken(token));
+    }
+
     @Test
     void testShoppingTransactionByCard() {
 
         //Arrange
-        double originalDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
-        double originalWithdrawSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
+        Money originalDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
+        Money originalWithdrawSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
 
-        double actualDepositAccount;
-        double actualWithdrawAccount;
+        Money actualDepositAccount;
+        Money actualWithdrawAccount;
 
         ShoppingTransactionModel transaction = new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, 10, PaymentMethod.CARD);
 
@@ -153,26 +238,396 @@ public class BankTransactionTests {
 
         //Assert
         assertEquals(res.getTransactionStatus(), TransactionStatus.SUCCESS);
-        assertEquals(originalDepositSold + 10.0d, actualDepositAccount);
-        assertEquals(originalWithdrawSold - 10.0d, actualWithdrawAccount);
+        assertEquals(originalDepositSold.plus(Money.of(10)), actualDepositAccount);
+        assertEquals(originalWithdrawSold.minus(Money.of(10)), actualWithdrawAccount);
+    }
+
+    @Test
+    void testShoppingTransactionStatementCount() throws BankTransactionException {
+
+        //Arrange
+        var statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        var transaction = new BankTransactionModel(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, 10, PaymentMethod.CARD));
+        transaction.setWithdrawalAccount(accountService.getAccountByClientId(TestConst.CLIENT_ID));
+        transaction.setDepositAccount(accountService.getAccountByClientId(TestConst.SHOP_ID));
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+
+        //Act
+        bankTransactionManager.executeTransaction(transaction);
+        long statementCount = statistics.getPrepareStatementCount();
+        long insertCount = statistics.getEntityInsertCount();
+        long updateCount = statistics.getEntityUpdateCount();
+        long loadCount = statistics.getEntityLoadCount();
+        statistics.setStatisticsEnabled(false);
+
+        //Assert
+        // One guarded update per balance, and the two closed operations inserted in one batch
+        assertEquals(3, statementCount);
+        assertEquals(2, insertCount);
+        assertEquals(0, updateCount);
+        assertEquals(0, loadCount);
+    }
+
+    @Test
+    void testCardPaymentStatementCount() {
+
+        //Arrange
+        var statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        // A first payment resolves the accounts of the shop and of the card in the resolution cache
+        bankManager.shoppingTransaction(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, 10, PaymentMethod.CARD));
+        var transaction = new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, 10, PaymentMethod.CARD);
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+
+        //Act
+        var res = bankManager.shoppingTransaction(transaction);
+        long statementCount = statistics.getPrepareStatementCount();
+        long loadCount = statistics.getEntityLoadCount();
+        long updateCount = statistics.getEntityUpdateCount();
+        statistics.setStatisticsEnabled(false);
+
+        //Assert
+        // Record lookup, card check, shop account with its client, card account with its card,
+        // the two operations, the two balances and the record of the result: no check, no merge
+        assertEquals(TransactionStatus.SUCCESS, res.getTransactionStatus());
+        assertEquals(9, statementCount);
+        assertEquals(5, loadCount);
+        assertEquals(0, updateCount);
+    }
+
+    @Test
+    void testShoppingTransactionsSettledTogether() {
+
+        //Arrange
+        Money originalDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
+        Money originalWithdrawSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
+
+        List<CompletableFuture<TransactionResult>> results = new ArrayList<>();
+
+        //Act
+        for (int i = 0; i < 20; i++) {
+            var transaction = new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, 10, PaymentMethod.CARD);
+            results.add(bankManager.shoppingTransactionAsync(transaction));
+        }
+        var declined = new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, 1000000000, PaymentMethod.CARD);
+        var resDeclined = bankManager.shoppingTransactionAsync(declined).join();
+        Money actualDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
+        Money actualWithdrawSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
+
+        //Assert
+        for (CompletableFuture<TransactionResult> result : results) {
+            assertEquals(TransactionStatus.SUCCESS, result.join().getTransactionStatus());
+        }
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS_ERROR, resDeclined.getTransactionStatus());
+        assertEquals(originalDepositSold.plus(Money.of(200)), actualDepositSold);
+        assertEquals(originalWithdrawSold.minus(Money.of(200)), actualWithdrawSold);
+    }
+
+    //The balances changed since a batch loaded them are not overwritten, and the transactions they cannot pay are declined
+    @Test
+    void testBatchBalancesChangedSinceLoaded() {
+
+        //Arrange
+        var checkToken = UUID.randomUUID().toString();
+        var qrCheck = (QrCheck) qrCheckService.add(new QrCheck(30d, checkToken)).getData();
+        var bankAccount = accountService.getAccountByOwnerName(BankConstants.BANK_NAME);
+        var shopAccount = accountService.getAccountByClientId(TestConst.SHOP_ID);
+        List<BankTransactionModel> transactions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            var transaction = new BankTransactionModel(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", checkToken, 10, PaymentMethod.CHECK));
+            transaction.setWithdrawalAccount(bankAccount);
+            transaction.setDepositAccount(shopAccount);
+            transaction.setQrCheck(qrCheck);
+            transactions.add(transaction);
+        }
+        Money originalWithdrawSold = bankAccount.getSold();
+        Money originalDepositSold = shopAccount.getSold();
+        // Written by another way after the batch loaded them: the check is partly spent, the shop is credited
+        jdbcTemplate.update("update qr_check set sold_amount = 1500 where id = ?", (Object) TimeOrderedUUID.toBytes(qrCheck.getId()));
+        jdbcTemplate.update("update account set sold = sold + 700 where id = ?", (Object) TimeOrderedUUID.toBytes(shopAccount.getId()));
+
+        //Act
+        var results = bankTransactionManager.executeBatch(transactions);
+
+        //Assert
+        assertEquals(TransactionStatus.SUCCESS, results.get(0).getTransactionStatus());
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS_ERROR, results.get(1).getTransactionStatus());
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS_ERROR, results.get(2).getTransactionStatus());
+        assertEquals(Money.of(5), qrCheckService.getCheckByCheckToken(checkToken).getSoldAmount());
+        assertEquals(originalWithdrawSold.minus(Money.of(10)), accountService.getAccountByOwnerName(BankConstants.BANK_NAME).getSold());
+        assertEquals(originalDepositSold.plus(Money.of(17)), accountService.getAccountByClientId(TestConst.SHOP_ID).getSold());
+    }
+
+    //The dependent stages of a task run once its accounts are released, so they may wait for another lane using them
+    @Test
+    void testExecutorReleasesAccountsBeforeCompletion() throws Exception {
+
+        //Arrange
+        var executor = new StripedTransactionExecutor(2, 4, new BankTransactionMetrics(new SimpleMeterRegistry()));
+        var account = UUID.randomUUID();
+        var lane = executor.submit(() -> Thread.currentThread().getName(), account).get();
+        UUID otherLaneAccount;
+        do {
+            otherLaneAccount = UUID.randomUUID();
+        } while (executor.submit(() -> Thread.currentThread().getName(), otherLaneAccount).get().equals(lane));
+        var otherAccount = otherLaneAccount;
+
+        //Act
+        // The first task is still running when the dependent stage is added, so the thread completing it runs the stage
+        var result = executor.submit(() -> {
+                    Thread.sleep(100);
+                    return 1;
+                }, account)
+                .thenApply(value -> executor.submit(() -> value + 1, otherAccount, account).join())
+                .get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        //Assert
+        assertEquals(2, result);
+    }
+
+    //The dependent stages of a task run on a completion thread, so the lane goes on with its next task meanwhile
+    @Test
+    void testExecutorCompletesOffTheLane() throws Exception {
+
+        //Arrange
+        var executor = new StripedTransactionExecutor(1, 4, new BankTransactionMetrics(new SimpleMeterRegistry()));
+        var account = UUID.randomUUID();
+        var stageStarted = new CountDownLatch(1);
+        var nextTaskDone = new CountDownLatch(1);
+
+        //Act
+        var stage = executor.submit(() -> {
+                    Thread.sleep(100);
+                    return Thread.currentThread().getName();
+                }, account)
+                .thenApply(lane -> {
+                    stageStarted.countDown();
+                    try {
+                        // Waits for the next task of the lane, which would never run if the lane ran this stage
+                        return nextTaskDone.await(5, TimeUnit.SECONDS) ? lane + "|" + Thread.currentThread().getName() : "blocked";
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+        executor.submit(() -> {
+            stageStarted.await();
+            nextTaskDone.countDown();
+            return 1;
+        }, account);
+        var threads = stage.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        //Assert
+        assertEquals("bank-lane-0|bank-completion-0", threads);
+    }
+
+    //The tasks still queued at shutdown fail instead of leaving their callers waiting
+    @Test
+    void testExecutorShutdownRejectsQueuedTasks() throws Exception {
+
+        //Arrange
+        var executor = new StripedTransactionExecutor(1, 4, new BankTransactionMetrics(new SimpleMeterRegistry()));
+        var started = new CountDownLatch(1);
+        var running = executor.submit(() -> {
+            started.countDown();
+            Thread.sleep(60000);
+            return 1;
+        }, UUID.randomUUID());
+        var queued = executor.submit(() -> 2, UUID.randomUUID());
+        started.await();
+
+        //Act
+        executor.shutdown();
+        var submittedAfter = executor.submit(() -> 3, UUID.randomUUID());
+
+        //Assert
+        var interrupted = assertThrows(ExecutionException.class, () -> running.get(5, TimeUnit.SECONDS));
+        var rejected = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        var rejectedAfter = assertThrows(ExecutionException.class, () -> submittedAfter.get(5, TimeUnit.SECONDS));
+        assertTrue(interrupted.getCause() instanceof InterruptedException);
+        assertTrue(rejected.getCause() instanceof RejectedExecutionException);
+        assertTrue(rejectedAfter.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    void testShoppingTransactionRetried() {
+
+        //Arrange
+        Money originalDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
+        Money originalWithdrawSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
+
+        var operationId = UUID.randomUUID().toString();
+        List<CompletableFuture<TransactionResult>> results = new ArrayList<>();
+
+        //Act
+        for (int i = 0; i < 5; i++) {
+            var transaction = new ShoppingTransactionModel(operationId, TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, 10, PaymentMethod.CARD);
+            results.add(bankManager.shoppingTransactionAsync(transaction));
+        }
+        results.forEach(CompletableFuture::join);
+        var retried = bankManager.shoppingTransaction(new ShoppingTransactionModel(operationId, TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, 10, PaymentMethod.CARD));
+        Money actualDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
+        Money actualWithdrawSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
+
+        //Assert
+        for (CompletableFuture<TransactionResult> result : results) {
+            assertEquals(TransactionStatus.SUCCESS, result.join().getTransactionStatus());
+        }
+        assertEquals(TransactionStatus.SUCCESS, retried.getTransactionStatus());
+        assertEquals(operationId, retried.getTransactionId());
+        assertEquals(originalDepositSold.plus(Money.of(10)), actualDepositSold);
+        assertEquals(originalWithdrawSold.minus(Money.of(10)), actualWithdrawSold);
+    }
+
+    //The result of a transaction is recorded in the database transaction which settled it, so a failed record rolls back the payment
+    @Test
+    void testTransactionRecordedWithItsSettlement() {
+
+        //Arrange
+        var operationId = UUID.randomUUID().toString();
+        var transaction = new BankTransactionModel(new ShoppingTransactionModel(operationId, TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, 10, PaymentMethod.CARD));
+        transaction.setWithdrawalAccount(accountService.getAccountByClientId(TestConst.CLIENT_ID));
+        transaction.setDepositAccount(accountService.getAccountByClientId(TestConst.SHOP_ID));
+        Money originalWithdrawSold = transaction.getWithdrawalAccount().getSold();
+        Money originalDepositSold = transaction.getDepositAccount().getSold();
+        var recorded = new TransactionResult(TransactionStatus.SUCCESS, operationId, SUCCESS);
+
+        //Act
+        var outsideTransaction = assertThrows(IllegalTransactionStateException.class, () -> idempotencyStore.record(List.of(recorded)));
+        // Recorded twice, as if a concurrent retry had recorded it first
+        var failedRecord = assertThrows(RuntimeException.class, () -> new TransactionTemplate(transactionManager).execute(settlement -> {
+            var results = bankTransactionManager.executeBatch(List.of(transaction));
+            idempotencyStore.record(results);
+            idempotencyStore.record(results);
+            return results;
+        }));
+        var recordCount = jdbcTemplate.queryForObject("select count(*) from transaction_record where operation_id = ?", Long.class, operationId);
+
+        //Assert
+        assertNotNull(outsideTransaction);
+        assertNotNull(failedRecord);
+        assertEquals(0, recordCount);
+        assertEquals(originalWithdrawSold, accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold());
+        assertEquals(originalDepositSold, accountService.getAccountByClientId(TestConst.SHOP_ID).getSold());
+    }
+
+    @Test
+    void testAccountStatementPages() throws IOException {
+
+        //Arrange
+        for (int i = 0; i < 2; i++) {
+            bankManager.shoppingTransaction(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "statement", TestConst.CARD_ID, 1, PaymentMethod.CARD));
+        }
+        var accountId = accountService.getAccountIdByClientId(TestConst.SHOP_ID);
+        var mapper = new ObjectMapper();
+
+        //Act
+        var firstPage = new ByteArrayOutputStream();
+        statementService.writeStatement(accountId, null, OperationStatus.CLOSED, OperationType.DEPOSIT, null, 1, firstPage);
+        var first = mapper.readTree(firstPage.toByteArray());
+        var secondPage = new ByteArrayOutputStream();
+        statementService.writeStatement(accountId, StatementCursor.decode(first.get("next").asText()), OperationStatus.CLOSED, OperationType.DEPOSIT, null, 1, secondPage);
+        var second = mapper.readTree(secondPage.toByteArray());
+
+        //Assert
+        assertEquals(1, first.get("operations").size());
+        assertEquals(1, second.get("operations").size());
+        assertEquals("DEPOSIT", second.get("operations").get(0).get("operationType").asText());
+        assertNotEquals(first.get("operations").get(0).get("id").asText(), second.get("operations").get(0).get("id").asText());
+    }
+
+    @Test
+    void testOperationArchive() throws IOException {
+
+        //Arrange
+        for (int i = 0; i < 2; i++) {
+            bankManager.shoppingTransaction(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "archive", TestConst.CARD_ID, 1, PaymentMethod.CARD));
+        }
+        var accountId = accountService.getAccountIdByClientId(TestConst.SHOP_ID);
+        var mapper = new ObjectMapper();
+        var pageBefore = new ByteArrayOutputStream();
+        statementService.writeStatement(accountId, null, OperationStatus.CLOSED, null, null, 3, pageBefore);
+        var movementBefore = archiveService.getClosedMovement(accountId);
+
+        //Act
+        long archived = archiveService.archive(new Date(System.currentTimeMillis() + 1000));
+        var pageAfter = new ByteArrayOutputStream();
+        statementService.writeStatement(accountId, null, OperationStatus.CLOSED, null, null, 3, pageAfter);
+        var movementAfter = archiveService.getClosedMovement(accountId);
+
+        //Assert
+        assertTrue(archived >= 2);
+        assertEquals(mapper.readTree(pageBefore.toByteArray()), mapper.readTree(pageAfter.toByteArray()));
+        assertEquals(movementBefore, movementAfter);
+    }
+
+    //A balance written without its operations is reported, the balances written with their operations match them
+    @Test
+    void testLedgerReconciliation() {
+
+        //Arrange
+        reconciliationService.reconcile();
+        bankManager.shoppingTransaction(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "reconciliation", TestConst.CARD_ID, 1, PaymentMethod.CARD));
+        var accountId = accountService.getAccountIdByClientId(TestConst.SHOP_ID);
+        var matching = reconciliationService.reconcile();
+        jdbcTemplate.update("update account set sold = sold + 1 where id = ?", (Object) TimeOrderedUUID.toBytes(accountId));
+
+        //Act
+        ReconciliationReport drifting;
+        try {
+            drifting = reconciliationService.reconcile();
+        } finally {
+            jdbcTemplate.update("update account set sold = sold - 1 where id = ?", (Object) TimeOrderedUUID.toBytes(accountId));
+        }
+
+        //Assert
+        assertEquals(0, matching.drifted());
+        assertTrue(matching.operations() >= 2);
+        assertEquals(1, drifting.drifted());
+        assertEquals(accountId, drifting.drifts().get(0).ownerId());
+        assertEquals(Money.ofMinorUnits(1), drifting.drifts().get(0).drift());
+    }
+
+    //A transaction is timed by payment method and outcome, with the time it waited in its lane and spent in each stage
+    @Test
+    void testTransactionMetrics() {
+
+        //Arrange
+        var tags = new String[]{"type", "shopping", "payment_method", "card", "status", "success"};
+        var timer = meterRegistry.find("bank.transaction").tags(tags).timer();
+        long before = timer == null ? 0 : timer.count();
+
+        //Act
+        var res = bankManager.shoppingTransaction(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "metrics", TestConst.CARD_ID, 1, PaymentMethod.CARD));
+
+        //Assert
+        assertEquals(TransactionStatus.SUCCESS, res.getTransactionStatus());
+        var transactions = meterRegistry.get("bank.transaction").tags(tags).timer();
+        assertEquals(before + 1, transactions.count());
+        assertTrue(meterRegistry.get("bank.executor.queue.wait").timers().stream().mapToLong(Timer::count).sum() > 0);
+        assertTrue(meterRegistry.get("bank.transaction.stage").tag("stage", "write_operations").timer().count() > 0);
+        assertTrue(meterRegistry.get("bank.transaction.stage").tag("stage", "resolve_accounts").timer().count() > 0);
+        assertTrue(meterRegistry.get("bank.executor.queue.depth").gauges().size() > 0);
     }
 
     @Test
     void testShoppingTransactionByQrCheck() {
 
         //Arrange
-        double originalDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
-        double originalWithdrawSold = accountService.getAccountByOwnerName(BankConstants.BANK_NAME).getSold();
+        Money originalDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
+        Money originalWithdrawSold = accountService.getAccountByOwnerName(BankConstants.BANK_NAME).getSold();
 
-        double actualDepositSold;
-        double actualWithdrawSold;
-        double actualQrCheckSold;
+        Money actualDepositSold;
+        Money actualWithdrawSold;
+        Money actualQrCheckSold;
 
 
         var checkId = UUID.randomUUID();
         QrCheck qrCheck = (QrCheck) qrCheckService.add(new QrCheck(10d, checkId.toString())).getData();
         qrCheckService.persist();
-        double qrSold = qrCheck.getSoldAmount();
+        Money qrSold = qrCheck.getSoldAmount();
 
         ShoppingTransactionModel transaction = new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME.toString(), "test", qrCheck.getCheckToken(), 10, PaymentMethod.CHECK);
 
@@ -184,9 +639,120 @@ public class BankTransactionTests {
 
         //Assert
         assertEquals(res.getTransactionStatus(), TransactionStatus.SUCCESS);
-        assertEquals(0, actualQrCheckSold);
-        assertEquals((originalDepositSold + 10d), actualDepositSold);
-        assertEquals((originalWithdrawSold - 10d), actualWithdrawSold);
+        assertEquals(Money.ZERO, actualQrCheckSold);
+        assertEquals((originalDepositSold.plus(Money.of(10))), actualDepositSold);
+        assertEquals((originalWithdrawSold.minus(Money.of(10))), actualWithdrawSold);
+    }
+
+    //An account and a check are deleted with their operations
+    @Test
+    void testDeleteOwnersWithOperations() {
+
+        //Arrange
+        var cardId = UUID.randomUUID().toString();
+        var client = new Client(TimeOrderedUUID.randomUUID(), "Delete", UUID.randomUUID().toString(), SocialReasonStatus.INDIVIDUAL);
+        var account = (Account) accountService.add(new Account(100, client, new Card(cardId))).getData();
+        var qrCheck = (QrCheck) qrCheckService.add(new QrCheck(10d, UUID.randomUUID().toString())).getData();
+        var cardPayment = bankManager.shoppingTransaction(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", cardId, 5, PaymentMethod.CARD));
+        var checkPayment = bankManager.shoppingTransaction(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", qrCheck.getCheckToken(), 5, PaymentMethod.CHECK));
+
+        //Act
+        var checkDeletion = qrCheckService.delete((QrCheck) qrCheckService.get(qrCheck.getId().toString()).getData());
+        var clientDeletion = clientService.delete(client);
+        var accountOperations = jdbcTemplate.queryForObject("select count(*) from operation where account_id = ?", Long.class, TimeOrderedUUID.toBytes(account.getId()));
+        var checkOperations = jdbcTemplate.queryForObject("select count(*) from operation where qr_check_id = ?", Long.class, TimeOrderedUUID.toBytes(qrCheck.getId()));
+
+        //Assert
+        assertEquals(TransactionStatus.SUCCESS, cardPayment.getTransactionStatus());
+        assertEquals(TransactionStatus.SUCCESS, checkPayment.getTransactionStatus());
+        assertTrue(checkDeletion.isValid());
+        assertTrue(clientDeletion.isValid());
+        assertEquals(0, accountOperations);
+        assertEquals(0, checkOperations);
+        assertNull(accountService.getAccountByCardId(cardId));
+    }
+
+    //A check debit declined inside the database transaction of the caller leaves it committable, with no balance changed
+    @Test
+    void testQrCheckDebitDeclinedInCallerTransaction() {
+
+        //Arrange
+        var checkToken = UUID.randomUUID().toString();
+        var qrCheck = (QrCheck) qrCheckService.add(new QrCheck(10d, checkToken)).getData();
+        var transaction = new BankTransactionModel(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", checkToken, 10, PaymentMethod.CHECK));
+        transaction.setWithdrawalAccount(accountService.getAccountByOwnerName(BankConstants.BANK_NAME));
+        transaction.setDepositAccount(accountService.getAccountByClientId(TestConst.SHOP_ID));
+        transaction.setQrCheck(qrCheck);
+        // The check is spent by another way after it was loaded
+        jdbcTemplate.update("update qr_check set sold_amount = 500 where id = ?", (Object) TimeOrderedUUID.toBytes(qrCheck.getId()));
+        Money originalWithdrawSold = transaction.getWithdrawalAccount().getSold();
+        Money originalDepositSold = transaction.getDepositAccount().getSold();
+
+        //Act
+        var status = new TransactionTemplate(transactionManager).execute(callerTransaction -> {
+            try {
+                return bankTransactionManager.settle(transaction);
+            } catch (BankTransactionException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        //Assert
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS_ERROR, status);
+        assertEquals(originalWithdrawSold, accountService.getAccountByOwnerName(BankConstants.BANK_NAME).getSold());
+        assertEquals(originalDepositSold, accountService.getAccountByClientId(TestConst.SHOP_ID).getSold());
+        assertEquals(Money.of(5), qrCheckService.getCheckByCheckToken(checkToken).getSoldAmount());
+    }
+
+    //A check whose expiration date is passed is declined before being marked expired, then marked by the sweep
+    @Test
+    void testQrCheckExpirySweep() {
+
+        //Arrange
+        var checkToken = UUID.randomUUID().toString();
+        var qrCheck = (QrCheck) qrCheckService.add(new QrCheck(10d, checkToken)).getData();
+        var id = TimeOrderedUUID.toBytes(qrCheck.getId());
+        jdbcTemplate.update("update qr_check set expiration_date = ? where id = ?", Timestamp.from(Instant.now().minusSeconds(60)), id);
+        var transaction = new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "expired", checkToken, 1, PaymentMethod.CHECK);
+
+        //Act
+        var res = bankManager.shoppingTransaction(transaction);
+        var markedBefore = jdbcTemplate.queryForObject("select expired from qr_check where id = ?", Boolean.class, (Object) id);
+        var marked = expiryService.sweep(new Date());
+        var markedAfter = jdbcTemplate.queryForObject("select expired from qr_check where id = ?", Boolean.class, (Object) id);
+
+        //Assert
+        assertEquals(TransactionStatus.VALIDITY_DATE_ERROR, res.getTransactionStatus());
+        assertEquals(false, markedBefore);
+        assertTrue(marked >= 1);
+        assertEquals(true, markedAfter);
+        assertTrue(qrCheckService.getCheckByCheckToken(checkToken).isExpired());
+    }
+
+    //A token never issued is answered without the database, an issued token is always looked up
+    @Test
+    void testCheckTokenFilter() {
+
+        //Arrange
+        var token = UUID.randomUUID().toString();
+        var skipped = meterRegistry.get("bank.qr_check.token.filter").tag("result", "skipped").counter();
+        double skippedBefore = skipped.count();
+        var transaction = new QrCheckTransactionModel(UUID.randomUUID().toString(), token, 10d, TestConst.CLIENT_ID, PaymentMethod.TRANSFER);
+
+        //Act
+        var unknown = qrCheckService.getCheckByCheckToken(token);
+        double skippedUnknown = skipped.count();
+        var res = bankManager.buyCheckTransaction(transaction);
+        var issued = qrCheckService.getCheckByCheckToken(token);
+        // Same token for the database collation
+        var issuedUpperCase = checkTokenFilter.mightContain(token.toUpperCase() + " ");
+
+        //Assert
+        assertNull(unknown);
+        assertEquals(skippedBefore + 1, skippedUnknown);
+        assertEquals(TransactionStatus.SUCCESS, res.getTransactionStatus());
+        assertNotNull(issued);
+        assertTrue(issuedUpperCase);
     }
 
     @Test
@@ -199,6 +765,56 @@ public class BankTransactionTests {
         assertEquals(resAmountInvalid.getTransactionStatus(), TransactionStatus.AMOUNT_ERROR);
     }
 
+    //An amount which is not a number or does not fit in the balances is declined, with or without operation id
+    @Test
+    void testTransactionAmountNotRepresentable() {
+        //Arrange
+        var notANumber = new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, Float.NaN, PaymentMethod.CARD);
+        var tooLarge = new ShoppingTransactionModel(null, TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, 1e20f, PaymentMethod.CARD);
+        var infiniteCheck = new QrCheckTransactionModel(null, UUID.randomUUID().toString(), Double.POSITIVE_INFINITY, TestConst.CLIENT_ID, PaymentMethod.TRANSFER);
+        var tooLargeCheck = new QrCheckTransactionModel(UUID.randomUUID().toString(), UUID.randomUUID().toString(), 1e20, TestConst.CLIENT_ID, PaymentMethod.TRANSFER);
+        //Act
+        var resNotANumber = bankManager.shoppingTransaction(notANumber);
+        var resTooLarge = bankManager.shoppingTransaction(tooLarge);
+        var resInfiniteCheck = bankManager.buyCheckTransaction(infiniteCheck);
+        var resTooLargeCheck = bankManager.buyCheckTransaction(tooLargeCheck);
+        //Assert
+        assertEquals(TransactionStatus.AMOUNT_ERROR, resNotANumber.getTransactionStatus());
+        assertEquals(TransactionStatus.AMOUNT_ERROR, resTooLarge.getTransactionStatus());
+        assertEquals(TransactionStatus.AMOUNT_ERROR, resInfiniteCheck.getTransactionStatus());
+        assertEquals(TransactionStatus.AMOUNT_ERROR, resTooLargeCheck.getTransactionStatus());
+    }
+
+    //A bank transaction built from an amount which cannot be held as money is declined by the lane too
+    @Test
+    void testBankTransactionAmountNotRepresentable() throws BankTransactionException {
+        //Arrange
+        var transaction = new BankTransactionModel(new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, Float.POSITIVE_INFINITY, PaymentMethod.CARD));
+        transaction.setWithdrawalAccount(accountService.getAccountByClientId(TestConst.CLIENT_ID));
+        transaction.setDepositAccount(accountService.getAccountByClientId(TestConst.SHOP_ID));
+        //Act
+        var status = bankTransactionManager.settle(transaction);
+        //Assert
+        assertNull(transaction.getAmount());
+        assertEquals(TransactionStatus.AMOUNT_ERROR, status);
+    }
+
+    @Test
+    void testShoppingDeclinedBeforeQueue() {
+        //Arrange
+        ShoppingTransactionModel transactionAmountInvalid = new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", TestConst.CARD_ID, -10, PaymentMethod.CARD);
+        ShoppingTransactionModel transactionCardUnknown = new ShoppingTransactionModel(UUID.randomUUID().toString(), TestConst.SHOP_USERNAME, "test", "notAValidCardId", 10, PaymentMethod.CARD);
+        //Act
+        var resAmountInvalid = bankManager.shoppingTransactionAsync(transactionAmountInvalid);
+        var resCardUnknown = bankManager.shoppingTransactionAsync(transactionCardUnknown);
+        //Assert
+        // Declined on the caller thread, the futures are completed without waiting for a lane
+        assertTrue(resAmountInvalid.isDone());
+        assertTrue(resCardUnknown.isDone());
+        assertEquals(TransactionStatus.AMOUNT_ERROR, resAmountInvalid.join().getTransactionStatus());
+        assertEquals(TransactionStatus.ACCOUNT_ERROR, resCardUnknown.join().getTransactionStatus());
+    }
+
     @Test
     void testShoppingCardNull() {
         //Arrange
@@ -239,8 +855,8 @@ public class BankTransactionTests {
 
     @Test
     void testShoppingNotEnoughMoney() {
-        double originalDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
-        double originalWithdrawSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
+        Money originalDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
+        Money originalWithdrawSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
 
         Account afterWithdrawNotEnoughMoney = null;
         Account afterDepositNotEnoughMoney = null;
@@ -260,8 +876,8 @@ public class BankTransactionTests {
     @Test
     void testShoppingDepositAccountNull() {
         //Arrange
-        double originalDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
-        double originalWithdrawSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
+        Money originalDepositSold = accountService.getAccountByClientId(TestConst.SHOP_ID).getSold();
+        Money originalWithdrawSold = accountService.getAccountByClientId(TestConst.CLIENT_ID).getSold();
 
         Account afterDepositAccountNullWithdrawAccount = null;
         Account afterDepositAccountNullDepositAccount = null;
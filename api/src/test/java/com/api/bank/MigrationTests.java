@@ -0,0 +1,224 @@
+package com.api.bank;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.TimeOrderedUUID;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The migrations run on an embedded H2 database in MySQL mode (Flyway does not know the MariaDB mode of H2),
+// then Hibernate validates the entities against the schema. H2 has no unhex function, it is declared by the tests.
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:migration;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=validate",
+        "spring.jpa.show-sql=false",
+        "spring.flyway.init-sqls=" + MigrationTests.CREATE_UNHEX})
+public class MigrationTests {
+    static final String CREATE_UNHEX = "create alias if not exists unhex for 'com.api.bank.MigrationTests.unhex'";
+
+    @Autowired
+    private Flyway flyway;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    //Every migration is applied
+    @Test
+    void testMigrationsApplied() {
+
+        //Act
+        var info = flyway.info();
+
+        //Assert
+        assertEquals(0, info.pending().length);
+        assertEquals("6", info.current().getVersion().getVersion());
+    }
+
+    //The repository finders which are not served by a primary or unique key have an index leading with their columns
+    @Test
+    void testFinderIndexes() {
+
+        //Arrange
+        var expectedColumns = Map.ofEntries(
+                Map.entry("idx_operation_account_date_id", List.of("account_id", "operation_date", "id")),
+                Map.entry("idx_operation_account_status_operation_id", List.of("account_id", "operation_status", "operation_id")),
+                Map.entry("idx_operation_operation_id", List.of("operation_id")),
+                Map.entry("idx_account_client_id", List.of("client_id")),
+                Map.entry("idx_account_card_id", List.of("card_id")),
+                Map.entry("idx_client_lastname", List.of("lastname")),
+                Map.entry("idx_client_created_at", List.of("created_at")),
+                Map.entry("idx_manager_username", List.of("username")),
+                Map.entry("idx_operation_status_date", List.of("operation_status", "operation_date")),
+                Map.entry("idx_operation_archive_account_date_id", List.of("account_id", "operation_date", "id")),
+                Map.entry("idx_operation_qr_check_date_id", List.of("qr_check_id", "operation_date", "id")),
+                Map.entry("idx_operation_archive_qr_check_date_id", List.of("qr_check_id", "operation_date", "id")),
+                Map.entry("idx_qr_check_expired_expiration_date", List.of("expired", "expiration_date")),
+                Map.entry("idx_card_expired_expiration_date", List.of("expired", "expiration_date")));
+
+        //Act
+        Map<String, List<String>> actualColumns = new HashMap<>();
+        jdbcTemplate.query("select index_name, column_name from information_schema.index_columns order by index_name, ordinal_position",
+                row -> {
+                    actualColumns.computeIfAbsent(row.getString("index_name"), name -> new ArrayList<>()).add(row.getString("column_name"));
+                });
+
+        //Assert
+        expectedColumns.forEach((index, columns) -> assertEquals(columns, actualColumns.get(index), index));
+    }
+
+    //A database created by Hibernate before the migrations is baselined at V1, then gets every later change of the schema
+    @Test
+    void testBaselinedDatabaseMigration() {
+
+        //Arrange
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:baselined;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        var database = new JdbcTemplate(dataSource);
+        new ResourceDatabasePopulator(new ClassPathResource("db/migration/V1__initial_schema.sql")).execute(dataSource);
+        database.update("insert into account (id, sold) values (?, 12.5)", UUID.randomUUID().toString());
+
+        //Act
+        Flyway.configure().dataSource(dataSource).initSql(CREATE_UNHEX).baselineOnMigrate(true).baselineVersion("1").load().migrate();
+        var sold = database.queryForObject("select sold from account", Long.class);
+        var records = database.queryForObject("select count(*) from transaction_record", Long.class);
+        var checkpoints = database.queryForObject("select count(*) from ledger_checkpoint", Long.class);
+
+        //Assert
+        assertEquals(1250L, sold);
+        assertEquals(0L, records);
+        assertEquals(0L, checkpoints);
+    }
+
+    //The balances are converted to minor units with the rounding of Money, half to even
+    @Test
+    void testMoneyMinorUnitsMigration() {
+
+        //Arrange
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:money-minor-units;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        var database = new JdbcTemplate(dataSource);
+        var solds = List.of(0.125, 0.135, 0.015, 2.675, -0.125, 1.005, 12.5, 1e9 + 0.005);
+        Map<String, Double> soldsById = new HashMap<>();
+        Flyway.configure().dataSource(dataSource).initSql(CREATE_UNHEX).target("1").load().migrate();
+        for (var sold : solds) {
+            var id = UUID.randomUUID().toString();
+            soldsById.put(id, sold);
+            database.update("insert into account (id, sold) values (?, ?)", id, sold);
+        }
+
+        //Act
+        Flyway.configure().dataSource(dataSource).initSql(CREATE_UNHEX).target("1.3").load().migrate();
+        Map<String, Long> minorUnitsById = new HashMap<>();
+        database.query("select id, sold from account", row -> {
+            minorUnitsById.put(row.getString("id"), row.getLong("sold"));
+        });
+
+        //Assert
+        soldsById.forEach((id, sold) -> assertEquals(Money.of(sold).getMinorUnits(), minorUnitsById.get(id), String.valueOf(sold)));
+    }
+
+    //The ids stored as text keep their value when they are stored as bytes
+    @Test
+    void testBinaryIdsMigration() {
+
+        //Arrange
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:binary-ids;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        var database = new JdbcTemplate(dataSource);
+        var clientId = UUID.randomUUID();
+        var accountId = UUID.randomUUID();
+        var operationId = UUID.randomUUID();
+        Flyway.configure().dataSource(dataSource).initSql(CREATE_UNHEX).target("2").load().migrate();
+        database.update("insert into client (id, social_reason) values (?, 0)", clientId.toString());
+        database.update("insert into account (id, sold, client_id) values (?, 100, ?)", accountId.toString(), clientId.toString());
+        database.update("insert into operation (id, amount, operation_id, account_id) values (?, 10, 'operation', ?)",
+                operationId.toString(), accountId.toString());
+
+        //Act
+        Flyway.configure().dataSource(dataSource).initSql(CREATE_UNHEX).load().migrate();
+        var operation = database.queryForMap("select id, account_id from operation");
+        var account = database.queryForMap("select id, client_id from account");
+
+        //Assert
+        assertEquals(operationId, toUUID((byte[]) operation.get("id")));
+        assertEquals(accountId, toUUID((byte[]) operation.get("account_id")));
+        assertEquals(accountId, toUUID((byte[]) account.get("id")));
+        assertEquals(clientId, toUUID((byte[]) account.get("client_id")));
+    }
+
+    //An id which is not a UUID stops the migration before any table is changed
+    @Test
+    void testBinaryIdsMigrationInvalidId() {
+
+        //Arrange
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:binary-ids-invalid;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        var database = new JdbcTemplate(dataSource);
+        var clientId = UUID.randomUUID();
+        Flyway.configure().dataSource(dataSource).initSql(CREATE_UNHEX).target("2").load().migrate();
+        database.update("insert into client (id, social_reason) values (?, 0)", clientId.toString());
+        database.update("insert into account (id, sold, client_id) values ('not-a-uuid', 100, ?)", clientId.toString());
+
+        //Act
+        var flyway = Flyway.configure().dataSource(dataSource).initSql(CREATE_UNHEX).load();
+        assertThrows(FlywayException.class, flyway::migrate);
+        var account = database.queryForMap("select id, client_id from account");
+
+        //Assert
+        assertEquals("not-a-uuid", account.get("id"));
+        assertEquals(clientId.toString(), account.get("client_id"));
+    }
+
+    //The existing checks expire their number of days of validity after their creation
+    @Test
+    void testQrCheckExpirationMigration() {
+
+        //Arrange
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:qr-check-expiration;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        var database = new JdbcTemplate(dataSource);
+        var createdAt = Timestamp.valueOf("2023-01-10 12:00:00");
+        Flyway.configure().dataSource(dataSource).initSql(CREATE_UNHEX).target("5").load().migrate();
+        database.update("insert into qr_check (id, created_at, check_token, nb_day_of_validity, sold_amount) values (?, ?, 'token', 10, 100)",
+                TimeOrderedUUID.toBytes(UUID.randomUUID()), createdAt);
+
+        //Act
+        Flyway.configure().dataSource(dataSource).initSql(CREATE_UNHEX).load().migrate();
+        var qrCheck = database.queryForMap("select expiration_date, expired from qr_check");
+
+        //Assert
+        assertEquals(Timestamp.valueOf("2023-01-20 12:00:00"), qrCheck.get("expiration_date"));
+        assertEquals(false, qrCheck.get("expired"));
+    }
+
+    private static UUID toUUID(byte[] bytes) {
+        var buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * The unhex function of MariaDB, declared in H2 by the tests
+     */
+    public static byte[] unhex(String value) {
+        return value == null ? null : HexFormat.of().parseHex(value);
+    }
+}
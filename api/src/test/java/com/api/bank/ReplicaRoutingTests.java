@@ -0,0 +1,85 @@
+package com.api.bank;
+
+import com.api.bank.config.ReplicaRoutingDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Two embedded H2 databases, the replica holding a table in place of the replication status of MariaDB
+public class ReplicaRoutingTests {
+    private static final String DATABASE_NAME = "select database()";
+
+    private JdbcTemplate replica;
+    private ReplicaRoutingDataSource routingDataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readOnlyTransaction;
+    private TransactionTemplate transaction;
+
+    @BeforeEach
+    void setUp() {
+        var primaryDataSource = new DriverManagerDataSource("jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1", "sa", "");
+        var replicaDataSource = new DriverManagerDataSource("jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1", "sa", "");
+        replica = new JdbcTemplate(replicaDataSource);
+        replica.execute("create table if not exists replica_status (seconds_behind_master bigint)");
+        replica.execute("delete from replica_status");
+        replica.update("insert into replica_status values (0)");
+
+        routingDataSource = new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource, "select * from replica_status", 5, 60000);
+        routingDataSource.afterPropertiesSet();
+        var dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        var transactionManager = new DataSourceTransactionManager(dataSource);
+        transaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        routingDataSource.destroy();
+    }
+
+    //The read-only transactions read the replica, the others the primary database
+    @Test
+    void testReadOnlyTransactionsUseReplica() {
+
+        //Act
+        var readOnlyDatabase = readOnlyTransaction.execute(status -> jdbcTemplate.queryForObject(DATABASE_NAME, String.class));
+        var readWriteDatabase = transaction.execute(status -> jdbcTemplate.queryForObject(DATABASE_NAME, String.class));
+
+        //Assert
+        assertTrue(routingDataSource.isReplicaUsable());
+        assertEquals("REPLICA", readOnlyDatabase);
+        assertEquals("PRIMARY", readWriteDatabase);
+    }
+
+    //A replica lagging too much, or not reachable, is not read until it catches up
+    @Test
+    void testLaggingReplicaFallsBackToPrimary() {
+
+        //Arrange
+        replica.update("update replica_status set seconds_behind_master = 60");
+
+        //Act
+        routingDataSource.checkReplica();
+        var laggingDatabase = readOnlyTransaction.execute(status -> jdbcTemplate.queryForObject(DATABASE_NAME, String.class));
+        replica.update("update replica_status set seconds_behind_master = 1");
+        routingDataSource.checkReplica();
+        var caughtUpDatabase = readOnlyTransaction.execute(status -> jdbcTemplate.queryForObject(DATABASE_NAME, String.class));
+        replica.execute("drop table replica_status");
+        routingDataSource.checkReplica();
+        var unreachableDatabase = readOnlyTransaction.execute(status -> jdbcTemplate.queryForObject(DATABASE_NAME, String.class));
+
+        //Assert
+        assertEquals("PRIMARY", laggingDatabase);
+        assertEquals("REPLICA", caughtUpDatabase);
+        assertEquals("PRIMARY", unreachableDatabase);
+    }
+}
@@ -0,0 +1,313 @@
+package com.api.bank.ledger;
+
+import com.api.bank.model.Money;
+import com.api.bank.model.entity.Account;
+import com.api.bank.model.enums.BankTransactionType;
+import com.api.bank.model.enums.PaymentMethod;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Journals in a temporary directory, with a window holding three entries so that they span several windows
+public class LedgerTests {
+    private static final int WINDOW_SIZE = 512;
+
+    @TempDir
+    Path directory;
+
+    //The entries appended across several windows are read back in order once the journal is reopened
+    @Test
+    void testJournalReopenedAcrossWindows() throws IOException {
+
+        //Arrange
+        var path = directory.resolve("ledger.journal");
+        var account = UUID.randomUUID();
+        var shop = UUID.randomUUID();
+        List<LedgerEntry> appended = new ArrayList<>();
+
+        //Act
+        try (var journal = open(path, 0)) {
+            for (int i = 0; i < 20; i++) {
+                appended.add(journal.append(sequence -> entry(sequence, account, shop)));
+            }
+            journal.force();
+        }
+        List<LedgerEntry> read;
+        LedgerEntry next;
+        try (var journal = new LedgerJournal(path, WINDOW_SIZE)) {
+            read = journal.read(0);
+            next = journal.append(sequence -> entry(sequence, account, shop));
+        }
+
+        //Assert
+        assertTrue(recordPosition(path, 19) > WINDOW_SIZE);
+        assertEquals(20, read.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i + 1, read.get(i).getSequence());
+            assertEquals(appended.get(i).getOperationId(), read.get(i).getOperationId());
+            assertEquals(appended.get(i).getWithdrawalSold(), read.get(i).getWithdrawalSold());
+            assertEquals(shop, read.get(i).getDepositAccountId());
+            assertEquals(PaymentMethod.CARD, read.get(i).getPaymentMethod());
+        }
+        assertEquals(21, next.getSequence());
+    }
+
+    //Reading stops at a record whose CRC does not match, and the next entry is appended in its place
+    @Test
+    void testJournalStopsAtCorruptRecord() throws IOException {
+
+        //Arrange
+        var path = directory.resolve("ledger.journal");
+        var account = UUID.randomUUID();
+        try (var journal = open(path, 0)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(sequence -> entry(sequence, account, account));
+            }
+        }
+        try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), recordPosition(path, 3) + Integer.BYTES + 20);
+        }
+
+        //Act
+        List<LedgerEntry> readCorrupt;
+        LedgerEntry next;
+        try (var journal = new LedgerJournal(path, WINDOW_SIZE)) {
+            readCorrupt = journal.read(0);
+            next = journal.append(sequence -> entry(sequence, account, account));
+        }
+        List<LedgerEntry> readAgain;
+        try (var journal = new LedgerJournal(path, WINDOW_SIZE)) {
+            readAgain = journal.read(0);
+        }
+
+        //Assert
+        assertEquals(3, readCorrupt.size());
+        assertEquals(4, next.getSequence());
+        // The record after the corrupt one is behind the end marker of the new entry
+        assertEquals(4, readAgain.size());
+        assertEquals(next.getOperationId(), readAgain.get(3).getOperationId());
+    }
+
+    //A record cut by a crash while it was written is not read
+    @Test
+    void testJournalStopsAtTornRecord() throws IOException {
+
+        //Arrange
+        var path = directory.resolve("ledger.journal");
+        var account = UUID.randomUUID();
+        try (var journal = open(path, 0)) {
+            for (int i = 0; i < 3; i++) {
+                journal.append(sequence -> entry(sequence, account, account));
+            }
+        }
+        try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(recordPosition(path, 2) + 10);
+        }
+
+        //Act
+        List<LedgerEntry> read;
+        try (var journal = new LedgerJournal(path, WINDOW_SIZE)) {
+            read = journal.read(0);
+        }
+
+        //Assert
+        assertEquals(2, read.size());
+        assertEquals(2, read.get(1).getSequence());
+    }
+
+    //The journal is started over only once all its entries are in the database, and the sequences go on after the checkpoint
+    @Test
+    void testJournalResetIfCheckpointed() throws IOException {
+
+        //Arrange
+        var path = directory.resolve("ledger.journal");
+        var account = UUID.randomUUID();
+        boolean resetBeforeCheckpoint;
+        boolean reset;
+        boolean resetAgain;
+
+        //Act
+        try (var journal = open(path, 0)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(sequence -> entry(sequence, account, account));
+            }
+            resetBeforeCheckpoint = journal.resetIfCheckpointed(4);
+            reset = journal.resetIfCheckpointed(5);
+            resetAgain = journal.resetIfCheckpointed(5);
+        }
+        List<LedgerEntry> read;
+        LedgerEntry next;
+        try (var journal = new LedgerJournal(path, WINDOW_SIZE)) {
+            read = journal.read(5);
+            next = journal.append(sequence -> entry(sequence, account, account));
+        }
+
+        //Assert
+        assertFalse(resetBeforeCheckpoint);
+        assertTrue(reset);
+        assertFalse(resetAgain);
+        assertTrue(read.isEmpty());
+        assertEquals(6, next.getSequence());
+    }
+
+    //On startup, the engine loads the balances of the entries past the checkpoint, then writes only those in the database
+    @Test
+    void testEngineReplaysPastCheckpoint() throws IOException, InterruptedException {
+
+        //Arrange
+        var path = directory.resolve("ledger.journal");
+        var account = UUID.randomUUID();
+        var shop = UUID.randomUUID();
+        List<LedgerEntry> appended = new ArrayList<>();
+        try (var journal = open(path, 0)) {
+            for (int i = 0; i < 5; i++) {
+                appended.add(journal.append(sequence -> entry(sequence, account, shop)));
+            }
+        }
+        var ledgerWriter = new StubLedgerWriter(2);
+        ledgerWriter.failing = true;
+        var engine = new LedgerEngine(true, path.toString(), WINDOW_SIZE, true, 60000, 60000, ledgerWriter, new SimpleMeterRegistry());
+
+        //Act
+        engine.start();
+        int unwrittenCount = engine.getUnwrittenCount();
+        var accountBalance = engine.getBalance(new Account(account, 0, null));
+        var shopBalance = engine.getBalance(new Account(shop, 0, null));
+        ledgerWriter.failing = false;
+        engine.stop();
+        List<LedgerEntry> read;
+        try (var journal = new LedgerJournal(path, WINDOW_SIZE)) {
+            read = journal.read(ledgerWriter.getCheckpoint());
+        }
+
+        //Assert
+        assertEquals(3, unwrittenCount);
+        assertEquals(Money.ofMinorUnits(appended.get(4).getWithdrawalSold()), accountBalance);
+        assertEquals(Money.ofMinorUnits(appended.get(4).getDepositSold()), shopBalance);
+        assertEquals(List.of(3L, 4L, 5L), ledgerWriter.written);
+        assertEquals(5, ledgerWriter.getCheckpoint());
+        // Started over once everything was written
+        assertTrue(read.isEmpty());
+    }
+
+    //A failing database write is tried again later and later, and the next successful one resets the failures
+    @Test
+    void testEngineFlushBackoff() throws IOException, InterruptedException {
+
+        //Arrange
+        var path = directory.resolve("ledger.journal");
+        var account = UUID.randomUUID();
+        try (var journal = open(path, 0)) {
+            journal.append(sequence -> entry(sequence, account, account));
+        }
+        var ledgerWriter = new StubLedgerWriter(0);
+        ledgerWriter.failing = true;
+        var registry = new SimpleMeterRegistry();
+        var engine = new LedgerEngine(true, path.toString(), WINDOW_SIZE, false, 50, 400, ledgerWriter, registry);
+
+        //Act
+        engine.start();
+        Thread.sleep(2000);
+        int failedWrites = ledgerWriter.writes.get();
+        int failedFlushes = engine.getFailedFlushes();
+        var failure = engine.getLastFlushFailure();
+        ledgerWriter.failing = false;
+        boolean written = waitUntil(() -> engine.getUnwrittenCount() == 0);
+        engine.stop();
+
+        //Assert
+        // Every 50 ms without the backoff, that is about 40 writes
+        assertTrue(failedWrites >= 4 && failedWrites < 15, failedWrites + " writes");
+        assertTrue(failedFlushes >= 4);
+        assertNotNull(failure);
+        assertTrue(written);
+        assertEquals(0, engine.getFailedFlushes());
+        assertNull(engine.getLastFlushFailure());
+        assertEquals(0.0, registry.get("bank.ledger.flush.failures").gauge().value());
+        assertEquals(List.of(1L), ledgerWriter.written);
+    }
+
+    private LedgerJournal open(Path path, long checkpoint) throws IOException {
+        var journal = new LedgerJournal(path, WINDOW_SIZE);
+        journal.read(checkpoint);
+        return journal;
+    }
+
+    private static LedgerEntry entry(long sequence, UUID withdrawalAccountId, UUID depositAccountId) {
+        return new LedgerEntry(sequence, UUID.randomUUID().toString(), "ledger", 100, System.currentTimeMillis(),
+                PaymentMethod.CARD, BankTransactionType.SHOPPING, withdrawalAccountId, 100000 - sequence * 100,
+                depositAccountId, sequence * 100, null, 0);
+    }
+
+    /**
+     * Supply the position of a record in the journal file, by following the lengths of the records before it
+     *
+     * @param path  The journal file
+     * @param index The index of the record, from 0
+     * @return The position of the length of the record
+     */
+    private static long recordPosition(Path path, int index) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var length = ByteBuffer.allocate(Integer.BYTES);
+            long position = 0;
+            for (int i = 0; i < index; i++) {
+                channel.read(length.clear(), position);
+                position += Integer.BYTES + length.flip().getInt();
+            }
+            return position;
+        }
+    }
+
+    private static boolean waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    // Keeps the checkpoint in memory, and fails while asked to
+    private static class StubLedgerWriter extends LedgerWriter {
+        private final AtomicInteger writes = new AtomicInteger();
+        private final List<Long> written = new CopyOnWriteArrayList<>();
+        private volatile long checkpoint;
+        private volatile boolean failing;
+
+        StubLedgerWriter(long checkpoint) {
+            super(null, null, null);
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        public long getCheckpoint() {
+            return checkpoint;
+        }
+
+        @Override
+        public long write(List<LedgerEntry> entries) {
+            writes.incrementAndGet();
+            if (failing) throw new IllegalStateException("The database is not reachable");
+
+            for (LedgerEntry entry : entries) {
+                if (entry.getSequence() > checkpoint) written.add(entry.getSequence());
+            }
+            checkpoint = entries.get(entries.size() - 1).getSequence();
+            return checkpoint;
+        }
+    }
+}
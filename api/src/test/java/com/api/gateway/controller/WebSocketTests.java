@@ -6,6 +6,7 @@ import com.api.auth.security.providers.ShopAuthenticationProvider;
 import com.api.auth.security.providers.TpeAuthenticationProvider;
 import com.api.auth.service.AuthService;
 import com.api.bank.model.BankConstants;
+import com.api.bank.model.Money;
 import com.api.bank.model.entity.*;
 import com.api.bank.model.enums.PaymentMethod;
 import com.api.bank.model.enums.SocialReasonStatus;
@@ -209,7 +210,7 @@ public class WebSocketTests {
      */
     private void setClientSold(int sold, String clientName) {
         try {
-            accountRepository.findAccountByClient_Lastname(clientName).setSold(sold);
+            accountRepository.findAccountByClient_Lastname(clientName).setSold(Money.of(sold));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -220,7 +221,7 @@ public class WebSocketTests {
      */
     private void setOrganisationSold(int sold, String organisationName) {
         try {
-            accountRepository.findAccountByClient_OrganisationName(organisationName).setSold(sold);
+            accountRepository.findAccountByClient_OrganisationName(organisationName).setSold(Money.of(sold));
         } catch (Exception e) {
             e.printStackTrace();
         }